@@ -34,6 +34,12 @@ public interface AsyncProgressInterface {
      */
     void asyncProgressOnPreExecute();
 
+    /**
+     * Method to perform on the UI thread when the async task reports progress
+     * @param fraction fraction of the work done, from 0 to 1
+     */
+    void asyncProgressOnProgressUpdate(float fraction);
+
     /**
      * Method to perform on the UI thread after of the async task
      * This method should check the
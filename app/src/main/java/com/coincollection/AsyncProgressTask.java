@@ -17,73 +17,198 @@
  * You should have received a copy of the GNU General Public License
  * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
  */
+
 package com.coincollection;
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * sub-class of AsyncTask
- * See: http://stackoverflow.com/questions/6450275/android-how-to-work-with-asynctasks-progressdialog
+ * Runs the work for an activity's long-running operations (opening the database, importing,
+ * exporting, etc.) on a small dedicated thread pool and reports back on the UI thread.
+ *
+ * The task is handed from one activity instance to the next across configuration changes
+ * (see BaseActivity.onRetainCustomNonConfigurationInstance), so it holds onto its result
+ * until a listener is attached and delivers it then, rather than waiting for one to appear.
+ *
+ * Apart from publishProgress and isCancelled, methods must be called on the UI thread.
  */
-// TODO For passing the AsyncTask between Activity instances, see this post:
-// http://www.androiddesignpatterns.com/2013/04/retaining-objects-across-config-changes.html
-// Our method is subject to the race conditions described therein :O
-class AsyncProgressTask extends AsyncTask<Void, Void, Void>
-{
+class AsyncProgressTask {
+
+    // Tasks are started by the user and there are rarely more than one or two running, so
+    // keep the pool small.  Threads are released when idle.
+    private final static int NUM_THREADS = 2;
+    private final static long KEEP_ALIVE_SECONDS = 30;
+    private final static ThreadPoolExecutor sExecutor = createExecutor();
+
     AsyncProgressInterface mListener;
     int mAsyncTaskId = 0;
-    private final static int NUM_DELAY_HALF_SECONDS = 10;
-    String mResultString;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Runnable mWork = null;
+    private volatile boolean mIsCancelled = false;
+    private boolean mHasResult = false;
+    private boolean mIsDelivered = false;
+    private String mResultString = null;
+
+    // Most recent progress, and whether an update is already waiting on the UI thread
+    private volatile float mProgress = -1;
+    private final AtomicBoolean mProgressUpdatePosted = new AtomicBoolean(false);
+    private final Runnable mProgressUpdate = new Runnable() {
+        @Override
+        public void run() {
+            mProgressUpdatePosted.set(false);
+            if (mListener != null && !mIsCancelled && !mIsDelivered) {
+                mListener.asyncProgressOnProgressUpdate(mProgress);
+            }
+        }
+    };
 
     AsyncProgressTask(AsyncProgressInterface listener){
         this.mListener = listener;
     }
-    @Override
-    protected Void doInBackground( Void... params )
-    {
-        for(int i = 0; i < NUM_DELAY_HALF_SECONDS; i++){
-            if (mListener != null) {
-                mResultString = mListener.asyncProgressDoInBackground();
-                break;
+
+    /**
+     * Creates the thread pool shared by all tasks
+     * @return executor
+     */
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Keep the work from competing with the UI thread
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "AsyncProgressTask #" + mCount.getAndIncrement());
             }
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                break;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts the task.  asyncProgressOnPreExecute is called right away, and
+     * asyncProgressOnPostExecute is called once the work is done and a listener is attached.
+     * @param inBackground if false, the work is done on the current thread (used for unit tests)
+     */
+    void execute(boolean inBackground) {
+        final AsyncProgressInterface listener = mListener;
+        listener.asyncProgressOnPreExecute();
+        if (!inBackground) {
+            onWorkFinished(listener.asyncProgressDoInBackground());
+            return;
+        }
+        mWork = new Runnable() {
+            @Override
+            public void run() {
+                if (mIsCancelled) {
+                    return;
+                }
+                final String resultStr = listener.asyncProgressDoInBackground();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onWorkFinished(resultStr);
+                    }
+                });
             }
+        };
+        sExecutor.execute(mWork);
+    }
+
+    /**
+     * Cancels the task.  If the work hasn't started it won't be run, and otherwise the work
+     * can check isCancelled to stop early.  Either way, the result won't be delivered.
+     */
+    void cancel() {
+        mIsCancelled = true;
+        if (mWork != null) {
+            sExecutor.remove(mWork);
         }
-        return null;
+        mHandler.removeCallbacks(mProgressUpdate);
     }
-    @Override
-    protected void onPreExecute()
-    {
-        super.onPreExecute();
-        for(int i = 0; i < NUM_DELAY_HALF_SECONDS; i++){
-            if (mListener != null) {
-                mListener.asyncProgressOnPreExecute();
-                break;
-            }
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                break;
-            }
+
+    /**
+     * @return true if the task has been cancelled (safe to call from the work itself)
+     */
+    boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    /**
+     * @return true if the task hasn't finished, or has a result that hasn't been delivered
+     */
+    boolean isPending() {
+        return !mIsCancelled && !mIsDelivered;
+    }
+
+    /**
+     * Reports how far along the work is.  Can be called from any thread, and updates are
+     * coalesced so that only the latest value is passed to the UI thread.
+     * @param fraction fraction of the work done, from 0 to 1
+     */
+    void publishProgress(float fraction) {
+        mProgress = Math.max(0, Math.min(1, fraction));
+        if (mProgressUpdatePosted.compareAndSet(false, true)) {
+            mHandler.post(mProgressUpdate);
         }
     }
-    @Override
-    protected void onPostExecute( Void result )
-    {
-        super.onPostExecute(result);
-        for(int i = 0; i < NUM_DELAY_HALF_SECONDS; i++) {
-            if (mListener != null) {
-                mListener.asyncProgressOnPostExecute(mResultString);
-                break;
-            }
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                break;
-            }
+
+    /**
+     * Attaches a listener (Ex: a newly created activity after a configuration change.)  If
+     * the task already finished, the result is delivered right away.
+     * @param listener listener, or null to detach
+     */
+    void setListener(AsyncProgressInterface listener) {
+        mListener = listener;
+        if (listener == null || mIsCancelled) {
+            return;
+        }
+        if (mHasResult) {
+            deliverResult();
+        } else if (mProgress >= 0) {
+            // Restore the progress shown by the previous listener
+            listener.asyncProgressOnProgressUpdate(mProgress);
+        }
+    }
+
+    /**
+     * Stores the result of the work, delivering it if a listener is attached
+     * @param resultStr the string result from the work
+     */
+    private void onWorkFinished(String resultStr) {
+        mResultString = resultStr;
+        mHasResult = true;
+        if (mListener != null && !mIsCancelled) {
+            deliverResult();
+        }
+    }
+
+    /**
+     * Passes the result to the listener
+     */
+    private void deliverResult() {
+        if (mIsDelivered) {
+            return;
         }
+        mIsDelivered = true;
+        mHandler.removeCallbacks(mProgressUpdate);
+        mListener.asyncProgressOnPostExecute(mResultString);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the integrity checks stored in JSON backups as they are streamed: a CRC32 of each
+ * collection, and a SHA-256 digest of the whole backup (built from the collection checksums
+ * along with the top-level attributes.)  Values are fed in a fixed order, independent of
+ * how the JSON is formatted, so the reader can recompute them while importing and compare
+ * against the stored values without a second pass over the file.
+ */
+public class BackupChecksum {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static String DIGEST_ALGORITHM = "SHA-256";
+
+    private final CRC32 mCollectionCrc = new CRC32();
+    private final MessageDigest mFileDigest;
+    private final byte[] mIntBuffer = new byte[4];
+
+    /**
+     * Constructor
+     */
+    public BackupChecksum() {
+        try {
+            mFileDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // All Android versions are required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds a coin to the checksum of the current collection
+     * @param identifier coin identifier
+     * @param mint coin mint
+     * @param inCollection whether the coin is in the collection
+     * @param advancedGrades grade index
+     * @param advancedQuantities quantity index
+     * @param advancedNotes notes
+     */
+    public void updateCoin(String identifier, String mint, boolean inCollection,
+                           int advancedGrades, int advancedQuantities, String advancedNotes) {
+        updateCrc(identifier);
+        updateCrc(mint);
+        updateCrc(inCollection ? 1 : 0);
+        updateCrc(advancedGrades);
+        updateCrc(advancedQuantities);
+        updateCrc(advancedNotes);
+    }
+
+    /**
+     * Adds a coin to the checksum of the current collection
+     * @param coinSlot coin
+     */
+    public void updateCoin(CoinSlot coinSlot) {
+        updateCoin(coinSlot.getIdentifier(), coinSlot.getMint(), coinSlot.isInCollection(),
+                coinSlot.getAdvancedGrades(), coinSlot.getAdvancedQuantities(), coinSlot.getAdvancedNotes());
+    }
+
+    /**
+     * Adds the collection attributes to the checksum of the current collection, which is then
+     * added to the digest of the whole file.  The coins must have been added first.
+     * @param collectionListInfo collection attributes
+     * @return the checksum of the collection, as stored in the backup
+     */
+    public String finishCollection(CollectionListInfo collectionListInfo) {
+        updateCrc(collectionListInfo.getName());
+        updateCrc(collectionListInfo.getType());
+        updateCrc(collectionListInfo.getCollected());
+        updateCrc(collectionListInfo.getMax());
+        updateCrc(collectionListInfo.getDisplayType());
+        updateCrc(collectionListInfo.getStartYear());
+        updateCrc(collectionListInfo.getEndYear());
+        updateCrc(collectionListInfo.getMintMarkFlags());
+        updateCrc(collectionListInfo.getCheckboxFlags());
+        String checksum = Long.toHexString(mCollectionCrc.getValue());
+        mCollectionCrc.reset();
+        updateDigest(checksum);
+        return checksum;
+    }
+
+    /**
+     * Adds the top-level attributes of the backup to the digest, and returns the digest
+     * @param databaseVersion database version of the backup
+     * @param backupId backup ID (or the base backup ID for changed collections), if any
+     * @param collectionOrder names of all the collections (for changed collections), if any
+     * @return the digest of the whole backup, as stored in the backup
+     */
+    public String finishFile(int databaseVersion, String backupId, List<String> collectionOrder) {
+        updateDigest(String.valueOf(databaseVersion));
+        updateDigest(backupId);
+        if (collectionOrder != null) {
+            for (String collectionName : collectionOrder) {
+                updateDigest(collectionName);
+            }
+        }
+        StringBuilder digest = new StringBuilder();
+        for (byte b : mFileDigest.digest()) {
+            digest.append(Character.forDigit((b >> 4) & 0xf, 16));
+            digest.append(Character.forDigit(b & 0xf, 16));
+        }
+        return digest.toString();
+    }
+
+    /**
+     * Adds an int to the collection checksum
+     * @param value value to add
+     */
+    private void updateCrc(int value) {
+        mIntBuffer[0] = (byte) (value >>> 24);
+        mIntBuffer[1] = (byte) (value >>> 16);
+        mIntBuffer[2] = (byte) (value >>> 8);
+        mIntBuffer[3] = (byte) value;
+        mCollectionCrc.update(mIntBuffer, 0, mIntBuffer.length);
+    }
+
+    /**
+     * Adds a string to the collection checksum, prefixed by its length so that adjacent
+     * values can't run together.  Null is treated the same as an empty string.
+     * @param value value to add
+     */
+    private void updateCrc(String value) {
+        byte[] bytes = ((value != null) ? value : "").getBytes(UTF8);
+        updateCrc(bytes.length);
+        mCollectionCrc.update(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Adds a string to the file digest, prefixed by its length.  Null is treated the same as
+     * an empty string.
+     * @param value value to add
+     */
+    private void updateDigest(String value) {
+        byte[] bytes = ((value != null) ? value : "").getBytes(UTF8);
+        mIntBuffer[0] = (byte) (bytes.length >>> 24);
+        mIntBuffer[1] = (byte) (bytes.length >>> 16);
+        mIntBuffer[2] = (byte) (bytes.length >>> 8);
+        mIntBuffer[3] = (byte) bytes.length;
+        mFileDigest.update(mIntBuffer);
+        mFileDigest.update(bytes);
+    }
+}
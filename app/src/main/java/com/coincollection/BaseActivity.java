@@ -49,19 +49,27 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
 
     // Common intent variables
     public static final String UNIT_TEST_USE_ASYNC_TASKS = "unit-test-use-async-tasks";
+    public static final String UNIT_TEST_STRICT_MODE = "unit-test-strict-mode";
     protected boolean mUseAsyncTasks = true;
 
     // Async Task info
     protected AsyncProgressTask mTask = null;
     protected AsyncProgressTask mPreviousTask = null;
+    private boolean mIsTaskRetained = false;
     public static final int TASK_OPEN_DATABASE = 0;
     public static final int TASK_IMPORT_COLLECTIONS = 1;
     public static final int TASK_CREATE_UPDATE_COLLECTION = 2;
     public static final int TASK_EXPORT_COLLECTIONS = 3;
+    public static final int TASK_LOAD_COLLECTION = 4;
+    public static final int TASK_SAVE_CHANGES = 5;
+    public static final int TASK_CHANGE_VIEW = 6;
+    public static final int TASK_RENAME_COLLECTION = 7;
 
     // Common activity variables
     protected final Context mContext = this;
     protected ProgressDialog mProgressDialog;
+    private String mProgressMessage;
+    private boolean mWasProgressDialogShowing = false;
     public Resources mRes;
     protected Intent mCallingIntent;
     public DatabaseAdapter mDbAdapter = null;
@@ -74,13 +82,17 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
 
         if (BuildConfig.DEBUG) {
             // Set StrictMode policies to help debug potential issues
-            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+            StrictMode.ThreadPolicy.Builder threadPolicy = new StrictMode.ThreadPolicy.Builder()
                     .detectAll()
                     .permitDiskReads() // TODO - Fix these and remove
                     .permitDiskWrites() // TODO - Fix these and remove
-                    .penaltyLog()
-                    //.penaltyDeath() // TODO - Uncomment once fixed
-                    .build());
+                    .penaltyLog();
+            if (getIntent().getBooleanExtra(UNIT_TEST_STRICT_MODE, false)) {
+                // Used by unit tests to catch database calls made on the UI thread, which
+                // DatabaseAdapter reports as slow calls
+                threadPolicy.penaltyDeath();
+            }
+            StrictMode.setThreadPolicy(threadPolicy.build());
             StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
                     .detectAll()
                     .penaltyLog()
@@ -153,6 +165,19 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
     @Override
     public void asyncProgressOnPreExecute() { }
 
+    /**
+     * This is method is called on the UI thread when the async task reports progress, and
+     * shows the progress in the progress dialog (if any)
+     * @param fraction fraction of the work done, from 0 to 1
+     */
+    @Override
+    public void asyncProgressOnProgressUpdate(float fraction) {
+        if (mProgressDialog != null && mProgressDialog.isShowing()) {
+            mProgressDialog.setMessage(mRes.getString(R.string.progress_percent,
+                    mProgressMessage, Math.round(fraction * 100)));
+        }
+    }
+
     /**
      * This should be overridden by Activities that use the AsyncTask
      * - This is method is called on the UI thread after executing DoInBackground
@@ -171,7 +196,7 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
      * is ready for an already running async task to call back
      */
     protected void setActivityReadyForAsyncCallbacks() {
-        mTask.mListener = this;
+        mTask.setListener(this);
     }
 
     /**
@@ -188,8 +213,10 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
     @Override
     public Object onRetainCustomNonConfigurationInstance(){
 
-        if(mProgressDialog != null && mProgressDialog.isShowing()){
-            dismissProgressDialog();
+        // The progress dialog has already been dismissed in onPause, so check whether it was
+        // showing then
+        if(mWasProgressDialogShowing && mTask.isPending()){
+            mIsTaskRetained = true;
             return mTask;
         } else {
             // No dialog showing, do nothing
@@ -200,17 +227,22 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
     @Override
     public void onPause() {
         // Dismiss any open alerts to prevent memory leaks
+        mWasProgressDialogShowing = (mProgressDialog != null && mProgressDialog.isShowing());
         dismissAllAlerts();
         super.onPause();
     }
 
     @Override
     public void onDestroy(){
-        // If an async task is running, set the listener to null to have it wait before
-        // trying its callback.  Setting the listener to null also prevents memory leaks
+        // If an async task is being handed to the next instance of the activity, detach so
+        // that it holds onto its result until the new instance is ready.  Otherwise there's
+        // nothing left to deliver the result to, so cancel it.  mTask is left set since the
+        // work may still be running and reading it.
         if(mTask != null) {
-            mTask.mListener = null;
-            mTask = null;
+            if(!mIsTaskRetained) {
+                mTask.cancel();
+            }
+            mTask.setListener(null);
         }
         super.onDestroy();
     }
@@ -220,6 +252,7 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
      */
     protected void createProgressDialog(String message){
         dismissProgressDialog();
+        mProgressMessage = message;
         mProgressDialog = new ProgressDialog(this);
         mProgressDialog.setCancelable(false);
         mProgressDialog.setMessage(message);
@@ -376,15 +409,18 @@ public class BaseActivity extends AppCompatActivity implements AsyncProgressInte
      * @param taskId type of task
      */
     public void kickOffAsyncProgressTask(int taskId){
+        // Only the latest task reports back to the activity, so cancel any earlier one that
+        // hasn't delivered its result yet rather than leaving it to run with nowhere to report
+        // to.  Its work stops early where it checks isCancelled (Ex: imports are rolled back.)
+        if (mTask != null) {
+            if (mTask.isPending()) {
+                mTask.cancel();
+            }
+            mTask.setListener(null);
+        }
         mTask = new AsyncProgressTask(this);
         mTask.mAsyncTaskId = taskId;
-        if (this.mUseAsyncTasks || !BuildConfig.DEBUG) {
-            mTask.execute();
-        } else {
-            // Call the tasks on the current thread (used for unit tests)
-            asyncProgressOnPreExecute();
-            String resultStr = asyncProgressDoInBackground();
-            asyncProgressOnPostExecute(resultStr);
-        }
+        // When not using async tasks the work is done on the current thread (used for unit tests)
+        mTask.execute(this.mUseAsyncTasks || !BuildConfig.DEBUG);
     }
 }
@@ -0,0 +1,664 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.spencerpages.BuildConfig;
+import com.spencerpages.MainApplication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.coincollection.CoinPageCreator.OPT_EDIT_DATE_RANGE;
+import static com.coincollection.CoinPageCreator.OPT_START_YEAR;
+import static com.coincollection.CoinPageCreator.OPT_STOP_YEAR;
+import static com.spencerpages.MainApplication.APP_NAME;
+
+/**
+ * Precomputed table of the coins in each collection type, used in place of calling
+ * populateCollectionLists every time a collection is created or edited.
+ *
+ * For each collection type and set of mint mark and checkbox options, the catalog holds the
+ * coins for each year in the collection's date range: the coins added when the year is the
+ * first year in the collection, and the coins added for it otherwise (these differ for the
+ * 1776-1976 bicentennial coins, for instance.)  A collection is then just the first year's
+ * coins followed by those of the remaining years, with no per-year special cases to evaluate.
+ *
+ * The tables for every collection type and set of options are generated at build time (see
+ * CoinCatalogWriter) into the CATALOG_ASSET asset, which is memory-mapped when the app needs
+ * it.  Tables missing from the asset are built the first time they're used by calling the
+ * collection type's populateCollectionLists one year at a time, so those remain the source of
+ * truth for which coins were minted.  If a collection can't be described by a table (Ex: a
+ * date range outside the collection type's years), populateCollectionLists is called directly.
+ */
+public class CoinCatalog {
+
+    // Name of the asset holding the catalog generated at build time
+    public static final String CATALOG_ASSET = "coin_catalog.bin";
+
+    // Catalog file header.  Increment the version if the format changes.  The header also
+    // holds a fingerprint of the sources the catalog was generated from, computed by the build,
+    // so that a catalog asset left over from an earlier build isn't used.
+    private static final int CATALOG_MAGIC = 0x43434154;
+    private static final int CATALOG_VERSION = 2;
+
+    // Upper limit on the number of options per collection type in the catalog file
+    private static final int MAX_OPTIONS = 16;
+
+    private static final CoinCatalog sInstance = new CoinCatalog();
+
+    /**
+     * One coin in the catalog
+     */
+    public static class Entry {
+        private final String mIdentifier;
+        private final String mMint;
+        private final int mYear;
+
+        Entry(String identifier, String mint, int year) {
+            mIdentifier = identifier;
+            mMint = mint;
+            mYear = year;
+        }
+
+        public String getIdentifier() {
+            return mIdentifier;
+        }
+
+        public String getMint() {
+            return mMint;
+        }
+
+        /**
+         * @return the year the coin is listed under, or 0 if the collection type has no
+         *         date range
+         */
+        public int getYear() {
+            return mYear;
+        }
+    }
+
+    /**
+     * The coins for one collection type and set of options
+     */
+    abstract static class Table {
+        // First year in the date range, or 0 if the collection type has no date range
+        final int mFirstYear;
+        final int mNumYears;
+
+        Table(int firstYear, int numYears) {
+            mFirstYear = firstYear;
+            mNumYears = numYears;
+        }
+
+        /**
+         * @return the last year in the date range
+         */
+        int getLastYear() {
+            return mFirstYear + mNumYears - 1;
+        }
+
+        /**
+         * Adds the coins for a date range to the coin list
+         * @param startYear first year to include
+         * @param stopYear last year to include
+         * @param coinList list to add the coins to
+         */
+        abstract void addCoins(int startYear, int stopYear, ArrayList<CoinSlot> coinList);
+    }
+
+    /**
+     * Table generated with populateCollectionLists
+     */
+    static class GeneratedTable extends Table {
+        // Coins added for each year when it's the first year in the collection
+        final Entry[][] mStartYearCoins;
+        // Coins added for each year when it follows the first year in the collection
+        final Entry[][] mLaterYearCoins;
+
+        GeneratedTable(int firstYear, Entry[][] startYearCoins, Entry[][] laterYearCoins) {
+            super(firstYear, startYearCoins.length);
+            mStartYearCoins = startYearCoins;
+            mLaterYearCoins = laterYearCoins;
+        }
+
+        @Override
+        void addCoins(int startYear, int stopYear, ArrayList<CoinSlot> coinList) {
+            addEntries(mStartYearCoins[startYear - mFirstYear], coinList);
+            for (int year = startYear + 1; year <= stopYear; year++) {
+                addEntries(mLaterYearCoins[year - mFirstYear], coinList);
+            }
+        }
+
+        private static void addEntries(Entry[] entries, ArrayList<CoinSlot> coinList) {
+            for (Entry entry : entries) {
+                coinList.add(new CoinSlot(entry.mIdentifier, entry.mMint));
+            }
+        }
+
+        /**
+         * Writes the table in the catalog file format: the first year and number of years,
+         * the index of the first coin in each year's lists (start year coins and later year
+         * coins alternating, plus the end of the last list), then the string indices of each
+         * coin's identifier and mint.  Indices are written as chars to keep the asset small.
+         * @param out stream to write to
+         * @param stringIndices index of each string in the catalog's string table
+         */
+        void write(DataOutputStream out, HashMap<String, Integer> stringIndices) throws IOException {
+            out.writeInt(mFirstYear);
+            out.writeInt(mNumYears);
+            int numCoins = 0;
+            for (int i = 0; i < mNumYears; i++) {
+                out.writeChar(numCoins);
+                numCoins += mStartYearCoins[i].length;
+                out.writeChar(numCoins);
+                numCoins += mLaterYearCoins[i].length;
+            }
+            out.writeChar(numCoins);
+            if (numCoins > Character.MAX_VALUE) {
+                throw new IOException("Too many coins for the catalog format");
+            }
+            for (int i = 0; i < mNumYears; i++) {
+                writeEntries(out, mStartYearCoins[i], stringIndices);
+                writeEntries(out, mLaterYearCoins[i], stringIndices);
+            }
+        }
+
+        private static void writeEntries(DataOutputStream out, Entry[] entries,
+                                         HashMap<String, Integer> stringIndices) throws IOException {
+            for (Entry entry : entries) {
+                out.writeChar(stringIndices.get(entry.mIdentifier));
+                out.writeChar(stringIndices.get(entry.mMint));
+            }
+        }
+    }
+
+    /**
+     * Table read directly out of the catalog file
+     */
+    static class MappedTable extends Table {
+        private final ByteBuffer mBuffer;
+        private final String[] mStrings;
+        // Position of the list offsets and of the first coin in the buffer
+        private final int mListsPosition;
+        private final int mCoinsPosition;
+
+        MappedTable(ByteBuffer buffer, String[] strings, int position) {
+            super(buffer.getInt(position), buffer.getInt(position + 4));
+            mBuffer = buffer;
+            mStrings = strings;
+            mListsPosition = position + 8;
+            mCoinsPosition = mListsPosition + 2 * (2 * mNumYears + 1);
+        }
+
+        @Override
+        void addCoins(int startYear, int stopYear, ArrayList<CoinSlot> coinList) {
+            int startList = 2 * (startYear - mFirstYear);
+            addEntries(mBuffer.getChar(mListsPosition + 2 * startList),
+                    mBuffer.getChar(mListsPosition + 2 * (startList + 1)), coinList);
+            for (int year = startYear + 1; year <= stopYear; year++) {
+                int laterList = 2 * (year - mFirstYear) + 1;
+                addEntries(mBuffer.getChar(mListsPosition + 2 * laterList),
+                        mBuffer.getChar(mListsPosition + 2 * (laterList + 1)), coinList);
+            }
+        }
+
+        private void addEntries(int start, int end, ArrayList<CoinSlot> coinList) {
+            for (int i = start; i < end; i++) {
+                int position = mCoinsPosition + 4 * i;
+                coinList.add(new CoinSlot(mStrings[mBuffer.getChar(position)],
+                        mStrings[mBuffer.getChar(position + 2)]));
+            }
+        }
+    }
+
+    // Tables keyed by collection type and options.  A null value means that the collection
+    // type's coins can't be split up by year, and populateCollectionLists must be used.
+    private final HashMap<String, Table> mTables = new HashMap<>();
+
+    // The catalog file, if one has been loaded, with its strings and the position of each table
+    private ByteBuffer mCatalogBuffer = null;
+    private String[] mCatalogStrings = null;
+    private final HashMap<String, Integer> mCatalogTablePositions = new HashMap<>();
+    private boolean mAssetLoadAttempted = false;
+
+    /**
+     * @return the catalog shared by the whole process
+     */
+    public static CoinCatalog getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Populates the coin list for a collection, the same as
+     * CollectionInfo.populateCollectionLists
+     * @param collectionInfo collection type
+     * @param parameters the user-selected parameters
+     * @param coinList the list to populate
+     */
+    public void populateCollectionLists(CollectionInfo collectionInfo, HashMap<String, Object> parameters,
+                                        ArrayList<CoinSlot> coinList) {
+        Table table = getTable(collectionInfo, parameters);
+        if (table == null) {
+            collectionInfo.populateCollectionLists(parameters, coinList);
+            return;
+        }
+        if (table.mFirstYear == 0) {
+            table.addCoins(0, 0, coinList);
+            return;
+        }
+        Integer startYear = (Integer) parameters.get(OPT_START_YEAR);
+        Integer stopYear = (Integer) parameters.get(OPT_STOP_YEAR);
+        if (startYear == null || stopYear == null || startYear < table.mFirstYear
+                || stopYear > table.getLastYear() || startYear > stopYear) {
+            collectionInfo.populateCollectionLists(parameters, coinList);
+            return;
+        }
+        table.addCoins(startYear, stopYear, coinList);
+    }
+
+    /**
+     * Gets the table for a collection type and options, building it if needed
+     * @param collectionInfo collection type
+     * @param parameters the user-selected parameters
+     * @return the table, or null if the coins can't be looked up from a table
+     */
+    synchronized Table getTable(CollectionInfo collectionInfo, HashMap<String, Object> parameters) {
+        String key = getTableKey(collectionInfo, parameters);
+        if (!mTables.containsKey(key)) {
+            Integer position = mCatalogTablePositions.get(key);
+            Table table = null;
+            if (position != null) {
+                try {
+                    table = new MappedTable(mCatalogBuffer, mCatalogStrings, position);
+                } catch (IndexOutOfBoundsException e) {
+                    table = null;
+                }
+            }
+            if (table == null) {
+                table = buildTable(collectionInfo, parameters);
+            }
+            mTables.put(key, table);
+        }
+        return mTables.get(key);
+    }
+
+    /**
+     * @return the number of tables that were read from a catalog file
+     */
+    public synchronized int getNumCatalogTables() {
+        return mCatalogTablePositions.size();
+    }
+
+    /**
+     * Memory-maps the catalog asset generated at build time, if it hasn't been already.  If the
+     * asset is missing or can't be read, the tables are generated as they're needed instead.
+     * This reads from disk, so shouldn't be called on the UI thread.
+     * @param context context to open the asset with
+     */
+    public synchronized void loadCatalogAsset(Context context) {
+        if (mAssetLoadAttempted) {
+            return;
+        }
+        mAssetLoadAttempted = true;
+        ByteBuffer buffer = null;
+        try {
+            // The asset is stored uncompressed so that it can be mapped directly
+            AssetFileDescriptor assetFd = context.getAssets().openFd(CATALOG_ASSET);
+            FileInputStream inputStream = assetFd.createInputStream();
+            try {
+                buffer = inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        assetFd.getStartOffset(), assetFd.getLength());
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            // Compressed or missing, so try reading it into memory instead
+            try {
+                InputStream inputStream = context.getAssets().open(CATALOG_ASSET);
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] chunk = new byte[8192];
+                    int numRead;
+                    while ((numRead = inputStream.read(chunk)) != -1) {
+                        bytes.write(chunk, 0, numRead);
+                    }
+                    buffer = ByteBuffer.wrap(bytes.toByteArray());
+                } finally {
+                    inputStream.close();
+                }
+            } catch (IOException e2) {
+                buffer = null;
+            }
+        }
+        if (buffer == null || !loadCatalog(buffer)) {
+            if (BuildConfig.DEBUG) {
+                Log.d(APP_NAME, "Coin catalog asset not loaded, generating coin lists instead");
+            }
+        }
+    }
+
+    /**
+     * Loads a catalog file written by writeCatalog.  Tables already in use are kept.
+     * @param buffer the catalog file's contents
+     * @return true if the catalog was loaded, false if the file isn't a valid catalog
+     */
+    public synchronized boolean loadCatalog(ByteBuffer buffer) {
+        try {
+            buffer.position(0);
+            if (buffer.getInt() != CATALOG_MAGIC || buffer.getInt() != CATALOG_VERSION
+                    || !readString(buffer).equals(BuildConfig.COIN_CATALOG_FINGERPRINT)) {
+                return false;
+            }
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = CoinSymbolTable.intern(readString(buffer));
+            }
+            // Table offsets are relative to the end of the table directory
+            int numCollections = buffer.getInt();
+            HashMap<String, Integer> tableOffsets = new HashMap<>();
+            for (int i = 0; i < numCollections; i++) {
+                String coinType = readString(buffer);
+                int numOptions = buffer.getInt();
+                if (numOptions < 0 || numOptions > MAX_OPTIONS) {
+                    return false;
+                }
+                String[] options = new String[numOptions];
+                for (int j = 0; j < numOptions; j++) {
+                    options[j] = readString(buffer);
+                }
+                for (int optionFlags = 0; optionFlags < (1 << numOptions); optionFlags++) {
+                    int offset = buffer.getInt();
+                    if (offset != -1) {
+                        tableOffsets.put(getTableKey(coinType, options, optionFlags), offset);
+                    }
+                }
+            }
+            HashMap<String, Integer> tablePositions = new HashMap<>();
+            for (Map.Entry<String, Integer> tableOffset : tableOffsets.entrySet()) {
+                int position = buffer.position() + tableOffset.getValue();
+                if (tableOffset.getValue() < 0 || position >= buffer.limit()) {
+                    return false;
+                }
+                tablePositions.put(tableOffset.getKey(), position);
+            }
+            mCatalogBuffer = buffer;
+            mCatalogStrings = strings;
+            mCatalogTablePositions.clear();
+            mCatalogTablePositions.putAll(tablePositions);
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generates the tables for every collection type and set of options with
+     * populateCollectionLists, and writes them out in the catalog file format.  This is run at
+     * build time to create the catalog asset.
+     * @param outputStream stream to write to
+     */
+    public void writeCatalog(OutputStream outputStream) throws IOException {
+        // Generate the table for each collection type and combination of options.  The tables
+        // for a collection type are listed in the order of the option flags, with the options
+        // sorted by name, and null for any that can't be described by a table.
+        LinkedHashMap<String, ArrayList<String>> collectionOptions = new LinkedHashMap<>();
+        ArrayList<GeneratedTable> tables = new ArrayList<>();
+        for (CollectionInfo collectionInfo : MainApplication.COLLECTION_TYPES) {
+            HashMap<String, Object> parameters = new HashMap<>();
+            collectionInfo.getCreationParameters(parameters);
+            ArrayList<String> options = getOptions(parameters);
+            collectionOptions.put(collectionInfo.getCoinType(), options);
+            for (int optionFlags = 0; optionFlags < (1 << options.size()); optionFlags++) {
+                for (int i = 0; i < options.size(); i++) {
+                    parameters.put(options.get(i), (optionFlags & (1 << i)) != 0);
+                }
+                tables.add((GeneratedTable) buildTable(collectionInfo, parameters));
+            }
+        }
+
+        // Assign each string an index
+        HashMap<String, Integer> stringIndices = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        for (GeneratedTable table : tables) {
+            if (table == null) {
+                continue;
+            }
+            for (Entry[][] yearCoins : new Entry[][][]{table.mStartYearCoins, table.mLaterYearCoins}) {
+                for (Entry[] entries : yearCoins) {
+                    for (Entry entry : entries) {
+                        for (String string : new String[]{entry.mIdentifier, entry.mMint}) {
+                            if (!stringIndices.containsKey(string)) {
+                                stringIndices.put(string, strings.size());
+                                strings.add(string);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (strings.size() > Character.MAX_VALUE) {
+            throw new IOException("Too many strings for the catalog format");
+        }
+
+        // Serialize the tables, keeping a single copy of any that are identical (Ex: the mint
+        // mark checkboxes don't matter if mint marks aren't shown)
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(tableBytes);
+        HashMap<ByteBuffer, Integer> distinctTables = new HashMap<>();
+        int[] tableOffsets = new int[tables.size()];
+        for (int i = 0; i < tables.size(); i++) {
+            if (tables.get(i) == null) {
+                tableOffsets[i] = -1;
+                continue;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            tables.get(i).write(out, stringIndices);
+            out.flush();
+            ByteBuffer serialized = ByteBuffer.wrap(bytes.toByteArray());
+            Integer offset = distinctTables.get(serialized);
+            if (offset == null) {
+                offset = tableOut.size();
+                tableOut.write(serialized.array());
+                distinctTables.put(serialized, offset);
+            }
+            tableOffsets[i] = offset;
+        }
+        tableOut.flush();
+
+        // Write the header, strings and table directory, followed by the tables
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(CATALOG_MAGIC);
+        header.writeInt(CATALOG_VERSION);
+        header.writeUTF(BuildConfig.COIN_CATALOG_FINGERPRINT);
+        header.writeInt(strings.size());
+        for (String string : strings) {
+            header.writeUTF(string);
+        }
+        header.writeInt(collectionOptions.size());
+        int tableIndex = 0;
+        for (Map.Entry<String, ArrayList<String>> collection : collectionOptions.entrySet()) {
+            header.writeUTF(collection.getKey());
+            header.writeInt(collection.getValue().size());
+            for (String option : collection.getValue()) {
+                header.writeUTF(option);
+            }
+            for (int optionFlags = 0; optionFlags < (1 << collection.getValue().size()); optionFlags++) {
+                header.writeInt(tableOffsets[tableIndex++]);
+            }
+        }
+        header.flush();
+        outputStream.write(headerBytes.toByteArray());
+        outputStream.write(tableBytes.toByteArray());
+        outputStream.flush();
+    }
+
+    /**
+     * Reads a string written with DataOutputStream.writeUTF
+     * @param buffer buffer to read from
+     * @return the string
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getChar()];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @param parameters the user-selected parameters
+     * @return the names of the options that affect which coins a collection has, sorted
+     */
+    private static ArrayList<String> getOptions(HashMap<String, Object> parameters) {
+        // Every option is a Boolean, while years and string ids are Integers
+        ArrayList<String> options = new ArrayList<>();
+        for (Map.Entry<String, Object> parameter : new TreeMap<>(parameters).entrySet()) {
+            if (parameter.getValue() instanceof Boolean && !parameter.getKey().equals(OPT_EDIT_DATE_RANGE)) {
+                options.add(parameter.getKey());
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @param collectionInfo collection type
+     * @param parameters the user-selected parameters
+     * @return a key for the collection type and the options that affect which coins it has
+     */
+    private static String getTableKey(CollectionInfo collectionInfo, HashMap<String, Object> parameters) {
+        ArrayList<String> options = getOptions(parameters);
+        int optionFlags = 0;
+        for (int i = 0; i < options.size(); i++) {
+            if ((Boolean) parameters.get(options.get(i))) {
+                optionFlags |= (1 << i);
+            }
+        }
+        return getTableKey(collectionInfo.getCoinType(), options.toArray(new String[0]), optionFlags);
+    }
+
+    /**
+     * @param coinType collection type name
+     * @param options the names of the options that affect which coins the collection has, sorted
+     * @param optionFlags which of the options are set
+     * @return a key for the collection type and options
+     */
+    private static String getTableKey(String coinType, String[] options, int optionFlags) {
+        StringBuilder key = new StringBuilder(coinType);
+        for (int i = 0; i < options.length; i++) {
+            key.append('\n').append(options[i]).append('=').append((optionFlags & (1 << i)) != 0);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Builds the table for a collection type and options by generating the coins for each year
+     * @param collectionInfo collection type
+     * @param parameters the user-selected parameters
+     * @return the table, or null if the coins for each year depend on more than whether it's
+     *         the first year in the collection
+     */
+    private Table buildTable(CollectionInfo collectionInfo, HashMap<String, Object> parameters) {
+        HashMap<String, Object> yearParameters = new HashMap<>(parameters);
+        if (!parameters.containsKey(OPT_START_YEAR) || !parameters.containsKey(OPT_STOP_YEAR)) {
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            collectionInfo.populateCollectionLists(yearParameters, coinList);
+            Entry[][] coins = new Entry[][]{toEntries(coinList, 0, 0)};
+            return new GeneratedTable(0, coins, coins);
+        }
+
+        int firstYear = collectionInfo.getStartYear();
+        int numYears = collectionInfo.getStopYear() - firstYear + 1;
+        if (firstYear <= 0 || numYears <= 0) {
+            return null;
+        }
+        Entry[][] startYearCoins = new Entry[numYears][];
+        Entry[][] laterYearCoins = new Entry[numYears][];
+        for (int i = 0; i < numYears; i++) {
+            int year = firstYear + i;
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            yearParameters.put(OPT_START_YEAR, year);
+            yearParameters.put(OPT_STOP_YEAR, year);
+            collectionInfo.populateCollectionLists(yearParameters, coinList);
+            startYearCoins[i] = toEntries(coinList, 0, year);
+
+            if (i == 0) {
+                laterYearCoins[i] = startYearCoins[i];
+                continue;
+            }
+            // The coins added for this year following the previous year, which must come
+            // after the previous year's coins
+            coinList.clear();
+            yearParameters.put(OPT_START_YEAR, year - 1);
+            collectionInfo.populateCollectionLists(yearParameters, coinList);
+            Entry[] previousYearCoins = startYearCoins[i - 1];
+            if (coinList.size() < previousYearCoins.length) {
+                return null;
+            }
+            for (int j = 0; j < previousYearCoins.length; j++) {
+                if (!coinList.get(j).getIdentifier().equals(previousYearCoins[j].mIdentifier)
+                        || !coinList.get(j).getMint().equals(previousYearCoins[j].mMint)) {
+                    return null;
+                }
+            }
+            laterYearCoins[i] = toEntries(coinList, previousYearCoins.length, year);
+        }
+        return new GeneratedTable(firstYear, startYearCoins, laterYearCoins);
+    }
+
+    /**
+     * @param coinList generated coins
+     * @param start index of the first coin to convert
+     * @param year year the coins are listed under
+     * @return catalog entries for the coins
+     */
+    private Entry[] toEntries(ArrayList<CoinSlot> coinList, int start, int year) {
+        Entry[] entries = new Entry[coinList.size() - start];
+        for (int i = start; i < coinList.size(); i++) {
+            CoinSlot coinSlot = coinList.get(i);
+            // CoinSlot's strings come from CoinSymbolTable, so they're already shared
+            entries[i - start] = new Entry(coinSlot.getIdentifier(), coinSlot.getMint(), year);
+        }
+        return entries;
+    }
+}
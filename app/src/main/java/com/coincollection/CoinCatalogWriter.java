@@ -0,0 +1,50 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the coin catalog asset (see CoinCatalog).  This is run by the build, which passes
+ * the path of the file to create.
+ */
+public class CoinCatalogWriter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: CoinCatalogWriter <output file>");
+        }
+        File outputFile = new File(args[0]);
+        File outputDir = outputFile.getParentFile();
+        if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Unable to create " + outputDir);
+        }
+        OutputStream outputStream = new FileOutputStream(outputFile);
+        try {
+            new CoinCatalog().writeCatalog(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
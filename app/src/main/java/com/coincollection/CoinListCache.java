@@ -0,0 +1,264 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.coincollection.CollectionPage.ADVANCED_DISPLAY;
+
+/**
+ * Process-wide cache of the coin lists loaded for CollectionPage, so that reopening a
+ * collection (or rotating the screen) doesn't have to read it from the database again.
+ * The cache holds up to MAX_CACHED_COINS coins, evicting the least recently used lists
+ * first, and a collection's lists are dropped whenever DatabaseAdapter writes to it.
+ *
+ * Lists are held as CoinSlotLists, and are copied going into and out of the cache, so callers
+ * are free to modify them.
+ */
+public class CoinListCache {
+
+    // Upper bound on the number of coins held across all of the cached lists
+    public static final int MAX_CACHED_COINS = 20000;
+
+    // How many of the most recently opened collections to prefetch
+    public static final int NUM_PREFETCH_COLLECTIONS = 3;
+
+    private static final CoinListCache sInstance = new CoinListCache(MAX_CACHED_COINS);
+
+    // Prefetching is done on a single background thread, one collection at a time
+    private static final ExecutorService sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    private final int mMaxCoins;
+
+    // Cached lists in least to most recently used order, keyed by collection name and whether
+    // the advanced attributes are populated
+    private final LinkedHashMap<String, CoinSlotList> mCoinLists = new LinkedHashMap<>(16, 0.75f, true);
+    private int mNumCoins = 0;
+
+    // Incremented on every invalidation, so that a list read from the database while it was
+    // being changed isn't cached
+    private long mGeneration = 0;
+
+    // Names of the most recently opened collections, least recent first
+    private final LinkedHashMap<String, Boolean> mRecentCollections = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * @return the cache shared by the whole process
+     */
+    public static CoinListCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Constructor
+     * @param maxCoins maximum number of coins to hold across all lists
+     */
+    public CoinListCache(int maxCoins) {
+        mMaxCoins = maxCoins;
+    }
+
+    /**
+     * Gets a copy of a cached coin list
+     * @param tableName the name of the collection
+     * @param populateAdvInfo whether the list needs the advanced attributes
+     * @return copy of the coin list, or null if it isn't cached
+     */
+    public synchronized CoinSlotList get(String tableName, boolean populateAdvInfo) {
+        CoinSlotList coinList = mCoinLists.get(getKey(tableName, populateAdvInfo));
+        if (coinList == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return copyCoinList(coinList);
+    }
+
+    /**
+     * Checks whether a coin list is cached, without counting it as a use
+     * @param tableName the name of the collection
+     * @param populateAdvInfo whether the list has the advanced attributes
+     * @return true if the list is cached
+     */
+    public synchronized boolean contains(String tableName, boolean populateAdvInfo) {
+        return mCoinLists.containsKey(getKey(tableName, populateAdvInfo));
+    }
+
+    /**
+     * Returns the current generation, which must be read before reading a coin list from the
+     * database so that the list can be passed to put
+     * @return generation
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches a copy of a coin list, unless the cache was invalidated since it was read
+     * @param tableName the name of the collection
+     * @param populateAdvInfo whether the list has the advanced attributes
+     * @param coinList coin list, as stored in the database
+     * @param generation the value of getGeneration from before the list was read
+     */
+    public synchronized void put(String tableName, boolean populateAdvInfo, List<CoinSlot> coinList, long generation) {
+        if (generation != mGeneration || coinList.size() > mMaxCoins) {
+            return;
+        }
+        CoinSlotList oldCoinList = mCoinLists.put(getKey(tableName, populateAdvInfo), copyCoinList(coinList));
+        if (oldCoinList != null) {
+            mNumCoins -= oldCoinList.size();
+        }
+        mNumCoins += coinList.size();
+
+        // Evict the least recently used lists until under the limit
+        Iterator<CoinSlotList> iterator = mCoinLists.values().iterator();
+        while (mNumCoins > mMaxCoins && iterator.hasNext()) {
+            mNumCoins -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops the cached lists for a collection (Ex: after it's been changed)
+     * @param tableName the name of the collection
+     */
+    public synchronized void invalidate(String tableName) {
+        mGeneration++;
+        for (boolean populateAdvInfo : new boolean[] {false, true}) {
+            CoinSlotList coinList = mCoinLists.remove(getKey(tableName, populateAdvInfo));
+            if (coinList != null) {
+                mNumCoins -= coinList.size();
+            }
+        }
+    }
+
+    /**
+     * Drops all of the cached lists (Ex: after an import)
+     */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mCoinLists.clear();
+        mNumCoins = 0;
+    }
+
+    /**
+     * @return the number of coins in all of the cached lists
+     */
+    public synchronized int getNumCoins() {
+        return mNumCoins;
+    }
+
+    /**
+     * @return the number of calls to get that returned a list
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of calls to get that didn't find a list
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Records that a collection was opened, so that it's prefetched
+     * @param tableName the name of the collection
+     */
+    public synchronized void noteOpened(String tableName) {
+        mRecentCollections.put(tableName, true);
+        Iterator<String> iterator = mRecentCollections.keySet().iterator();
+        while (mRecentCollections.size() > NUM_PREFETCH_COLLECTIONS && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Loads the most recently opened collections into the cache on a background thread,
+     * most recent first, so that they open right away the next time.  Lists that are
+     * already cached are left alone.
+     * @param dbAdapter open database adapter to read with
+     */
+    public void prefetch(final DatabaseAdapter dbAdapter) {
+        final ArrayList<String> recentCollections;
+        synchronized (this) {
+            recentCollections = new ArrayList<>(mRecentCollections.keySet());
+        }
+        sPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = recentCollections.size() - 1; i >= 0; i--) {
+                    String tableName = recentCollections.get(i);
+                    try {
+                        boolean populateAdvInfo = (dbAdapter.fetchTableDisplay(tableName) == ADVANCED_DISPLAY);
+                        if (!contains(tableName, populateAdvInfo)) {
+                            long generation = getGeneration();
+                            put(tableName, populateAdvInfo, dbAdapter.getCoinSlotList(tableName, populateAdvInfo), generation);
+                        }
+                    } catch (RuntimeException e) {
+                        // The collection was renamed or deleted, or the database was closed
+                        // (which throws IllegalStateException rather than SQLException)
+                        forgetRecent(tableName);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes a collection from the recently opened list
+     * @param tableName the name of the collection
+     */
+    private synchronized void forgetRecent(String tableName) {
+        mRecentCollections.remove(tableName);
+    }
+
+    /**
+     * Gets the key for a cached list
+     * @param tableName the name of the collection
+     * @param populateAdvInfo whether the list has the advanced attributes
+     * @return key
+     */
+    private static String getKey(String tableName, boolean populateAdvInfo) {
+        return (populateAdvInfo ? "1" : "0") + tableName;
+    }
+
+    /**
+     * Makes a deep copy of a coin list
+     * @param coinList list to copy
+     * @return the copy
+     */
+    private static CoinSlotList copyCoinList(List<CoinSlot> coinList) {
+        if (coinList instanceof CoinSlotList) {
+            return new CoinSlotList((CoinSlotList) coinList);
+        }
+        return new CoinSlotList(coinList);
+    }
+}
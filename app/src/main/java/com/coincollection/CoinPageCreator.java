@@ -891,45 +891,109 @@ public class CoinPageCreator extends BaseActivity {
      *  NOTE: This is public so we can use it with our current test bench
      */
     public void createOrUpdateCoinListForAsyncThread() {
-        mCollectionObj.populateCollectionLists(mParameters, mCoinList);
+        CoinCatalog coinCatalog = CoinCatalog.getInstance();
+        coinCatalog.loadCatalogAsset(getApplicationContext());
+        coinCatalog.populateCollectionLists(mCollectionObj, mParameters, mCoinList);
         if (mExistingCollection != null && mExistingCollection.getCollectionTypeIndex() == mCoinTypeIndex) {
             // If the user is modifying a collection and has selected the same type of coin,
             // preserve any data they may have already entered
             boolean hasMintMarks = (getMintMarkFlagsFromParameters(mParameters) & CollectionListInfo.SHOW_MINT_MARKS) != 0;
             ArrayList<CoinSlot> existingCoinList = mDbAdapter.getCoinList(
                     mExistingCollection.getName(), true);
-            for (int i = 0; i < mCoinList.size(); i++) {
-                for (int j = 0; j < existingCoinList.size(); j++) {
-                    CoinSlot newCoin = mCoinList.get(i);
-                    CoinSlot existingCoin = existingCoinList.get(j);
-                    if (!mExistingCollection.hasMintMarks() && hasMintMarks) {
-                        // If going from no mint marks to having mint marks, copy the coin progress
-                        // for the existing identifier into each of the coin mints selected.
-                        if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
-                            mCoinList.set(i, existingCoin.copy(newCoin.getIdentifier(), newCoin.getMint()));
-                            break;
-                        }
-                    } else if (mExistingCollection.hasMintMarks() && !hasMintMarks) {
-                        // If going from mint marks to no mint marks, copy at least 1 of the existing
-                        // coin's advanced info and merge the inCollection attribute
-                        if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
-                            existingCoin.setInCollection(existingCoin.isInCollection() || newCoin.isInCollection());
-                            mCoinList.set(i, existingCoin);
-                            // No break here to allow merging across all mints
-                        }
-                    } else {
-                        // In all other cases, copy any coins that match identifier and mint
-                        if (newCoin.equals(existingCoin)) {
-                            mCoinList.set(i, existingCoin);
-                            existingCoinList.remove(j);
-                            break;
-                        }
-                    }
+            mergeExistingCoinList(mCoinList, existingCoinList, mExistingCollection.hasMintMarks(), hasMintMarks);
+        }
+    }
+
+    /**
+     * Carries the progress from an existing collection's coins over to the coins in its new
+     * coin list.  The existing coins are indexed by identifier and mint up front so that this
+     * is linear in the number of coins, which matters for large collections with all mints.
+     * NOTE: This is public so we can use it with our current test bench
+     * @param coinList the new coin list, updated in place
+     * @param existingCoinList the coins currently in the collection
+     * @param hadMintMarks whether the existing collection shows mint marks
+     * @param hasMintMarks whether the new coin list shows mint marks
+     */
+    public static void mergeExistingCoinList(ArrayList<CoinSlot> coinList, ArrayList<CoinSlot> existingCoinList,
+                                             boolean hadMintMarks, boolean hasMintMarks) {
+        if (!hadMintMarks && hasMintMarks) {
+            // If going from no mint marks to having mint marks, copy the coin progress
+            // for the existing identifier into each of the coin mints selected.
+            HashMap<String, CoinSlot> firstByIdentifier = new HashMap<>();
+            for (CoinSlot existingCoin : existingCoinList) {
+                if (!firstByIdentifier.containsKey(existingCoin.getIdentifier())) {
+                    firstByIdentifier.put(existingCoin.getIdentifier(), existingCoin);
+                }
+            }
+            for (int i = 0; i < coinList.size(); i++) {
+                CoinSlot newCoin = coinList.get(i);
+                CoinSlot existingCoin = firstByIdentifier.get(newCoin.getIdentifier());
+                if (existingCoin != null) {
+                    coinList.set(i, existingCoin.copy(newCoin.getIdentifier(), newCoin.getMint()));
+                }
+            }
+        } else if (hadMintMarks && !hasMintMarks) {
+            // If going from mint marks to no mint marks, copy at least 1 of the existing
+            // coin's advanced info and merge the inCollection attribute across all mints
+            HashMap<String, ArrayList<CoinSlot>> allByIdentifier = groupCoinList(existingCoinList, false);
+            for (int i = 0; i < coinList.size(); i++) {
+                ArrayList<CoinSlot> existingCoins = allByIdentifier.get(coinList.get(i).getIdentifier());
+                if (existingCoins == null) {
+                    continue;
+                }
+                for (CoinSlot existingCoin : existingCoins) {
+                    existingCoin.setInCollection(existingCoin.isInCollection() || coinList.get(i).isInCollection());
+                    coinList.set(i, existingCoin);
+                }
+            }
+        } else {
+            // In all other cases, copy any coins that match identifier and mint.  Each
+            // existing coin is used at most once, in order, if the same coin appears twice.
+            HashMap<String, ArrayList<CoinSlot>> allByKey = groupCoinList(existingCoinList, true);
+            HashMap<String, Integer> numUsedByKey = new HashMap<>();
+            for (int i = 0; i < coinList.size(); i++) {
+                String key = getCoinKey(coinList.get(i), true);
+                ArrayList<CoinSlot> existingCoins = allByKey.get(key);
+                Integer numUsed = numUsedByKey.get(key);
+                int nextIndex = (numUsed == null) ? 0 : numUsed;
+                if (existingCoins != null && nextIndex < existingCoins.size()) {
+                    coinList.set(i, existingCoins.get(nextIndex));
+                    numUsedByKey.put(key, nextIndex + 1);
                 }
             }
         }
     }
 
+    /**
+     * Groups coins by identifier (and optionally mint), keeping the original order within
+     * each group
+     * @param coinList coins to group
+     * @param includeMint if true, group by identifier and mint, otherwise by identifier only
+     * @return map of key to the coins with that key
+     */
+    private static HashMap<String, ArrayList<CoinSlot>> groupCoinList(ArrayList<CoinSlot> coinList, boolean includeMint) {
+        HashMap<String, ArrayList<CoinSlot>> groups = new HashMap<>();
+        for (CoinSlot coinSlot : coinList) {
+            String key = getCoinKey(coinSlot, includeMint);
+            ArrayList<CoinSlot> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(coinSlot);
+        }
+        return groups;
+    }
+
+    /**
+     * @param coinSlot coin
+     * @param includeMint whether to include the mint mark in the key
+     * @return key matching CoinSlot.equals (if includeMint is set)
+     */
+    private static String getCoinKey(CoinSlot coinSlot, boolean includeMint) {
+        return includeMint ? coinSlot.getIdentifier() + "\n" + coinSlot.getMint() : coinSlot.getIdentifier();
+    }
+
     /**
      * Returns mint mark flags based on the parameters
      * @param parameters the user-selected parameters
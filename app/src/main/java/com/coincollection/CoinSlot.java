@@ -20,6 +20,7 @@
 
 package com.coincollection;
 
+import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.JsonReader;
@@ -28,9 +29,13 @@ import android.util.JsonWriter;
 import com.spencerpages.R;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Coin contained in a collection
+ *
+ * The identifier and mint mark are always taken from CoinSymbolTable, so they are shared
+ * between coins and can be compared by reference.
  */
 public class CoinSlot implements Parcelable {
 
@@ -57,6 +62,8 @@ public class CoinSlot implements Parcelable {
     private String mAdvancedNotes = "";
 
     // Database keys
+    public final static String TBL_COINS = "coins";
+    public final static String COL_COLLECTION_ID = "collectionId";
     public final static String COL_COIN_IDENTIFIER = "coinIdentifier";
     public final static String COL_COIN_MINT = "coinMint";
     public final static String COL_IN_COLLECTION = "inCollection";
@@ -69,8 +76,8 @@ public class CoinSlot implements Parcelable {
 
     public CoinSlot (String identifier, String mint, boolean inCollection, Integer advancedGrades,
                      Integer advancedQuantities, String advancedNotes) {
-        mIdentifier = identifier;
-        mMint = mint;
+        mIdentifier = CoinSymbolTable.intern(identifier);
+        mMint = CoinSymbolTable.intern(mint);
         mInCollection = inCollection;
         mAdvancedGrades = advancedGrades;
         mAdvancedQuantities = advancedQuantities;
@@ -78,14 +85,28 @@ public class CoinSlot implements Parcelable {
     }
 
     public CoinSlot (String identifier, String mint, boolean inCollection) {
-        mIdentifier = identifier;
-        mMint = mint;
+        mIdentifier = CoinSymbolTable.intern(identifier);
+        mMint = CoinSymbolTable.intern(mint);
         mInCollection = inCollection;
     }
 
     public CoinSlot (String identifier, String mint) {
-        mIdentifier = identifier;
-        mMint = mint;
+        mIdentifier = CoinSymbolTable.intern(identifier);
+        mMint = CoinSymbolTable.intern(mint);
+    }
+
+    /**
+     * Constructor that can skip the CoinSymbolTable lookups for strings that came from it
+     * (Ex: the ones held by CoinSlotList)
+     * @param identifier coin identifier
+     * @param mint coin mint mark
+     * @param inCollection whether the coin is in the collection
+     * @param interned true if identifier and mint were returned by CoinSymbolTable.intern
+     */
+    CoinSlot (String identifier, String mint, boolean inCollection, boolean interned) {
+        mIdentifier = interned ? identifier : CoinSymbolTable.intern(identifier);
+        mMint = interned ? mint : CoinSymbolTable.intern(mint);
+        mInCollection = inCollection;
     }
 
     public void setInCollection (boolean inCollection) {
@@ -149,13 +170,57 @@ public class CoinSlot implements Parcelable {
      * @return string array with coin slot data
      */
     public String[] getLegacyCsvExportProperties() {
+        return getLegacyCsvExportProperties(mIdentifier, mMint, isInCollectionInt(),
+                getAdvancedGrades(), getAdvancedQuantities(), getAdvancedNotes());
+    }
+
+    /**
+     * Get the coin slot parameters to export to CSV for each coin in a cursor, without
+     * creating a CoinSlot for each one
+     * @param cursor cursor over coins, including the advanced attributes
+     * @return list of string arrays with coin slot data
+     */
+    public static ArrayList<String[]> getAllLegacyCsvExportProperties(Cursor cursor) {
+
+        ArrayList<String[]> csvOutputLines = new ArrayList<>(cursor.getCount());
+        int identifierIndex = cursor.getColumnIndex(COL_COIN_IDENTIFIER);
+        int mintIndex = cursor.getColumnIndex(COL_COIN_MINT);
+        int inCollectionIndex = cursor.getColumnIndex(COL_IN_COLLECTION);
+        int gradeIndex = cursor.getColumnIndex(COL_ADV_GRADE_INDEX);
+        int quantityIndex = cursor.getColumnIndex(COL_ADV_QUANTITY_INDEX);
+        int notesIndex = cursor.getColumnIndex(COL_ADV_NOTES);
+        while (cursor.moveToNext()) {
+            csvOutputLines.add(getLegacyCsvExportProperties(
+                    cursor.getString(identifierIndex),
+                    cursor.getString(mintIndex),
+                    (cursor.getInt(inCollectionIndex) == 1) ? 1 : 0,
+                    cursor.getInt(gradeIndex),
+                    cursor.getInt(quantityIndex),
+                    cursor.getString(notesIndex)));
+        }
+        return csvOutputLines;
+    }
+
+    /**
+     * Get the parameters of a coin to export to CSV
+     * @param identifier coin identifier
+     * @param mint coin mint
+     * @param inCollection 1 if the coin is in the collection, otherwise 0
+     * @param advancedGrades grade index
+     * @param advancedQuantities quantity index
+     * @param advancedNotes notes
+     * @return string array with coin slot data
+     */
+    private static String[] getLegacyCsvExportProperties(String identifier, String mint, Integer inCollection,
+                                                         Integer advancedGrades, Integer advancedQuantities,
+                                                         String advancedNotes) {
         return new String[] {
-                mIdentifier,
-                mMint,
-                String.valueOf(isInCollectionInt()),
-                String.valueOf(mAdvancedGrades),
-                String.valueOf(mAdvancedQuantities),
-                mAdvancedNotes};
+                identifier,
+                mint,
+                String.valueOf(inCollection),
+                String.valueOf(advancedGrades),
+                String.valueOf(advancedQuantities),
+                advancedNotes};
     }
 
     /**
@@ -164,14 +229,59 @@ public class CoinSlot implements Parcelable {
      * @throws IOException if an error occurred
      */
     public void writeToJson(JsonWriter writer) throws IOException {
+        writeToJson(writer, mIdentifier, mMint, isInCollection(), getAdvancedGrades(),
+                getAdvancedQuantities(), getAdvancedNotes());
+    }
+
+    /**
+     * Write out the JSON representation of each coin in a cursor (for exporting), without
+     * creating a CoinSlot for each one
+     * @param writer JsonWriter to write to
+     * @param cursor cursor over coins, including the advanced attributes
+     * @param checksum checksum to add each coin to
+     * @throws IOException if an error occurred
+     */
+    public static void writeAllToJson(JsonWriter writer, Cursor cursor, BackupChecksum checksum) throws IOException {
+
+        int identifierIndex = cursor.getColumnIndex(COL_COIN_IDENTIFIER);
+        int mintIndex = cursor.getColumnIndex(COL_COIN_MINT);
+        int inCollectionIndex = cursor.getColumnIndex(COL_IN_COLLECTION);
+        int gradeIndex = cursor.getColumnIndex(COL_ADV_GRADE_INDEX);
+        int quantityIndex = cursor.getColumnIndex(COL_ADV_QUANTITY_INDEX);
+        int notesIndex = cursor.getColumnIndex(COL_ADV_NOTES);
+        while (cursor.moveToNext()) {
+            String identifier = cursor.getString(identifierIndex);
+            String mint = cursor.getString(mintIndex);
+            boolean inCollection = (cursor.getInt(inCollectionIndex) == 1);
+            int advancedGrades = cursor.getInt(gradeIndex);
+            int advancedQuantities = cursor.getInt(quantityIndex);
+            String advancedNotes = cursor.getString(notesIndex);
+            writeToJson(writer, identifier, mint, inCollection, advancedGrades, advancedQuantities, advancedNotes);
+            checksum.updateCoin(identifier, mint, inCollection, advancedGrades, advancedQuantities, advancedNotes);
+        }
+    }
+
+    /**
+     * Write out the JSON representation of a coin
+     * @param writer JsonWriter to write to
+     * @param identifier coin identifier
+     * @param mint coin mint
+     * @param inCollection whether the coin is in the collection
+     * @param advancedGrades grade index
+     * @param advancedQuantities quantity index
+     * @param advancedNotes notes
+     * @throws IOException if an error occurred
+     */
+    private static void writeToJson(JsonWriter writer, String identifier, String mint, boolean inCollection,
+                                    int advancedGrades, int advancedQuantities, String advancedNotes) throws IOException {
 
         writer.beginObject();
-        writer.name(COL_COIN_IDENTIFIER).value(mIdentifier);
-        writer.name(COL_COIN_MINT).value(mMint);
-        writer.name(COL_IN_COLLECTION).value(mInCollection);
-        writer.name(COL_ADV_GRADE_INDEX).value(mAdvancedGrades);
-        writer.name(COL_ADV_QUANTITY_INDEX).value(mAdvancedQuantities);
-        writer.name(COL_ADV_NOTES).value(mAdvancedNotes);
+        writer.name(COL_COIN_IDENTIFIER).value(identifier);
+        writer.name(COL_COIN_MINT).value(mint);
+        writer.name(COL_IN_COLLECTION).value(inCollection);
+        writer.name(COL_ADV_GRADE_INDEX).value(advancedGrades);
+        writer.name(COL_ADV_QUANTITY_INDEX).value(advancedQuantities);
+        writer.name(COL_ADV_NOTES).value(advancedNotes);
         writer.endObject();
     }
 
@@ -218,8 +328,8 @@ public class CoinSlot implements Parcelable {
         }
         reader.endObject();
 
-        mIdentifier = identifier;
-        mMint = mint;
+        mIdentifier = CoinSymbolTable.intern(identifier);
+        mMint = CoinSymbolTable.intern(mint);
         mInCollection = inCollection;
         mAdvancedGrades = advancedGrades;
         mAdvancedQuantities = advancedQuantities;
@@ -231,8 +341,8 @@ public class CoinSlot implements Parcelable {
      * @param in input String[]
      */
     public CoinSlot(String[] in) {
-        mIdentifier = (in.length > 0 ? in[0] : "");
-        mMint = (in.length > 1 ? in[1] : "");
+        mIdentifier = CoinSymbolTable.intern(in.length > 0 ? in[0] : "");
+        mMint = CoinSymbolTable.intern(in.length > 1 ? in[1] : "");
         mInCollection = (in.length > 2 && (Integer.parseInt(in[2]) != 0));
         mAdvancedGrades = (in.length > 3 ? Integer.parseInt(in[3]) : 0);
         mAdvancedQuantities = (in.length > 4 ? Integer.parseInt(in[4]) : 0);
@@ -249,18 +359,18 @@ public class CoinSlot implements Parcelable {
         return new CoinSlot(
                 newIdentifier,
                 newMint,
-                mInCollection,
-                mAdvancedGrades,
-                mAdvancedQuantities,
-                mAdvancedNotes);
+                isInCollection(),
+                getAdvancedGrades(),
+                getAdvancedQuantities(),
+                getAdvancedNotes());
     }
 
     /* We make this object Parcelable so that the list can be passed between Activities in the case
      * where a screen orientation change occurs.
      */
     private CoinSlot(Parcel in) {
-        mIdentifier = in.readString();
-        mMint = in.readString();
+        mIdentifier = CoinSymbolTable.intern(in.readString());
+        mMint = CoinSymbolTable.intern(in.readString());
         mInCollection = in.readByte() != 0;
         mIndexHasChanged = in.readByte() != 0;
         if (in.readByte() == 0) {
@@ -297,29 +407,40 @@ public class CoinSlot implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(mIdentifier);
         dest.writeString(mMint);
-        dest.writeByte((byte) (mInCollection ? 1 : 0));
-        dest.writeByte((byte) (mIndexHasChanged ? 1 : 0));
-        if (mAdvancedGrades == null) {
+        // Use the getters, since CoinSlotList's views store these values in the list
+        Integer advancedGrades = getAdvancedGrades();
+        Integer advancedQuantities = getAdvancedQuantities();
+        dest.writeByte((byte) (isInCollection() ? 1 : 0));
+        dest.writeByte((byte) (hasIndexChanged() ? 1 : 0));
+        if (advancedGrades == null) {
             dest.writeByte((byte) 0);
         } else {
             dest.writeByte((byte) 1);
-            dest.writeInt(mAdvancedGrades);
+            dest.writeInt(advancedGrades);
         }
-        if (mAdvancedQuantities == null) {
+        if (advancedQuantities == null) {
             dest.writeByte((byte) 0);
         } else {
             dest.writeByte((byte) 1);
-            dest.writeInt(mAdvancedQuantities);
+            dest.writeInt(advancedQuantities);
         }
-        dest.writeString(mAdvancedNotes);
+        dest.writeString(getAdvancedNotes());
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        // CoinSlotList's views are a subclass, and compare equal to the coins they were made from
+        if (!(o instanceof CoinSlot)) return false;
         CoinSlot coinSlot = (CoinSlot) o;
+        // Identifiers and mint marks are interned, so equal strings are usually the same object
+        // and String.equals returns right away
         return mIdentifier.equals(coinSlot.mIdentifier) &&
                 mMint.equals(coinSlot.mMint);
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * mIdentifier.hashCode() + mMint.hashCode();
+    }
 }
\ No newline at end of file
@@ -40,7 +40,7 @@ import android.widget.Toast;
 import android.widget.AdapterView.OnItemSelectedListener;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * BaseAdapter for the collection pages
@@ -57,7 +57,7 @@ class CoinSlotAdapter extends BaseAdapter {
     private final CollectionInfo mCollectionTypeObj;
     private String mTableName;
 
-    private final ArrayList<CoinSlot> mCoinList;
+    private final List<CoinSlot> mCoinList;
 
     private OnItemSelectedListener mGradeOnItemSelectedListener = null;
     private ArrayAdapter<CharSequence> mGradeArrayAdapter = null;
@@ -79,7 +79,7 @@ class CoinSlotAdapter extends BaseAdapter {
      * @param collectionTypeObj The backing object in the COLLECTION_TYPE list
      * @param coinList The list of coins
      */
-    CoinSlotAdapter(Context context, String tableName, CollectionInfo collectionTypeObj, ArrayList<CoinSlot> coinList, int displayType) {
+    CoinSlotAdapter(Context context, String tableName, CollectionInfo collectionTypeObj, List<CoinSlot> coinList, int displayType) {
         // Used for State, National Park, Presidential Coins, and Native American coins
         // and Pennies, Nickels, American Innovation Dollars
         super();
@@ -0,0 +1,367 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.RandomAccess;
+
+/**
+ * Coin list that stores each coin attribute in its own array, rather than keeping a CoinSlot
+ * object (and its boxed advanced attributes) alive for every coin in a collection.  This is
+ * what CollectionPage and CoinSlotAdapter hold for the collection being shown.
+ *
+ * get returns a CoinSlot view of the coin, created on demand, that reads and writes the
+ * list's arrays, so changes made through it (Ex: toggling a coin) are made to the list.
+ * Identifiers and mint marks come from CoinSymbolTable, so the arrays just reference the
+ * shared strings.  Advanced grades and quantities of null are stored as 0.
+ */
+public class CoinSlotList extends AbstractList<CoinSlot> implements RandomAccess, Parcelable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize = 0;
+    private String[] mIdentifiers;
+    private String[] mMints;
+    private int[] mAdvancedGrades;
+    private int[] mAdvancedQuantities;
+    private String[] mAdvancedNotes;
+    // Bit sets for whether each coin is in the collection and has unsaved changes.  (BitSet
+    // can't be converted to or from words until API 19.)
+    private long[] mInCollection;
+    private long[] mIndexHasChanged;
+
+    /**
+     * View of one coin in the list
+     */
+    private static class CoinSlotView extends CoinSlot {
+        private final CoinSlotList mList;
+        private final int mIndex;
+
+        CoinSlotView(CoinSlotList list, int index) {
+            // The list's strings are already interned
+            super(list.mIdentifiers[index], list.mMints[index], false, true);
+            mList = list;
+            mIndex = index;
+        }
+
+        @Override
+        public boolean isInCollection() {
+            return getBit(mList.mInCollection, mIndex);
+        }
+
+        @Override
+        public void setInCollection(boolean inCollection) {
+            setBit(mList.mInCollection, mIndex, inCollection);
+        }
+
+        @Override
+        boolean hasIndexChanged() {
+            return getBit(mList.mIndexHasChanged, mIndex);
+        }
+
+        @Override
+        void setIndexChanged(boolean changed) {
+            setBit(mList.mIndexHasChanged, mIndex, changed);
+        }
+
+        @Override
+        public Integer getAdvancedGrades() {
+            return mList.mAdvancedGrades[mIndex];
+        }
+
+        @Override
+        public void setAdvancedGrades(Integer advancedGrades) {
+            mList.mAdvancedGrades[mIndex] = (advancedGrades != null) ? advancedGrades : 0;
+        }
+
+        @Override
+        public Integer getAdvancedQuantities() {
+            return mList.mAdvancedQuantities[mIndex];
+        }
+
+        @Override
+        public void setAdvancedQuantities(Integer advancedQuantities) {
+            mList.mAdvancedQuantities[mIndex] = (advancedQuantities != null) ? advancedQuantities : 0;
+        }
+
+        @Override
+        public String getAdvancedNotes() {
+            return mList.mAdvancedNotes[mIndex];
+        }
+
+        @Override
+        public void setAdvancedNotes(String advancedNotes) {
+            mList.mAdvancedNotes[mIndex] = advancedNotes;
+        }
+    }
+
+    /**
+     * Creates an empty list
+     * @param capacity number of coins to allocate space for
+     */
+    public CoinSlotList(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    /**
+     * Creates an empty list
+     */
+    public CoinSlotList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a list holding copies of the coins
+     * @param coinList coins to copy
+     */
+    public CoinSlotList(Collection<CoinSlot> coinList) {
+        this(coinList.size());
+        addAll(coinList);
+    }
+
+    /**
+     * Creates a copy of a list
+     * @param coinList list to copy
+     */
+    public CoinSlotList(CoinSlotList coinList) {
+        mSize = coinList.mSize;
+        mIdentifiers = coinList.mIdentifiers.clone();
+        mMints = coinList.mMints.clone();
+        mAdvancedGrades = coinList.mAdvancedGrades.clone();
+        mAdvancedQuantities = coinList.mAdvancedQuantities.clone();
+        mAdvancedNotes = coinList.mAdvancedNotes.clone();
+        mInCollection = coinList.mInCollection.clone();
+        mIndexHasChanged = coinList.mIndexHasChanged.clone();
+    }
+
+    private void allocate(int capacity) {
+        mIdentifiers = new String[capacity];
+        mMints = new String[capacity];
+        mAdvancedGrades = new int[capacity];
+        mAdvancedQuantities = new int[capacity];
+        mAdvancedNotes = new String[capacity];
+        mInCollection = new long[getNumWords(capacity)];
+        mIndexHasChanged = new long[getNumWords(capacity)];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIdentifiers.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIdentifiers.length * 2);
+        mIdentifiers = Arrays.copyOf(mIdentifiers, newCapacity);
+        mMints = Arrays.copyOf(mMints, newCapacity);
+        mAdvancedGrades = Arrays.copyOf(mAdvancedGrades, newCapacity);
+        mAdvancedQuantities = Arrays.copyOf(mAdvancedQuantities, newCapacity);
+        mAdvancedNotes = Arrays.copyOf(mAdvancedNotes, newCapacity);
+        mInCollection = Arrays.copyOf(mInCollection, getNumWords(newCapacity));
+        mIndexHasChanged = Arrays.copyOf(mIndexHasChanged, getNumWords(newCapacity));
+    }
+
+    private static int getNumWords(int numBits) {
+        return (numBits + 63) / 64;
+    }
+
+    private static boolean getBit(long[] words, int index) {
+        return (words[index >> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] words, int index, boolean value) {
+        if (value) {
+            words[index >> 6] |= (1L << index);
+        } else {
+            words[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Adds a coin to the end of the list without creating a CoinSlot for it
+     * @param identifier coin identifier
+     * @param mint coin mint mark
+     * @param inCollection whether the coin is in the collection
+     * @param advancedGrades index of the coin's grade
+     * @param advancedQuantities index of the coin's quantity
+     * @param advancedNotes notes about the coin
+     */
+    public void add(String identifier, String mint, boolean inCollection, int advancedGrades,
+                    int advancedQuantities, String advancedNotes) {
+        ensureCapacity(mSize + 1);
+        mIdentifiers[mSize] = CoinSymbolTable.intern(identifier);
+        mMints[mSize] = CoinSymbolTable.intern(mint);
+        setBit(mInCollection, mSize, inCollection);
+        setBit(mIndexHasChanged, mSize, false);
+        mAdvancedGrades[mSize] = advancedGrades;
+        mAdvancedQuantities[mSize] = advancedQuantities;
+        mAdvancedNotes[mSize] = advancedNotes;
+        mSize++;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(CoinSlot coinSlot) {
+        add(coinSlot.getIdentifier(), coinSlot.getMint(), coinSlot.isInCollection(),
+                toInt(coinSlot.getAdvancedGrades()), toInt(coinSlot.getAdvancedQuantities()),
+                coinSlot.getAdvancedNotes());
+        setBit(mIndexHasChanged, mSize - 1, coinSlot.hasIndexChanged());
+        return true;
+    }
+
+    /**
+     * Returns a view of a coin.  Each call creates a new view, so callers looking at several
+     * attributes of a coin should hold onto the one returned.
+     * @param index index of the coin
+     * @return view of the coin
+     */
+    @Override
+    public CoinSlot get(int index) {
+        checkIndex(index);
+        return new CoinSlotView(this, index);
+    }
+
+    /**
+     * Checks whether a coin has unsaved changes, without creating a view of it
+     * @param index index of the coin
+     * @return true if the coin has unsaved changes
+     */
+    boolean hasIndexChanged(int index) {
+        checkIndex(index);
+        return getBit(mIndexHasChanged, index);
+    }
+
+    /**
+     * Replaces a coin with a copy of another.  The CoinSlot previously returned for this index
+     * is a view, so the one returned here is a copy made before the coin was replaced.
+     * @param index index of the coin to replace
+     * @param coinSlot the new coin
+     * @return a copy of the coin that was replaced
+     */
+    @Override
+    public CoinSlot set(int index, CoinSlot coinSlot) {
+        checkIndex(index);
+        CoinSlot oldCoinSlot = new CoinSlotView(this, index).copy(mIdentifiers[index], mMints[index]);
+        mIdentifiers[index] = CoinSymbolTable.intern(coinSlot.getIdentifier());
+        mMints[index] = CoinSymbolTable.intern(coinSlot.getMint());
+        setBit(mInCollection, index, coinSlot.isInCollection());
+        setBit(mIndexHasChanged, index, coinSlot.hasIndexChanged());
+        mAdvancedGrades[index] = toInt(coinSlot.getAdvancedGrades());
+        mAdvancedQuantities[index] = toInt(coinSlot.getAdvancedQuantities());
+        mAdvancedNotes[index] = coinSlot.getAdvancedNotes();
+        return oldCoinSlot;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        allocate(DEFAULT_CAPACITY);
+        mSize = 0;
+        modCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+    }
+
+    private static int toInt(Integer value) {
+        return (value != null) ? value : 0;
+    }
+
+    /* Parceled as the arrays themselves, with each distinct identifier and mint mark written
+     * once and referred to by index.
+     */
+    private CoinSlotList(Parcel in) {
+        String[] symbols = in.createStringArray();
+        int[] identifierIndices = in.createIntArray();
+        int[] mintIndices = in.createIntArray();
+        mSize = identifierIndices.length;
+        mIdentifiers = new String[mSize];
+        mMints = new String[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mIdentifiers[i] = CoinSymbolTable.intern(symbols[identifierIndices[i]]);
+            mMints[i] = CoinSymbolTable.intern(symbols[mintIndices[i]]);
+        }
+        mAdvancedGrades = in.createIntArray();
+        mAdvancedQuantities = in.createIntArray();
+        mAdvancedNotes = in.createStringArray();
+        mInCollection = in.createLongArray();
+        mIndexHasChanged = in.createLongArray();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        HashMap<String, Integer> symbolIndices = new HashMap<>();
+        int[] identifierIndices = new int[mSize];
+        int[] mintIndices = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            identifierIndices[i] = getSymbolIndex(symbolIndices, mIdentifiers[i]);
+            mintIndices[i] = getSymbolIndex(symbolIndices, mMints[i]);
+        }
+        String[] symbols = new String[symbolIndices.size()];
+        for (String symbol : symbolIndices.keySet()) {
+            symbols[symbolIndices.get(symbol)] = symbol;
+        }
+        dest.writeStringArray(symbols);
+        dest.writeIntArray(identifierIndices);
+        dest.writeIntArray(mintIndices);
+        dest.writeIntArray(Arrays.copyOf(mAdvancedGrades, mSize));
+        dest.writeIntArray(Arrays.copyOf(mAdvancedQuantities, mSize));
+        dest.writeStringArray(Arrays.copyOf(mAdvancedNotes, mSize));
+        dest.writeLongArray(Arrays.copyOf(mInCollection, getNumWords(mSize)));
+        dest.writeLongArray(Arrays.copyOf(mIndexHasChanged, getNumWords(mSize)));
+    }
+
+    private static int getSymbolIndex(HashMap<String, Integer> symbolIndices, String symbol) {
+        Integer index = symbolIndices.get(symbol);
+        if (index == null) {
+            index = symbolIndices.size();
+            symbolIndices.put(symbol, index);
+        }
+        return index;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<CoinSlotList> CREATOR = new Creator<CoinSlotList>() {
+        @Override
+        public CoinSlotList createFromParcel(Parcel in) {
+            return new CoinSlotList(in);
+        }
+
+        @Override
+        public CoinSlotList[] newArray(int size) {
+            return new CoinSlotList[size];
+        }
+    };
+}
@@ -0,0 +1,259 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sits between CollectionPage and the DatabaseAdapter so that taps in the simple view don't
+ * each block on a database write. Each toggle is applied to the CoinSlot right away and
+ * queued, and repeated toggles of the same coin are coalesced into a single write of the
+ * final value. The queue is written in one transaction on a background thread once the user
+ * stops tapping for IDLE_FLUSH_DELAY_MS, or when flush is called (Ex: from onPause.) Flushing
+ * never waits for the write, so background tasks that need the changes to be in the database
+ * first (Ex: reloading or renaming the collection) should call waitForWrites.
+ *
+ * If a write fails, the listener is given the coins whose values weren't saved so that they
+ * can be changed back to match the database.
+ *
+ * The queue must only be used from the UI thread.
+ */
+public class CoinSlotWriteQueue {
+
+    // How long to wait after the last toggle before writing the queued changes
+    public static final long IDLE_FLUSH_DELAY_MS = 750;
+
+    // Writes from all queues go through a single thread so that they are applied in order
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Notified (on the UI thread) if queued changes couldn't be written to the database
+     */
+    public interface WriteErrorListener {
+        /**
+         * @param unsavedCoinSlots the coins that weren't saved, holding the values that are
+         *                         still in the database.  Coins that have been toggled again
+         *                         since are left out, since the newer write will update them,
+         *                         so this may be empty.
+         */
+        void onWriteError(List<CoinSlot> unsavedCoinSlots);
+    }
+
+    private final DatabaseAdapter mDbAdapter;
+    private final boolean mWriteInBackground;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private String mTableName;
+    private WriteErrorListener mListener = null;
+
+    // The latest value for each coin that has been toggled since the last write, keyed by
+    // identifier and mint mark
+    private final LinkedHashMap<String, CoinSlot> mPendingWrites = new LinkedHashMap<>();
+    // The value in the database for each coin in mPendingWrites, in case the write fails
+    private final HashMap<String, Boolean> mSavedValues = new HashMap<>();
+    private Future<?> mLastWrite = null;
+
+    // Writes that have failed but haven't been reported to the listener yet
+    private final AtomicInteger mUnreportedFailures = new AtomicInteger();
+
+    private final Runnable mIdleFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructor
+     * @param dbAdapter database adapter to write with
+     * @param tableName the name of the collection the coins are in
+     * @param writeInBackground if false, changes are written right away on the calling
+     *                          thread (used for unit tests)
+     */
+    public CoinSlotWriteQueue(DatabaseAdapter dbAdapter, String tableName, boolean writeInBackground) {
+        mDbAdapter = dbAdapter;
+        mTableName = tableName;
+        mWriteInBackground = writeInBackground;
+    }
+
+    /**
+     * Sets the listener to notify if a write fails
+     * @param listener listener, or null to stop notifying
+     */
+    public void setWriteErrorListener(WriteErrorListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Changes the collection that the queued changes are written to.  Changes queued for the
+     * previous name should be flushed and written before the collection is renamed.
+     * @param tableName new collection name
+     */
+    public void setTableName(String tableName) {
+        mTableName = tableName;
+    }
+
+    /**
+     * Toggles whether a coin is in the collection, and queues the change to be written
+     * @param coinSlot coin to toggle
+     */
+    public void toggle(CoinSlot coinSlot) {
+        String key = getKey(coinSlot);
+        if (!mPendingWrites.containsKey(key)) {
+            mSavedValues.put(key, coinSlot.isInCollection());
+        }
+        coinSlot.setInCollection(!coinSlot.isInCollection());
+        mPendingWrites.put(key,
+                new CoinSlot(coinSlot.getIdentifier(), coinSlot.getMint(), coinSlot.isInCollection()));
+
+        // Wait for the user to stop tapping before writing
+        mHandler.removeCallbacks(mIdleFlush);
+        if (mWriteInBackground) {
+            mHandler.postDelayed(mIdleFlush, IDLE_FLUSH_DELAY_MS);
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * @return the number of coins with changes that haven't been handed off to be written
+     */
+    public int getPendingCount() {
+        return mPendingWrites.size();
+    }
+
+    /**
+     * @return true if every toggle has been written to the database, so the coins match it.
+     *         False if changes are still queued or being written, or if a write failed and
+     *         the listener hasn't been notified yet.
+     */
+    public boolean isWritten() {
+        return mPendingWrites.isEmpty()
+                && (mLastWrite == null || mLastWrite.isDone())
+                && (mUnreportedFailures.get() == 0);
+    }
+
+    /**
+     * Starts writing any queued changes to the database, without waiting for them.  This
+     * should be done when the activity is pausing, since the process may be killed once it is
+     * in the background.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mIdleFlush);
+        if (!mPendingWrites.isEmpty()) {
+            final String tableName = mTableName;
+            final ArrayList<CoinSlot> coinSlots = new ArrayList<>(mPendingWrites.values());
+            final ArrayList<CoinSlot> savedCoinSlots = new ArrayList<>(coinSlots.size());
+            for (CoinSlot coinSlot : coinSlots) {
+                savedCoinSlots.add(new CoinSlot(coinSlot.getIdentifier(), coinSlot.getMint(),
+                        mSavedValues.get(getKey(coinSlot))));
+            }
+            mPendingWrites.clear();
+            mSavedValues.clear();
+            Runnable write = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mDbAdapter.updateInCollection(tableName, coinSlots);
+                    } catch (SQLException e) {
+                        reportWriteError(savedCoinSlots);
+                    } catch (IllegalStateException e) {
+                        // The database was closed
+                        reportWriteError(savedCoinSlots);
+                    }
+                }
+            };
+            if (mWriteInBackground) {
+                mLastWrite = sWriteExecutor.submit(write);
+            } else {
+                write.run();
+            }
+        }
+    }
+
+    /**
+     * Blocks until the changes flushed so far, from every queue, are in the database.  This
+     * must not be called on the UI thread.
+     */
+    public static void waitForWrites() {
+        Future<?> marker = sWriteExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        try {
+            // Writes run one at a time in order, so the earlier writes are done once this is
+            marker.get();
+        } catch (ExecutionException ignored) {
+            // Can't happen, since the marker doesn't do anything
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Notifies the listener (on the UI thread) that a write failed
+     * @param savedCoinSlots the coins that were being written, holding the values that are
+     *                       still in the database
+     */
+    private void reportWriteError(final List<CoinSlot> savedCoinSlots) {
+        mUnreportedFailures.incrementAndGet();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<CoinSlot> unsavedCoinSlots = new ArrayList<>();
+                for (CoinSlot savedCoinSlot : savedCoinSlots) {
+                    String key = getKey(savedCoinSlot);
+                    if (mPendingWrites.containsKey(key)) {
+                        // The coin was toggled again, so that write will update it.  If it
+                        // fails too, the coin goes back to what's in the database.
+                        mSavedValues.put(key, savedCoinSlot.isInCollection());
+                    } else {
+                        unsavedCoinSlots.add(savedCoinSlot);
+                    }
+                }
+                if (mListener != null) {
+                    mListener.onWriteError(unsavedCoinSlots);
+                }
+                mUnreportedFailures.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @param coinSlot coin
+     * @return the key for the coin in the queue
+     */
+    private static String getKey(CoinSlot coinSlot) {
+        return coinSlot.getIdentifier() + "\n" + coinSlot.getMint();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide symbol table for coin identifiers and mint marks.  The same few thousand
+ * identifiers (Ex: "1964") and handful of mint marks (Ex: "D") are repeated across every
+ * collection, so CoinSlot keeps a single shared copy of each rather than one per coin read
+ * from the database, a backup file or a collection generator.  Since every CoinSlot's
+ * identifier and mint come from here, equal identifiers are also the same object.
+ *
+ * Symbols are only weakly held, so ones no longer used by any coin can be garbage collected.
+ */
+public class CoinSymbolTable {
+
+    private static final WeakHashMap<String, WeakReference<String>> sSymbols = new WeakHashMap<>();
+
+    /**
+     * Returns the shared copy of a string, adding it to the table if needed
+     * @param string identifier or mint mark
+     * @return the shared string equal to the one passed in (or null if null was passed in)
+     */
+    public static String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        synchronized (sSymbols) {
+            WeakReference<String> symbolRef = sSymbols.get(string);
+            String symbol = (symbolRef != null) ? symbolRef.get() : null;
+            if (symbol == null) {
+                sSymbols.put(string, new WeakReference<>(string));
+                symbol = string;
+            }
+            return symbol;
+        }
+    }
+
+    /**
+     * @return the number of symbols currently in the table
+     */
+    public static int size() {
+        synchronized (sSymbols) {
+            return sSymbols.size();
+        }
+    }
+}
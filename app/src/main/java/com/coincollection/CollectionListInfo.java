@@ -20,6 +20,7 @@
 
 package com.coincollection;
 
+import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.JsonReader;
@@ -55,6 +56,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 
 import static com.coincollection.CollectionPage.SIMPLE_DISPLAY;
+import static com.coincollection.ExportImportHelper.JSON_CHECKSUM;
 import static com.coincollection.ExportImportHelper.JSON_COIN_LIST;
 
 /**
@@ -73,6 +75,9 @@ public class CollectionListInfo implements Parcelable {
     private int mCheckboxFlags;
     private final CollectionInfo mCollectionInfo;
 
+    // Checksum read from an imported JSON backup (not parceled)
+    private String mBackupChecksum = null;
+
     // Flags for selected mint marks
     public final static int ALL_MINT_MASK = 0x3F;
     public final static int SHOW_MINT_MARKS = 0x1;
@@ -109,6 +114,8 @@ public class CollectionListInfo implements Parcelable {
     public final static String COL_END_YEAR = "endYear";
     public final static String COL_SHOW_MINT_MARKS = "showMintMarks";
     public final static String COL_SHOW_CHECKBOXES = "showCheckboxes";
+    public final static String COL_COLLECTED = "collected";
+    public final static String COL_MOD_VERSION = "modVersion";
     public final static String JSON_COL_COLLECTED = "collected";
 
     // Collections in this list use the start/end years
@@ -228,6 +235,14 @@ public class CollectionListInfo implements Parcelable {
         return mCheckboxFlags;
     }
 
+    /**
+     * @return the checksum stored with this collection in an imported JSON backup, or null if
+     * there wasn't one (Ex: the backup was made by an older version of the app)
+     */
+    public String getBackupChecksum() {
+        return mBackupChecksum;
+    }
+
     public boolean hasMintMarks() {
         return (mMintMarkFlags & SHOW_MINT_MARKS) != 0;
     }
@@ -493,6 +508,48 @@ public class CollectionListInfo implements Parcelable {
         // of the separate fetchTableDisplay calls
         int displayType = dbAdapter.fetchTableDisplay(mCollectionName);
 
+        writeJsonAttributes(writer, displayType);
+        writer.beginArray();
+        for (CoinSlot coinSlot : coinList) {
+            coinSlot.writeToJson(writer);
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /**
+     * Write out the JSON representation (for exporting), streaming the coins straight from
+     * the database so that memory use doesn't depend on the size of the collection. This
+     * collection info must have been read from the database (Ex: with getAllTableSummaries)
+     * so that the display type is populated.
+     * @param writer JsonWriter to write to
+     * @param dbAdapter database adapter
+     * @param checksum checksum to compute for the collection, which is written after the coins
+     * @throws IOException if an error occurred
+     */
+    public void writeToJson(JsonWriter writer, DatabaseAdapter dbAdapter, BackupChecksum checksum) throws IOException {
+
+        writeJsonAttributes(writer, mDisplayType);
+        writer.beginArray();
+        Cursor cursor = dbAdapter.getCoinCursor(mCollectionName);
+        try {
+            CoinSlot.writeAllToJson(writer, cursor, checksum);
+        } finally {
+            cursor.close();
+        }
+        writer.endArray();
+        writer.name(JSON_CHECKSUM).value(checksum.finishCollection(this));
+        writer.endObject();
+    }
+
+    /**
+     * Begins the JSON object for this collection and writes out the collection attributes,
+     * leaving the writer ready for the coin list array
+     * @param writer JsonWriter to write to
+     * @param displayType display type to write
+     * @throws IOException if an error occurred
+     */
+    private void writeJsonAttributes(JsonWriter writer, int displayType) throws IOException {
         writer.beginObject();
         writer.name(COL_NAME).value(mCollectionName);
         writer.name(COL_COIN_TYPE).value(getType());
@@ -504,12 +561,6 @@ public class CollectionListInfo implements Parcelable {
         writer.name(COL_SHOW_MINT_MARKS).value(mMintMarkFlags);
         writer.name(COL_SHOW_CHECKBOXES).value(mCheckboxFlags);
         writer.name(JSON_COIN_LIST);
-        writer.beginArray();
-        for (CoinSlot coinSlot : coinList) {
-            coinSlot.writeToJson(writer);
-        }
-        writer.endArray();
-        writer.endObject();
     }
 
     /**
@@ -517,7 +568,34 @@ public class CollectionListInfo implements Parcelable {
      * @param reader JsonReader to read from
      * @throws IOException if an error occurred
      */
-    public CollectionListInfo(JsonReader reader, ArrayList<CoinSlot> coinList) throws IOException {
+    public CollectionListInfo(JsonReader reader, final ArrayList<CoinSlot> coinList) throws IOException {
+        this(reader, new CoinSlotHandler() {
+            @Override
+            public void onCoinSlot(CoinSlot coinSlot) {
+                coinList.add(coinSlot);
+            }
+        });
+    }
+
+    /**
+     * Receives each coin as the coin list is read from an imported JSON file
+     */
+    public interface CoinSlotHandler {
+        /**
+         * @param coinSlot coin that was read
+         */
+        void onCoinSlot(CoinSlot coinSlot);
+    }
+
+    /**
+     * Create a collection list info from imported JSON file, passing each coin to a handler
+     * as it is read instead of collecting them (Ex: to stream them into the database.)  Note
+     * that the coins may be read before any of the collection attributes.
+     * @param reader JsonReader to read from
+     * @param coinSlotHandler handler to pass the coins to
+     * @throws IOException if an error occurred
+     */
+    public CollectionListInfo(JsonReader reader, CoinSlotHandler coinSlotHandler) throws IOException {
 
         String collectionName = "";
         int totalCoinsCollected = 0;
@@ -528,6 +606,7 @@ public class CollectionListInfo implements Parcelable {
         int mintMarkFlags = 0;
         int checkboxFlags = 0;
         int collectionTypeIndex = 0;
+        String backupChecksum = null;
 
         reader.beginObject();
         while (reader.hasNext()) {
@@ -564,14 +643,17 @@ public class CollectionListInfo implements Parcelable {
                     collectionTypeIndex = (collectionTypeIndex != -1) ? collectionTypeIndex : 0;
                     break;
                 case JSON_COIN_LIST:
-                    // Since the coin list is stored inside of the same JSON object, we'll populate the
-                    // list of coinSlot objects here as well and return those to the caller
+                    // Since the coin list is stored inside of the same JSON object, we'll read the
+                    // coins here as well and pass them to the caller
                     reader.beginArray();
                     while (reader.hasNext()) {
-                        coinList.add(new CoinSlot(reader));
+                        coinSlotHandler.onCoinSlot(new CoinSlot(reader));
                     }
                     reader.endArray();
                     break;
+                case JSON_CHECKSUM:
+                    backupChecksum = reader.nextString();
+                    break;
                 default:
                     reader.skipValue();
                     break;
@@ -589,6 +671,7 @@ public class CollectionListInfo implements Parcelable {
         mCheckboxFlags = checkboxFlags;
         mCollectionTypeIndex = collectionTypeIndex;
         mCollectionInfo = MainApplication.COLLECTION_TYPES[mCollectionTypeIndex];
+        mBackupChecksum = backupChecksum;
     }
 
     /**
@@ -51,6 +51,8 @@ import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import static com.coincollection.CoinPageCreator.getCollectionNameFilter;
 import static com.spencerpages.MainApplication.APP_NAME;
@@ -61,8 +63,23 @@ import static com.spencerpages.MainApplication.APP_NAME;
  */
 public class CollectionPage extends BaseActivity {
     private String mCollectionName;
-    private ArrayList<CoinSlot> mCoinList;
+    private CoinSlotList mCoinList;
     private CoinSlotAdapter mCoinSlotAdapter;
+    private CoinSlotWriteQueue mWriteQueue;
+    private CollectionInfo mCollectionTypeObj;
+
+    // Results of the async task that loads the collection, moved into mDisplayType and
+    // mCoinList on the UI thread once the task completes
+    private int mLoadedDisplayType = SIMPLE_DISPLAY;
+    private CoinSlotList mLoadedCoinList = null;
+
+    // Coins with unsaved changes from before the screen rotated, and their positions, to
+    // apply once the coins are loaded
+    private CoinSlotList mRestoredChangedCoins = null;
+    private int[] mRestoredChangedPositions = null;
+
+    // New name for the collection while the rename task is running
+    private String mNewCollectionName = null;
 
     // Saved Instance State Keywords
 
@@ -71,7 +88,10 @@ public class CollectionPage extends BaseActivity {
     public final static String COLLECTION_TYPE_INDEX  = "Collection_Type_Index";
     private final static String VIEW_INDEX            = "view_index";
     private final static String VIEW_POSITION         = "view_position";
-    private final static String COIN_LIST             = "coin_list";
+    private final static String CHANGED_COINS         = "changed_coins";
+    private final static String CHANGED_COIN_POSITIONS = "changed_coin_positions";
+    private final static String DISPLAY_TYPE          = "display_type";
+    private final static String NEW_COLLECTION_NAME   = "new_collection_name";
 
     // Global "enum" values
     public static final int SIMPLE_DISPLAY = 0;
@@ -97,14 +117,14 @@ public class CollectionPage extends BaseActivity {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        // Don't have BaseActivity open the database - the collection is loaded on an async task
+        // so that none of the database work happens on the UI thread
+        mOpenDbAdapterInOnCreate = false;
         super.onCreate(savedInstanceState);
 
-        // Save off this bundle so that after the database is open we can use it
-        // to get the previous CoinSlotAdapter, if present
-
         // Need to get the coin type from the intent that started this process
         int collectionTypeIndex = mCallingIntent.getIntExtra(COLLECTION_TYPE_INDEX, 0);
-        CollectionInfo collectionTypeObj = MainApplication.COLLECTION_TYPES[collectionTypeIndex];
+        mCollectionTypeObj = MainApplication.COLLECTION_TYPES[collectionTypeIndex];
 
         // Capture the collection name from the saved instance state if it's there,
         // otherwise capture from the calling intent. Note that the calling intent
@@ -132,17 +152,117 @@ public class CollectionPage extends BaseActivity {
         // Check whether it is the users first time using the app
         createAndShowHelpDialog("first_Time_screen3", R.string.tutorial_add_to_and_lock_collection);
 
-        // Determine whether we should show the advanced view or the basic view
-        mDisplayType = mDbAdapter.fetchTableDisplay(mCollectionName);
+        // The database adapter is shared, and is opened by the async task if needed
+        mDbAdapter = ((MainApplication) getApplication()).getDbAdapter();
+
+        // Taps in the simple view are written to the database in the background
+        mWriteQueue = new CoinSlotWriteQueue(mDbAdapter, mCollectionName, mUseAsyncTasks);
+        mWriteQueue.setWriteErrorListener(new CoinSlotWriteQueue.WriteErrorListener() {
+            @Override
+            public void onWriteError(List<CoinSlot> unsavedCoinSlots) {
+                revertUnsavedCoins(unsavedCoinSlots);
+                showCancelableAlert(mRes.getString(R.string.error_updating_database));
+            }
+        });
 
         // Update the icon
         if(mActionBar != null){
-            mActionBar.setIcon(collectionTypeObj.getCoinImageIdentifier());
+            mActionBar.setIcon(mCollectionTypeObj.getCoinImageIdentifier());
             // Set the actionbar so that clicking the icon takes you back
             // SO 1010877
             mActionBar.setDisplayHomeAsUpEnabled(true);
         }
 
+        // If the screen rotated, use the coins from before (kept in the coin list cache, since
+        // the bundle has a size limit) along with any unsaved changes.  That way we have all of
+        // the state from before the page loaded.  If the coins are no longer cached, they're
+        // reloaded.  Either way the changes are applied on the UI thread once the coins are
+        // shown, and are saved again if the screen rotates before then.
+        if(savedInstanceState != null && savedInstanceState.containsKey(DISPLAY_TYPE)){
+            mDisplayType = savedInstanceState.getInt(DISPLAY_TYPE);
+            mNewCollectionName = savedInstanceState.getString(NEW_COLLECTION_NAME);
+            mRestoredChangedCoins = savedInstanceState.getParcelable(CHANGED_COINS);
+            mRestoredChangedPositions = savedInstanceState.getIntArray(CHANGED_COIN_POSITIONS);
+            mCoinList = CoinListCache.getInstance().get(mCollectionName, mDisplayType == ADVANCED_DISPLAY);
+            if(mCoinList != null && BuildConfig.DEBUG){
+                Log.d(APP_NAME, "Successfully restored previous state");
+            }
+        }
+
+        if(mPreviousTask != null && mCoinList != null){
+            // A task from before the screen rotated is still running, so the database is
+            // already open.  Show the collection and restore the progress dialog.
+            applyRestoredChanges(mCoinList);
+            setupCollectionView();
+            asyncProgressOnPreExecute();
+        } else {
+            // Show a placeholder while the database is opened and the collection is loaded.
+            // Coins restored from before the screen rotated are kept rather than reloaded.
+            if(mCoinList != null){
+                mLoadedDisplayType = mDisplayType;
+                mLoadedCoinList = mCoinList;
+                mCoinList = null;
+            }
+            setContentView(R.layout.collection_page_loading);
+            kickOffAsyncProgressTask(TASK_LOAD_COLLECTION);
+        }
+
+        // At this point the UI is ready to handle any async callbacks
+        setActivityReadyForAsyncCallbacks();
+    }
+
+    /**
+     * Changes coins whose taps couldn't be written back to the values in the database
+     * @param unsavedCoinSlots coins holding the values in the database
+     */
+    private void revertUnsavedCoins(List<CoinSlot> unsavedCoinSlots) {
+        if (mCoinList == null || unsavedCoinSlots.isEmpty()) {
+            return;
+        }
+        HashMap<CoinSlot, Boolean> savedValues = new HashMap<>();
+        for (CoinSlot coinSlot : unsavedCoinSlots) {
+            savedValues.put(coinSlot, coinSlot.isInCollection());
+        }
+        for (int i = 0; i < mCoinList.size(); i++) {
+            CoinSlot coinSlot = mCoinList.get(i);
+            Boolean savedValue = savedValues.get(coinSlot);
+            if (savedValue != null) {
+                coinSlot.setInCollection(savedValue);
+            }
+        }
+        if (mCoinSlotAdapter != null) {
+            mCoinSlotAdapter.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Applies the unsaved changes from before the screen rotated to the coins, if there are any.
+     * This must be called on the UI thread.
+     * @param coinList coins to apply the changes to
+     */
+    private void applyRestoredChanges(List<CoinSlot> coinList) {
+        if (mRestoredChangedCoins == null || mRestoredChangedPositions == null) {
+            return;
+        }
+        for (int i = 0; i < mRestoredChangedCoins.size(); i++) {
+            CoinSlot changedCoin = mRestoredChangedCoins.get(i);
+            int position = mRestoredChangedPositions[i];
+            // Skip the change if the collection doesn't match (Ex: it was changed elsewhere)
+            if (position < coinList.size()
+                    && coinList.get(position).getIdentifier().equals(changedCoin.getIdentifier())
+                    && coinList.get(position).getMint().equals(changedCoin.getMint())) {
+                coinList.set(position, changedCoin);
+            }
+        }
+        mRestoredChangedCoins = null;
+        mRestoredChangedPositions = null;
+    }
+
+    /**
+     * Sets up the grid (simple view) or list (advanced view) once the collection is loaded
+     */
+    private void setupCollectionView() {
+
         GridView gridview = null;
         ListView listview = null;
 
@@ -160,31 +280,15 @@ public class CollectionPage extends BaseActivity {
             listview.setItemsCanFocus(true);
         }
 
-        // Populate the coin list
-        if(savedInstanceState == null){
-            boolean populateAdvInfo = (mDisplayType == ADVANCED_DISPLAY);
-            mCoinList = mDbAdapter.getCoinList(mCollectionName, populateAdvInfo);
-        } else {
-
-            // We have already loaded the advanced lists, so use those instead.
-            // That way we have all of the state from before the page loaded.
-            // yay
-            if(BuildConfig.DEBUG) {
-                Log.d(APP_NAME, "Successfully restored previous state");
-            }
-            mCoinList = savedInstanceState.getParcelableArrayList(COIN_LIST);
-            // Search through the hasChanged history and see whether we should
-            // re-display the "Unsaved Changes" view
-            if (mCoinList != null){
-                for(int i = 0; i < mCoinList.size(); i++){
-                    if(mCoinList.get(i).hasIndexChanged()){
-                        this.showUnsavedTextView();
-                        break;
-                    }
-                }
+        // Search through the hasChanged history and see whether we should
+        // re-display the "Unsaved Changes" view
+        for(int i = 0; i < mCoinList.size(); i++){
+            if(mCoinList.hasIndexChanged(i)){
+                this.showUnsavedTextView();
+                break;
             }
         }
-        mCoinSlotAdapter = new CoinSlotAdapter(this, mCollectionName, collectionTypeObj, mCoinList, mDisplayType);
+        mCoinSlotAdapter = new CoinSlotAdapter(this, mCollectionName, mCollectionTypeObj, mCoinList, mDisplayType);
 
         OnScrollListener scrollListener = new OnScrollListener(){
             public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
@@ -234,16 +338,10 @@ public class CollectionPage extends BaseActivity {
                     } else {
                         // Preference doesn't exist or Collection is unlocked
 
+                        // Update the mCoinSlotAdapters copy of the coins in this collection,
+                        // and queue the change to be written to the database
                         CoinSlot coinSlot = mCoinList.get(position);
-                        try {
-                            mDbAdapter.toggleInCollection(mCollectionName, coinSlot);
-                        } catch (SQLException e) {
-                            showCancelableAlert(mRes.getString(R.string.error_updating_database));
-                        }
-
-                        // Update the mCoinSlotAdapters copy of the coins in this collection
-                        boolean oldValue = coinSlot.isInCollection();
-                        coinSlot.setInCollection(!oldValue);
+                        mWriteQueue.toggle(coinSlot);
 
                         // And have the adapter redraw with this new info
 
@@ -300,6 +398,11 @@ public class CollectionPage extends BaseActivity {
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
+        // The menu depends on the display type, so wait until the collection is loaded
+        if (mCoinList == null) {
+            return false;
+        }
+
         MenuInflater inflater = getMenuInflater();
                 
         inflater.inflate(R.menu.collection_page_menu_all, menu);
@@ -342,24 +445,122 @@ public class CollectionPage extends BaseActivity {
         if (itemId == R.id.lock_unlock_collection) {
             // Need to check the preferences to see whether the collection is locked or unlocked
             SharedPreferences mainPreferences = getSharedPreferences(MainApplication.PREFS, MODE_PRIVATE);
-            SharedPreferences.Editor editor = mainPreferences.edit();
-
             boolean isLocked = mainPreferences.getBoolean(mCollectionName + IS_LOCKED, false);
-            boolean finishedSuccessfully = true;
 
             // If we are going from unlocked to lock in advance mode, we need to save the
-            // changes the user may have made (if any)
+            // changes the user may have made (if any).  This is done on the async task,
+            // which locks the collection once the changes have been saved.
             if (mDisplayType == ADVANCED_DISPLAY &&
                     !isLocked &&
                     this.doUnsavedChangesExist()) {
+                kickOffAsyncProgressTask(TASK_SAVE_CHANGES);
+                return true;
+            }
 
-                // In the advanced display case, we also need to save
+            setCollectionLocked(!isLocked, item);
+            return true;
+        } else if (itemId == R.id.change_view) {
+            if (mDisplayType == ADVANCED_DISPLAY && this.doUnsavedChangesExist()) {
+                // We need to see if there are any unsaved changes, and if so,
+                // present an alert
+                showUnsavedChangesAlertViewChange(mRes);
+                return true;
+            }
+
+            // Update the database on the async task, which restarts the activity with the
+            // new view when it completes
+            kickOffAsyncProgressTask(TASK_CHANGE_VIEW);
+            return true;
+        } else if (itemId == R.id.rename_collection) {
+            // Prompt user for new name via alert dialog
+            showRenamePrompt();
+            return true;
+        } else if (itemId == android.R.id.home) {
+            // To support having a back arrow on the page
 
-                // TODO Show some kind of spinner
+            if (this.doUnsavedChangesExist()) {
+                // If we have unsaved changes, don't go back right away but
+                // instead let the user decide
+                showUnsavedChangesAlertAndExitActivity();
+            } else {
+                this.onBackPressed();
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
 
+    /**
+     * Locks or unlocks the collection
+     * @param lock true to lock the collection, false to unlock it
+     * @param item the lock/unlock menu item, if its title should be updated
+     */
+    private void setCollectionLocked(boolean lock, MenuItem item) {
+        SharedPreferences mainPreferences = getSharedPreferences(MainApplication.PREFS, MODE_PRIVATE);
+        SharedPreferences.Editor editor = mainPreferences.edit();
+        editor.putBoolean(mCollectionName + IS_LOCKED, lock);
+        editor.apply();
+
+        if (mDisplayType == SIMPLE_DISPLAY) {
+            // Change the text for next time
+            if (item != null) {
+                item.setTitle(lock ? R.string.unlock_collection : R.string.lock_collection);
+            }
+        } else {
+            // We need to restart the view so we can show the locked
+            // view.  Also, at this point there are no unsaved changes
+            restartActivity();
+        }
+    }
+
+    /**
+     * Restarts the activity (Ex: to switch views), keeping the position the user was at
+     */
+    private void restartActivity() {
+        // Save the position that the user was at for convenience
+        // http://stackoverflow.com/questions/3014089/maintain-save-restore-scroll-position-when-returning-to-a-listview
+        AbsListView view = findViewById((mDisplayType == ADVANCED_DISPLAY) ?
+                R.id.advanced_collection_page : R.id.standard_collection_page);
+        int index = view.getFirstVisiblePosition();
+        View v = view.getChildAt(0);
+        int top = (v == null) ? 0 : v.getTop();
+
+        mCallingIntent.putExtra(VIEW_INDEX, index);
+        mCallingIntent.putExtra(VIEW_POSITION, top);
+        mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
+
+        finish();
+        startActivity(mCallingIntent);
+    }
+
+    @Override
+    public String asyncProgressDoInBackground() {
+        switch (mTask.mAsyncTaskId) {
+            case TASK_LOAD_COLLECTION: {
+                String result = openDbAdapterForAsyncThread();
+                if (!result.equals("") || mLoadedCoinList != null) {
+                    // Either the open failed, or the coins were restored after a rotation
+                    return result;
+                }
+                // Taps from before the screen rotated may still be being written
+                CoinSlotWriteQueue.waitForWrites();
+                try {
+                    // Determine whether we should show the advanced view or the basic view
+                    mLoadedDisplayType = mDbAdapter.fetchTableDisplay(mCollectionName);
+                    boolean populateAdvInfo = (mLoadedDisplayType == ADVANCED_DISPLAY);
+                    CoinSlotList coinList = mDbAdapter.getCachedCoinList(mCollectionName, populateAdvInfo);
+                    CoinListCache.getInstance().noteOpened(mCollectionName);
+                    mLoadedCoinList = coinList;
+                } catch (SQLException e) {
+                    return mRes.getString(R.string.error_opening_database);
+                }
+                return "";
+            }
+            case TASK_SAVE_CHANGES: {
+                boolean finishedSuccessfully = true;
                 for (int i = 0; i < mCoinList.size(); i++) {
-                    CoinSlot coinSlot = mCoinList.get(i);
-                    if (coinSlot.hasIndexChanged()) {
+                    if (mCoinList.hasIndexChanged(i)) {
+                        CoinSlot coinSlot = mCoinList.get(i);
                         try {
                             mDbAdapter.updateAdvInfo(mCollectionName, coinSlot);
                         } catch (SQLException e) {
@@ -371,173 +572,124 @@ public class CollectionPage extends BaseActivity {
                         coinSlot.setIndexChanged(false);
                     }
                 }
-
-                if (finishedSuccessfully) {
-                    // Hide the unsaved changes view
-                    Toast.makeText(this, mRes.getString(R.string.changes_saved), Toast.LENGTH_SHORT).show();
-                    this.hideUnsavedTextView();
-                } else {
-                    showCancelableAlert(mRes.getString(R.string.error_updating_database));
-                }
-            }
-
-            if (finishedSuccessfully) {
-                if (isLocked) {
-                    // Locked, change to unlocked
-                    editor.putBoolean(mCollectionName + IS_LOCKED, false);
-                    // Change the text for next time
-                    if (mDisplayType == SIMPLE_DISPLAY) {
-                        item.setTitle(R.string.lock_collection);
-                    }
-                    // Don't update in the advance case, because we are going to blow
-                    // away this
-                } else {
-                    // Unlocked or preference doesn't exist, change preference to locked
-                    editor.putBoolean(mCollectionName + IS_LOCKED, true);
-                    // Change the text for next time
-                    if (mDisplayType == SIMPLE_DISPLAY) {
-                        item.setTitle(R.string.unlock_collection);
-                    }
-                }
-            }
-
-            // Save changes
-            // TODO Consider not saving these if in advance mode and the db update
-            // fails below
-            editor.apply();
-
-            if (mDisplayType == ADVANCED_DISPLAY) {
-                // We need to restart the view so we can show the locked
-                // view.  Also, at this point there are no unsaved changes
-
-                // Save the position that the user was at for convenience
-                // http://stackoverflow.com/questions/3014089/maintain-save-restore-scroll-position-when-returning-to-a-listview
-                ListView listview = findViewById(R.id.advanced_collection_page);
-                int index = listview.getFirstVisiblePosition();
-                View v = listview.getChildAt(0);
-                int top = (v == null) ? 0 : v.getTop();
-
-                mCallingIntent.putExtra(VIEW_INDEX, index);
-                mCallingIntent.putExtra(VIEW_POSITION, top);
-                mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
-
-                finish();
-                startActivity(mCallingIntent);
+                return finishedSuccessfully ? "" : mRes.getString(R.string.error_updating_database);
             }
-
-            return true;
-        } else if (itemId == R.id.change_view) {
-            if (mDisplayType == SIMPLE_DISPLAY) {
-                // Setup the advanced view
+            case TASK_CHANGE_VIEW: {
                 try {
-                    mDbAdapter.updateTableDisplay(mCollectionName, ADVANCED_DISPLAY);
+                    mDbAdapter.updateTableDisplay(mCollectionName,
+                            (mDisplayType == SIMPLE_DISPLAY) ? ADVANCED_DISPLAY : SIMPLE_DISPLAY);
                 } catch (SQLException e) {
-                    showCancelableAlert(mRes.getString(R.string.error_updating_database));
+                    return mRes.getString(R.string.error_updating_database);
                 }
-
-                // Save the position that the user was at for convenience
-                // http://stackoverflow.com/questions/3014089/maintain-save-restore-scroll-position-when-returning-to-a-listview
-                GridView gridview = findViewById(R.id.standard_collection_page);
-                int index = gridview.getFirstVisiblePosition();
-                View v = gridview.getChildAt(0);
-                int top = (v == null) ? 0 : v.getTop();
-
-                mCallingIntent.putExtra(VIEW_INDEX, index);
-                mCallingIntent.putExtra(VIEW_POSITION, top);
-                mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
-
-                // Restart the activity
-                finish();
-                startActivity(mCallingIntent);
-
-                return true;
-
-            } else if (mDisplayType == ADVANCED_DISPLAY) {
-                // Setup the basic view
-
-                // We need to see if there are any unsaved changes, and if so,
-                // present an alert
-
-                if (this.doUnsavedChangesExist()) {
-
-                    showUnsavedChangesAlertViewChange(mRes);
-                    return true;
+                return "";
+            }
+            case TASK_RENAME_COLLECTION: {
+                // The taps flushed before renaming are written under the old name
+                CoinSlotWriteQueue.waitForWrites();
+                // Make sure the new name isn't taken and is valid
+                int checkNameResult = mDbAdapter.checkCollectionName(mNewCollectionName);
+                if (checkNameResult != -1) {
+                    return mRes.getString(checkNameResult);
                 }
-
-                // The user doesn't have any unsaved changes
-
                 try {
-                    mDbAdapter.updateTableDisplay(mCollectionName, SIMPLE_DISPLAY);
+                    mDbAdapter.updateCollectionName(mCollectionName, mNewCollectionName);
                 } catch (SQLException e) {
-                    showCancelableAlert(mRes.getString(R.string.error_updating_database));
+                    return mRes.getString(R.string.error_updating_database);
                 }
-
-                // Save the position that the user was at for convenience
-                // http://stackoverflow.com/questions/3014089/maintain-save-restore-scroll-position-when-returning-to-a-listview
-                ListView listview = findViewById(R.id.advanced_collection_page);
-                int index = listview.getFirstVisiblePosition();
-                View v = listview.getChildAt(0);
-                int top = (v == null) ? 0 : v.getTop();
-
-                mCallingIntent.putExtra(VIEW_INDEX, index);
-                mCallingIntent.putExtra(VIEW_POSITION, top);
-                mCallingIntent.putExtra(COLLECTION_NAME, mCollectionName);
-
-                // Restart the activity
-                finish();
-                startActivity(mCallingIntent);
-                return true;
+                return "";
             }
+        }
+        return "";
+    }
 
-            // Shouldn't get here
-            return true;
-        } else if (itemId == R.id.rename_collection) {
-            // Prompt user for new name via alert dialog
-            showRenamePrompt();
-            return true;
-        } else if (itemId == android.R.id.home) {
-            // To support having a back arrow on the page
+    @Override
+    public void asyncProgressOnPreExecute() {
+        switch (mTask.mAsyncTaskId) {
+            case TASK_SAVE_CHANGES: {
+                createProgressDialog(mRes.getString(R.string.saving_changes));
+                break;
+            }
+            case TASK_CHANGE_VIEW: {
+                createProgressDialog(mRes.getString(R.string.changing_view));
+                break;
+            }
+            case TASK_RENAME_COLLECTION: {
+                createProgressDialog(mRes.getString(R.string.renaming_collection));
+                break;
+            }
+        }
+    }
 
-            if (this.doUnsavedChangesExist()) {
-                // If we have unsaved changes, don't go back right away but
-                // instead let the user decide
-                showUnsavedChangesAlertAndExitActivity();
-            } else {
-                this.onBackPressed();
+    @Override
+    public void asyncProgressOnPostExecute(String resultStr) {
+        super.asyncProgressOnPostExecute(resultStr);
+        dismissProgressDialog();
+        switch (mTask.mAsyncTaskId) {
+            case TASK_LOAD_COLLECTION: {
+                if (mLoadedCoinList == null) {
+                    // The collection couldn't be loaded
+                    finish();
+                    return;
+                }
+                mDisplayType = mLoadedDisplayType;
+                mCoinList = mLoadedCoinList;
+                mLoadedCoinList = null;
+                applyRestoredChanges(mCoinList);
+                setupCollectionView();
+                // Now that the display type is known, show the menu
+                supportInvalidateOptionsMenu();
+                break;
+            }
+            case TASK_SAVE_CHANGES: {
+                if (resultStr.equals("")) {
+                    // Hide the unsaved changes view
+                    Toast.makeText(this, mRes.getString(R.string.changes_saved), Toast.LENGTH_SHORT).show();
+                    this.hideUnsavedTextView();
+                    setCollectionLocked(true, null);
+                }
+                break;
+            }
+            case TASK_CHANGE_VIEW: {
+                if (resultStr.equals("")) {
+                    restartActivity();
+                }
+                break;
+            }
+            case TASK_RENAME_COLLECTION: {
+                if (resultStr.equals("")) {
+                    onCollectionRenamed(mNewCollectionName);
+                }
+                mNewCollectionName = null;
+                break;
             }
-            return true;
         }
-        return super.onOptionsItemSelected(item);
     }
 
     /**
-     * Updates the collection name when the user renames a collection
+     * Renames the collection when the user picks a new name
      * @param newCollectionName Name of the new collection
      */
     private void updateCollectionName(String newCollectionName){
 
-        String oldCollectionName = mCollectionName;
-
         // Do nothing if the name isn't actually changed
-        if (newCollectionName.equals(oldCollectionName)){
+        if (newCollectionName.equals(mCollectionName)){
             return;
         }
 
-        // Make sure the new name isn't taken and is valid
-        int checkNameResult = mDbAdapter.checkCollectionName(newCollectionName);
-        if(checkNameResult != -1){
-            Toast.makeText(this, mRes.getString(checkNameResult), Toast.LENGTH_SHORT).show();
-            return;
-        }
+        // Start writing any queued changes under the old name, then update the database
+        // on the async task once they're written
+        mWriteQueue.flush();
+        mNewCollectionName = newCollectionName;
+        kickOffAsyncProgressTask(TASK_RENAME_COLLECTION);
+    }
 
-        // Perform all actions needed to rename the collection
+    /**
+     * Updates the app state once a collection has been renamed in the database
+     * @param newCollectionName Name of the new collection
+     */
+    private void onCollectionRenamed(String newCollectionName){
 
-        // Update database
-        try {
-            mDbAdapter.updateCollectionName(oldCollectionName, newCollectionName);
-        } catch (SQLException e) {
-            showCancelableAlert(mRes.getString(R.string.error_updating_database));
-        }
+        String oldCollectionName = mCollectionName;
 
         // Update app state
         SharedPreferences mainPreferences = getSharedPreferences(MainApplication.PREFS, MODE_PRIVATE);
@@ -549,6 +701,7 @@ public class CollectionPage extends BaseActivity {
 
         // Update current view
         mCollectionName = newCollectionName;
+        mWriteQueue.setTableName(newCollectionName);
         mCoinSlotAdapter.setTableName(newCollectionName);
         this.setTitle(newCollectionName);
     }
@@ -591,7 +744,10 @@ public class CollectionPage extends BaseActivity {
     
     private boolean doUnsavedChangesExist(){
 
-        if(mDisplayType == ADVANCED_DISPLAY){
+        if(mCoinList == null){
+            // Still loading the collection
+            return false;
+        } else if(mDisplayType == ADVANCED_DISPLAY){
             // There are probably better ways to do this check, but this one is easy
             TextView unsavedChangesView = this.findViewById(R.id.unsaved_message_textview);
             return (unsavedChangesView.getVisibility() == View.VISIBLE);
@@ -638,8 +794,14 @@ public class CollectionPage extends BaseActivity {
         
         int index;
         int top;
-        
-        if(mDisplayType == ADVANCED_DISPLAY){
+
+        if(mCoinList == null){
+
+            // Still loading the collection, so keep the position we were started with
+            index = mViewIndex;
+            top = mViewPosition;
+
+        } else if(mDisplayType == ADVANCED_DISPLAY){
 
             // Finally, save off the position of the listview
             ListView listview = findViewById(R.id.advanced_collection_page);
@@ -659,13 +821,70 @@ public class CollectionPage extends BaseActivity {
             top = (v == null) ? 0 : v.getTop();
         }
 
-        // Save off these lists that may have unsaved user data
-        outState.putParcelableArrayList(COIN_LIST, mCoinList);
+        // Save off the coins that have unsaved user data.  The rest of the coins are kept in
+        // the coin list cache instead, since the whole list can exceed the bundle size limit.
+        if(mCoinList != null){
+            CoinSlotList changedCoins = new CoinSlotList();
+            ArrayList<Integer> changedPositions = new ArrayList<>();
+            for(int i = 0; i < mCoinList.size(); i++){
+                if(mCoinList.hasIndexChanged(i)){
+                    changedCoins.add(mCoinList.get(i));
+                    changedPositions.add(i);
+                }
+            }
+            int[] changedPositionArray = new int[changedPositions.size()];
+            for(int i = 0; i < changedPositionArray.length; i++){
+                changedPositionArray[i] = changedPositions.get(i);
+            }
+            outState.putParcelable(CHANGED_COINS, changedCoins);
+            outState.putIntArray(CHANGED_COIN_POSITIONS, changedPositionArray);
+            outState.putInt(DISPLAY_TYPE, mDisplayType);
+            outState.putString(NEW_COLLECTION_NAME, mNewCollectionName);
+
+            // Once all taps are written, the coins match the database so they can be cached.
+            // Otherwise (the writes are still pending, or one failed and the coins haven't
+            // been reverted yet) the next load reads them from the database instead, after
+            // waiting for the writes.
+            mWriteQueue.flush();
+            if(changedCoins.isEmpty()){
+                CoinListCache coinListCache = CoinListCache.getInstance();
+                if(mWriteQueue.isWritten()){
+                    coinListCache.put(mCollectionName, mDisplayType == ADVANCED_DISPLAY, mCoinList,
+                            coinListCache.getGeneration());
+                } else {
+                    coinListCache.invalidate(mCollectionName);
+                }
+            }
+        } else if(mRestoredChangedCoins != null && mRestoredChangedPositions != null){
+            // Still loading the collection after the screen rotated, so keep the unsaved
+            // changes from before until they can be applied
+            outState.putParcelable(CHANGED_COINS, mRestoredChangedCoins);
+            outState.putIntArray(CHANGED_COIN_POSITIONS, mRestoredChangedPositions);
+            outState.putInt(DISPLAY_TYPE, mDisplayType);
+        }
         outState.putInt(VIEW_INDEX, index);
         outState.putInt(VIEW_POSITION, top);
         outState.putString(COLLECTION_NAME, mCollectionName);
     }
 
+    @Override
+    public void onPause() {
+        // Start writing any queued changes before going into the background
+        if (mWriteQueue != null) {
+            mWriteQueue.flush();
+        }
+        super.onPause();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mWriteQueue != null) {
+            mWriteQueue.flush();
+            mWriteQueue.setWriteErrorListener(null);
+        }
+        super.onDestroy();
+    }
+
     /**
      * Displays to the user that the collection is locked
      */
@@ -0,0 +1,405 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection;
+
+import android.database.Cursor;
+
+import com.spencerpages.MainApplication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+
+/**
+ * Reads and writes the compact binary backup format.  A backup is laid out as:
+ *
+ *  - The MAGIC bytes, then the format version and database version
+ *  - The number of collections, then each collection's attributes followed by its coins
+ *
+ * The coins in a collection are stored a column at a time: a dictionary of the distinct
+ * identifiers and one of the distinct mint marks, the index of each coin's identifier and mint
+ * mark into those, the in collection flags packed 8 to a byte, the grade and quantity indexes,
+ * and then the notes.  Numbers are written as variable length integers, so most take a single
+ * byte, and strings are prefixed with their length.
+ */
+public class CompactBackup {
+
+    // Bytes at the start of every compact backup, used to tell it apart from JSON
+    static final byte[] MAGIC = new byte[] {'C', 'C', 'B', 'K'};
+
+    // Bump this if the layout changes, and keep reading the older versions
+    static final int FORMAT_VERSION = 1;
+
+    // Strings are prefixed with their length plus one, so that null can be stored as 0
+    private static final int NULL_STRING_LENGTH = 0;
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Checks whether the start of a file matches a compact backup
+     * @param header the first bytes of the file
+     * @param length number of bytes in header that were read
+     * @return true if the file is a compact backup
+     */
+    static boolean isCompactBackup(byte[] header, int length) {
+        return length >= MAGIC.length && Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC);
+    }
+
+    /**
+     * Writes the start of a backup
+     * @param out stream to write to
+     * @param databaseVersion database version the collections are from
+     * @param numCollections number of collections that will follow
+     * @throws IOException if an error occurred
+     */
+    static void writeHeader(DataOutputStream out, int databaseVersion, int numCollections) throws IOException {
+        out.write(MAGIC);
+        writeVarInt(out, FORMAT_VERSION);
+        writeVarInt(out, databaseVersion);
+        writeVarInt(out, numCollections);
+    }
+
+    /**
+     * Reads the start of a backup
+     * @param in stream to read from
+     * @return the database version and the number of collections
+     * @throws IOException if an error occurred or the file isn't a supported backup
+     */
+    static int[] readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a compact backup");
+        }
+        int formatVersion = readVarInt(in);
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported backup version " + formatVersion);
+        }
+        int databaseVersion = readVarInt(in);
+        int numCollections = readCount(in);
+        return new int[] {databaseVersion, numCollections};
+    }
+
+    /**
+     * Writes a collection and its coins
+     * @param out stream to write to
+     * @param collectionListInfo collection attributes
+     * @param cursor cursor over the coins in the collection, including the advanced attributes
+     * @throws IOException if an error occurred
+     */
+    static void writeCollection(DataOutputStream out, CollectionListInfo collectionListInfo,
+                                Cursor cursor) throws IOException {
+
+        writeString(out, collectionListInfo.getName());
+        writeString(out, collectionListInfo.getType());
+        writeSignedVarInt(out, collectionListInfo.getMax());
+        writeSignedVarInt(out, collectionListInfo.getCollected());
+        writeSignedVarInt(out, collectionListInfo.getDisplayType());
+        writeSignedVarInt(out, collectionListInfo.getStartYear());
+        writeSignedVarInt(out, collectionListInfo.getEndYear());
+        writeSignedVarInt(out, collectionListInfo.getMintMarkFlags());
+        writeSignedVarInt(out, collectionListInfo.getCheckboxFlags());
+
+        int numCoins = cursor.getCount();
+        int identifierIndex = cursor.getColumnIndex(COL_COIN_IDENTIFIER);
+        int mintIndex = cursor.getColumnIndex(COL_COIN_MINT);
+        int inCollectionIndex = cursor.getColumnIndex(COL_IN_COLLECTION);
+        int gradeIndex = cursor.getColumnIndex(COL_ADV_GRADE_INDEX);
+        int quantityIndex = cursor.getColumnIndex(COL_ADV_QUANTITY_INDEX);
+        int notesIndex = cursor.getColumnIndex(COL_ADV_NOTES);
+
+        // Build the dictionaries, and the index of each coin into them
+        ArrayList<String> identifiers = new ArrayList<>();
+        ArrayList<String> mints = new ArrayList<>();
+        HashMap<String, Integer> identifierLookup = new HashMap<>();
+        HashMap<String, Integer> mintLookup = new HashMap<>();
+        int[] coinIdentifiers = new int[numCoins];
+        int[] coinMints = new int[numCoins];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            coinIdentifiers[i] = addToDictionary(cursor.getString(identifierIndex), identifiers, identifierLookup);
+            coinMints[i] = addToDictionary(cursor.getString(mintIndex), mints, mintLookup);
+        }
+
+        writeVarInt(out, numCoins);
+        writeVarInt(out, identifiers.size());
+        for (String identifier : identifiers) {
+            writeString(out, identifier);
+        }
+        writeVarInt(out, mints.size());
+        for (String mint : mints) {
+            writeString(out, mint);
+        }
+        for (int i = 0; i < numCoins; i++) {
+            writeVarInt(out, coinIdentifiers[i]);
+        }
+        for (int i = 0; i < numCoins; i++) {
+            writeVarInt(out, coinMints[i]);
+        }
+
+        // The remaining columns are read straight from the cursor
+        int packedFlags = 0;
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            if (cursor.getInt(inCollectionIndex) == 1) {
+                packedFlags |= 1 << (i % 8);
+            }
+            if (i % 8 == 7 || i == numCoins - 1) {
+                out.writeByte(packedFlags);
+                packedFlags = 0;
+            }
+        }
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            writeVarInt(out, cursor.getInt(gradeIndex));
+        }
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            writeVarInt(out, cursor.getInt(quantityIndex));
+        }
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            writeString(out, cursor.getString(notesIndex));
+        }
+    }
+
+    /**
+     * Reads a collection and its coins
+     * @param in stream to read from
+     * @param coinList list to add the coins to
+     * @return collection attributes
+     * @throws IOException if an error occurred or the data isn't valid
+     */
+    static CollectionListInfo readCollection(DataInputStream in, ArrayList<CoinSlot> coinList) throws IOException {
+
+        // Strip out all bad characters.  They shouldn't be there anyway ;)
+        String collectionName = readNonNullString(in).replace('[', ' ').replace(']', ' ');
+
+        // If the coin type isn't recognized, an error occurred so just choose a safe value
+        int collectionTypeIndex = MainApplication.getIndexFromCollectionNameStr(readNonNullString(in));
+        collectionTypeIndex = (collectionTypeIndex != -1) ? collectionTypeIndex : 0;
+
+        int totalCoinsInCollection = readSignedVarInt(in);
+        int totalCoinsCollected = readSignedVarInt(in);
+        int displayType = readSignedVarInt(in);
+        int startYear = readSignedVarInt(in);
+        int endYear = readSignedVarInt(in);
+        int mintMarkFlags = readSignedVarInt(in);
+        int checkboxFlags = readSignedVarInt(in);
+
+        int numCoins = readCount(in);
+        String[] identifiers = new String[readCount(in)];
+        for (int i = 0; i < identifiers.length; i++) {
+            identifiers[i] = readString(in);
+        }
+        String[] mints = new String[readCount(in)];
+        for (int i = 0; i < mints.length; i++) {
+            mints[i] = readString(in);
+        }
+        String[] coinIdentifiers = new String[numCoins];
+        for (int i = 0; i < numCoins; i++) {
+            coinIdentifiers[i] = lookUp(identifiers, readVarInt(in));
+        }
+        String[] coinMints = new String[numCoins];
+        for (int i = 0; i < numCoins; i++) {
+            coinMints[i] = lookUp(mints, readVarInt(in));
+        }
+        boolean[] inCollection = new boolean[numCoins];
+        int packedFlags = 0;
+        for (int i = 0; i < numCoins; i++) {
+            if (i % 8 == 0) {
+                packedFlags = in.readUnsignedByte();
+            }
+            inCollection[i] = (packedFlags & (1 << (i % 8))) != 0;
+        }
+        int[] grades = new int[numCoins];
+        for (int i = 0; i < numCoins; i++) {
+            grades[i] = readVarInt(in);
+        }
+        int[] quantities = new int[numCoins];
+        for (int i = 0; i < numCoins; i++) {
+            quantities[i] = readVarInt(in);
+        }
+        coinList.ensureCapacity(coinList.size() + numCoins);
+        for (int i = 0; i < numCoins; i++) {
+            coinList.add(new CoinSlot(coinIdentifiers[i], coinMints[i], inCollection[i],
+                    grades[i], quantities[i], readString(in)));
+        }
+
+        return new CollectionListInfo(collectionName, totalCoinsInCollection, totalCoinsCollected,
+                collectionTypeIndex, displayType, startYear, endYear, mintMarkFlags, checkboxFlags);
+    }
+
+    /**
+     * Adds a string to a dictionary if it isn't already present
+     * @param value string to add
+     * @param dictionary strings in the order they were added
+     * @param lookup index of each string in the dictionary
+     * @return index of the string in the dictionary
+     */
+    private static int addToDictionary(String value, ArrayList<String> dictionary, HashMap<String, Integer> lookup) {
+        Integer index = lookup.get(value);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.add(value);
+            lookup.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Looks up a string in a dictionary that was read in
+     * @param dictionary dictionary
+     * @param index index read from the file
+     * @return string
+     * @throws IOException if the index is out of range
+     */
+    private static String lookUp(String[] dictionary, int index) throws IOException {
+        if (index < 0 || index >= dictionary.length) {
+            throw new IOException("Invalid dictionary index " + index);
+        }
+        return dictionary[index];
+    }
+
+    /**
+     * Writes a non-negative integer 7 bits at a time, low bits first, with the high bit of each
+     * byte set if more bytes follow
+     * @param out stream to write to
+     * @param value value to write
+     * @throws IOException if an error occurred
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an integer written by writeVarInt
+     * @param in stream to read from
+     * @return value read
+     * @throws IOException if an error occurred or the value is too long
+     */
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable length integer");
+    }
+
+    /**
+     * Reads a count or length written by writeVarInt
+     * @param in stream to read from
+     * @return value read
+     * @throws IOException if an error occurred or the value is negative
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int value = readVarInt(in);
+        if (value < 0) {
+            throw new IOException("Invalid length " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Writes an integer that may be negative, mapping small magnitudes to small values
+     * (0, -1, 1, -2, ... become 0, 1, 2, 3, ...) so they stay short
+     * @param out stream to write to
+     * @param value value to write
+     * @throws IOException if an error occurred
+     */
+    private static void writeSignedVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads an integer written by writeSignedVarInt
+     * @param in stream to read from
+     * @return value read
+     * @throws IOException if an error occurred
+     */
+    private static int readSignedVarInt(DataInputStream in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a string as UTF-8, prefixed with its length
+     * @param out stream to write to
+     * @param value string to write, or null
+     * @throws IOException if an error occurred
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, NULL_STRING_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(CHARSET);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString
+     * @param in stream to read from
+     * @return string read, or null
+     * @throws IOException if an error occurred
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readCount(in);
+        if (length == NULL_STRING_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Reads a string written by writeString that must be present
+     * @param in stream to read from
+     * @return string read
+     * @throws IOException if an error occurred or the string was null
+     */
+    private static String readNonNullString(DataInputStream in) throws IOException {
+        String value = readString(in);
+        if (value == null) {
+            throw new IOException("Missing value");
+        }
+        return value;
+    }
+}
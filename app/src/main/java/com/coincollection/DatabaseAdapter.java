@@ -23,12 +23,15 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
+import android.os.StrictMode;
 
+import com.coincollection.helper.CompiledStatementCache;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
@@ -38,7 +41,9 @@ import static com.coincollection.CoinSlot.COL_ADV_NOTES;
 import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_COLLECTION_ID;
 import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.TBL_COINS;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
@@ -49,6 +54,20 @@ import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS;
 import static com.coincollection.CollectionListInfo.COL_START_YEAR;
 import static com.coincollection.CollectionListInfo.COL_TOTAL;
 import static com.coincollection.CollectionListInfo.TBL_COLLECTION_INFO;
+import static com.coincollection.DatabaseHelper.COLLECTION_WHERE_CLAUSE;
+import static com.coincollection.DatabaseHelper.COL_BASE_BACKUP_ID;
+import static com.coincollection.DatabaseHelper.COL_BASE_BACKUP_NAME;
+import static com.coincollection.DatabaseHelper.COL_BASE_BACKUP_VERSION;
+import static com.coincollection.DatabaseHelper.COL_MOD_COUNTER;
+import static com.coincollection.DatabaseHelper.JOURNAL_MODE_WAL;
+import static com.coincollection.DatabaseHelper.SQL_INSERT_COIN_SLOT;
+import static com.coincollection.DatabaseHelper.STMT_INSERT_COIN_SLOT;
+import static com.coincollection.DatabaseHelper.STMT_IS_IN_COLLECTION;
+import static com.coincollection.DatabaseHelper.STMT_NEXT_DISPLAY_ORDER;
+import static com.coincollection.DatabaseHelper.STMT_TABLE_DISPLAY;
+import static com.coincollection.DatabaseHelper.STMT_TOGGLE_IN_COLLECTION;
+import static com.coincollection.DatabaseHelper.STMT_UPDATE_IN_COLLECTION;
+import static com.coincollection.DatabaseHelper.TBL_BACKUP_STATE;
 import static com.coincollection.DatabaseHelper.simpleQueryForLong;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME;
 
@@ -63,10 +82,18 @@ public class DatabaseAdapter {
     private final DatabaseHelper mDbHelper;
     private SQLiteDatabase mDb = null;
 
+    // Compiled statements for the queries run most often (Ex: on every tap in a collection)
+    private static final int STATEMENT_CACHE_SIZE = 16;
+    private final CompiledStatementCache mStatementCache = new CompiledStatementCache(STATEMENT_CACHE_SIZE);
+
+    // Coin lists loaded for CollectionPage, shared by all adapters.  Lists are invalidated
+    // after each write commits, so a list read in between can't be cached stale.
+    private final CoinListCache mCoinListCache = CoinListCache.getInstance();
+
     /**
-     * Record any internal DB names here!
-     * Because internal tables and user tables aren't differentiated, we must prohibit
-     * users from trying to create database collections that map to internal DB names
+     * Record any reserved names here!
+     * The database helpers use the collection info table name to tell metadata updates apart
+     * from updates to a collection's coins, so users can't create a collection with that name.
      * Must also include the collection export file name, so that import/exports work
      */
     private final List<String> mReservedDbNames = new ArrayList<>(Arrays.asList(
@@ -84,6 +111,17 @@ public class DatabaseAdapter {
         mDbHelper = new DatabaseHelper(context);
     }
 
+    /**
+     * Constructor - takes the context to allow the database to be
+     * opened/created, and the journal mode to open it with
+     *
+     * @param context the Context within which to work
+     * @param journalMode DatabaseHelper.JOURNAL_MODE_ROLLBACK or DatabaseHelper.JOURNAL_MODE_WAL
+     */
+    public DatabaseAdapter(Context context, int journalMode) {
+        mDbHelper = new DatabaseHelper(context, journalMode);
+    }
+
     /**
      * Open the database. If it cannot be opened, try to create a new
      * instance of the database. If it cannot be created, throw an exception to
@@ -92,7 +130,20 @@ public class DatabaseAdapter {
      */
     public void open() throws SQLException {
         if (mDb == null || !mDb.isOpen()) {
+            noteDatabaseCall("open");
             mDb = mDbHelper.getWritableDatabase();
+            // The database may have been replaced or upgraded since the lists were cached
+            mCoinListCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Checkpoint the write-ahead log, if the database is open and using one
+     * @param blocking if true, wait for readers so that the whole log is checkpointed
+     */
+    public void checkpoint(boolean blocking) {
+        if (mDb != null && mDb.isOpen() && mDbHelper.getJournalMode() == JOURNAL_MODE_WAL) {
+            DatabaseHelper.checkpoint(mDb, blocking);
         }
     }
 
@@ -100,6 +151,7 @@ public class DatabaseAdapter {
      * Close the current database connection
      */
     public void close() {
+        mStatementCache.clear();
         if (mDb != null && mDb.isOpen()) {
             mDb.close();
             mDb = null;
@@ -117,14 +169,11 @@ public class DatabaseAdapter {
     // TODO Retrieving the coin information individually (and onScroll) is inefficient... We should
     // instead have one query that returns all of the info.
     public int fetchIsInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
-        String sqlCmd = "SELECT " + COL_IN_COLLECTION + " FROM [" + tableName + "] WHERE " + COIN_SLOT_WHERE_CLAUSE + " LIMIT 1";
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        compiledStatement.bindString(1, coinSlot.getIdentifier());
-        compiledStatement.bindString(2, coinSlot.getMint());
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        noteDatabaseCall("fetchIsInCollection");
+        String sqlCmd = "SELECT " + COL_IN_COLLECTION + " FROM " + TBL_COINS + " WHERE "
+                + COLLECTION_WHERE_CLAUSE + " AND " + COIN_SLOT_WHERE_CLAUSE + " LIMIT 1";
+        return simpleQueryForLong(mDb, mStatementCache, TBL_COINS, STMT_IS_IN_COLLECTION, sqlCmd,
+                new String[] {tableName, coinSlot.getIdentifier(), coinSlot.getMint()});
     }
 
     /**
@@ -132,15 +181,93 @@ public class DatabaseAdapter {
      *
      * @param tableName The name of the collection of interest
      * @param coinSlot The coin we want to retrieve data for
+     * @return the new value (1 if the coin is now in the collection, 0 otherwise)
      * @throws SQLException if the database update was not successful
      */
-    public void toggleInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
-        int result = fetchIsInCollection(tableName, coinSlot);
-        int newValue = (result + 1) % 2;
-        ContentValues args = new ContentValues();
-        args.put(COL_IN_COLLECTION, newValue);
-        String[] whereValues = new String[] {coinSlot.getIdentifier(), coinSlot.getMint()};
-        runSqlUpdateAndCheck(tableName, args, COIN_SLOT_WHERE_CLAUSE, whereValues);
+    public int toggleInCollection(String tableName, CoinSlot coinSlot) throws SQLException {
+        return toggleInCollection(tableName, Collections.singletonList(coinSlot))[0];
+    }
+
+    /**
+     * Updates the presence of several coins in the database in a single transaction
+     * (Ex: for a multi-select.)
+     *
+     * @param tableName The name of the collection of interest
+     * @param coinSlots The coins to toggle
+     * @return the new values, in the same order as coinSlots (1 if the coin is now in the
+     *         collection, 0 otherwise)
+     * @throws SQLException if the database update was not successful
+     */
+    public int[] toggleInCollection(String tableName, List<CoinSlot> coinSlots) throws SQLException {
+        noteDatabaseCall("toggleInCollection");
+        // The flip is done by the database in a single statement, so the value can't change
+        // between reading and writing it.  RETURNING isn't available in the SQLite versions
+        // we support, so the new value is read back within the same transaction.
+        String toggleSqlCmd = "UPDATE " + TBL_COINS + " SET " + COL_IN_COLLECTION + "=1-IFNULL("
+                + COL_IN_COLLECTION + ", 0) WHERE " + COLLECTION_WHERE_CLAUSE + " AND " + COIN_SLOT_WHERE_CLAUSE;
+        int[] newValues = new int[coinSlots.size()];
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < coinSlots.size(); i++) {
+                CoinSlot coinSlot = coinSlots.get(i);
+                String[] whereValues = new String[] {tableName, coinSlot.getIdentifier(), coinSlot.getMint()};
+                synchronized (mStatementCache) {
+                    SQLiteStatement compiledStatement = mStatementCache.get(mDb, TBL_COINS,
+                            STMT_TOGGLE_IN_COLLECTION, toggleSqlCmd);
+                    try {
+                        compiledStatement.bindAllArgsAsStrings(whereValues);
+                        if (compiledStatement.executeUpdateDelete() <= 0) {
+                            throw new SQLException();
+                        }
+                    } finally {
+                        compiledStatement.clearBindings();
+                    }
+                }
+                newValues[i] = fetchIsInCollection(tableName, coinSlot);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            mCoinListCache.invalidate(tableName);
+        }
+        return newValues;
+    }
+
+    /**
+     * Sets whether each of several coins is in the collection, in a single transaction
+     * (Ex: to write the changes queued by a CoinSlotWriteQueue.)
+     *
+     * @param tableName The name of the collection of interest
+     * @param coinSlots The coins to update, which hold the values to store
+     * @throws SQLException if the database update was not successful
+     */
+    public void updateInCollection(String tableName, List<CoinSlot> coinSlots) throws SQLException {
+        noteDatabaseCall("updateInCollection");
+        String updateSqlCmd = "UPDATE " + TBL_COINS + " SET " + COL_IN_COLLECTION + "=? WHERE "
+                + COLLECTION_WHERE_CLAUSE + " AND " + COIN_SLOT_WHERE_CLAUSE;
+        mDb.beginTransaction();
+        try {
+            for (CoinSlot coinSlot : coinSlots) {
+                String[] args = new String[] {String.valueOf(coinSlot.isInCollectionInt()), tableName,
+                        coinSlot.getIdentifier(), coinSlot.getMint()};
+                synchronized (mStatementCache) {
+                    SQLiteStatement compiledStatement = mStatementCache.get(mDb, TBL_COINS,
+                            STMT_UPDATE_IN_COLLECTION, updateSqlCmd);
+                    try {
+                        compiledStatement.bindAllArgsAsStrings(args);
+                        if (compiledStatement.executeUpdateDelete() <= 0) {
+                            throw new SQLException();
+                        }
+                    } finally {
+                        compiledStatement.clearBindings();
+                    }
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            mCoinListCache.invalidate(tableName);
+        }
     }
 
     /**
@@ -151,14 +278,11 @@ public class DatabaseAdapter {
      * @throws SQLException if an SQL-related error occurs
      */
     public int fetchTableDisplay(String tableName) throws SQLException {
+        noteDatabaseCall("fetchTableDisplay");
         // The database will only be set up this way in this case
         String sqlCmd = "SELECT " + COL_DISPLAY + " FROM " + TBL_COLLECTION_INFO + " WHERE name=? LIMIT 1";
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        compiledStatement.bindString(1, tableName);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        return simpleQueryForLong(mDb, mStatementCache, TBL_COLLECTION_INFO, STMT_TABLE_DISPLAY, sqlCmd,
+                new String[] {tableName});
     }
 
     /**
@@ -169,6 +293,7 @@ public class DatabaseAdapter {
      * @throws SQLException if the database update was not successful
      */
     public void updateTableDisplay(String tableName, int displayType) throws SQLException {
+        noteDatabaseCall("updateTableDisplay");
         ContentValues args = new ContentValues();
         args.put(COL_DISPLAY, displayType);
         runSqlUpdateAndCheck(TBL_COLLECTION_INFO, args, COL_NAME + "=?", new String[] { tableName });
@@ -196,32 +321,18 @@ public class DatabaseAdapter {
      * @throws SQLException if the database update was not successful
      */
     void updateAdvInfo(String tableName, CoinSlot coinSlot) throws SQLException {
+        noteDatabaseCall("updateAdvInfo");
         ContentValues args = new ContentValues();
         args.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
         args.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
         args.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
         args.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
         String[] whereValues = new String[] {coinSlot.getIdentifier(), coinSlot.getMint()};
-        runSqlUpdateAndCheck(tableName, args, COIN_SLOT_WHERE_CLAUSE, whereValues);
-    }
-
-    /**
-     * Helper function to issue the SQL needed when creating a new database table for a collection
-     * @param tableName The collection name
-     * @throws SQLException if the database error occurs
-     */
-    private void createCollectionTable(String tableName) throws SQLException {
-        // v2.2.1 - Until this point all fields had '_id' created with 'autoincrement'
-        // which is unnecessary for our purposes.  Removing to improve performance.
-        String sqlCmd = "CREATE TABLE [" + tableName
-        + "] (_id integer primary key,"
-        + " " + COL_COIN_IDENTIFIER + " text not null,"
-        + " " + COL_COIN_MINT + " text,"
-        + " " + COL_IN_COLLECTION + " integer,"
-        + " " + COL_ADV_GRADE_INDEX + " integer default 0,"
-        + " " + COL_ADV_QUANTITY_INDEX + " integer default 0,"
-        + " " + COL_ADV_NOTES + " text default \"\");";
-        mDb.execSQL(sqlCmd);
+        try {
+            runSqlUpdateAndCheck(tableName, args, COIN_SLOT_WHERE_CLAUSE, whereValues);
+        } finally {
+            mCoinListCache.invalidate(tableName);
+        }
     }
 
     /**
@@ -233,25 +344,66 @@ public class DatabaseAdapter {
      */
     public void createAndPopulateNewTable(CollectionListInfo collectionListInfo, int displayOrder, ArrayList<CoinSlot> coinData) throws SQLException {
 
-        // Actually make the table
-        String tableName = collectionListInfo.getName();
-        createCollectionTable(tableName);
-
-        // We have the list of identifiers, now set them correctly
-        if (coinData != null) {
-            for (CoinSlot coinSlot : coinData) {
-                ContentValues values = new ContentValues();
-                values.put(COL_COIN_IDENTIFIER, coinSlot.getIdentifier());
-                values.put(COL_COIN_MINT, coinSlot.getMint());
-                values.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
-                values.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
-                values.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
-                values.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
-                runSqlInsert(tableName, values);
+        // Perform all of the steps in a single transaction, so that the coins aren't each
+        // committed separately and a failure part way through doesn't leave a partial collection
+        mDb.beginTransaction();
+        try {
+            // Add the collection to the list of collections.  This is done before adding the
+            // coins, since the coins reference the collection and the triggers update its
+            // collected count as they're inserted.
+            String tableName = collectionListInfo.getName();
+            ContentValues values = new ContentValues();
+            values.put(COL_NAME, collectionListInfo.getName());
+            values.put(COL_COIN_TYPE, collectionListInfo.getType());
+            values.put(COL_TOTAL, collectionListInfo.getMax());
+            values.put(COL_DISPLAY_ORDER, displayOrder);
+            values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
+            values.put(COL_START_YEAR, collectionListInfo.getStartYear());
+            values.put(COL_END_YEAR, collectionListInfo.getEndYear());
+            values.put(COL_SHOW_MINT_MARKS, collectionListInfo.getMintMarkFlags());
+            values.put(COL_SHOW_CHECKBOXES, collectionListInfo.getCheckboxFlags());
+            runSqlInsert(TBL_COLLECTION_INFO, values);
+
+            // We have the list of identifiers, now set them correctly
+            if (coinData != null) {
+                DatabaseHelper.insertCoinSlots(mDb, tableName, coinData);
             }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            mCoinListCache.invalidate(collectionListInfo.getName());
+        }
+    }
+
+    /**
+     * Adds a collection to the list of collections before its attributes are known, so that
+     * coins can be added to it as they are read in (Ex: when importing.)  The collection's
+     * attributes must be filled in with updateCollectionInfo before the transaction ends.
+     * @param displayOrder position of the collection in the list of collections
+     * @return the ID of the new collection
+     * @throws SQLException if the database update was not successful
+     */
+    long createPlaceholderCollection(int displayOrder) throws SQLException {
+        ContentValues values = new ContentValues();
+        // Collection names can't contain brackets, so this can't clash with another collection
+        values.put(COL_NAME, "[" + displayOrder + "]");
+        values.put(COL_COIN_TYPE, "");
+        values.put(COL_DISPLAY_ORDER, displayOrder);
+        long collectionId = mDb.insert(TBL_COLLECTION_INFO, null, values);
+        if (collectionId == -1) {
+            throw new SQLException();
         }
+        return collectionId;
+    }
 
-        // We also need to add the table to the list of tables
+    /**
+     * Sets the attributes of a collection (Ex: one created by createPlaceholderCollection)
+     * @param collectionId ID of the collection
+     * @param collectionListInfo collection attributes
+     * @param displayOrder position of the collection in the list of collections
+     * @throws SQLException if the database update was not successful
+     */
+    void updateCollectionInfo(long collectionId, CollectionListInfo collectionListInfo, int displayOrder) throws SQLException {
         ContentValues values = new ContentValues();
         values.put(COL_NAME, collectionListInfo.getName());
         values.put(COL_COIN_TYPE, collectionListInfo.getType());
@@ -262,7 +414,61 @@ public class DatabaseAdapter {
         values.put(COL_END_YEAR, collectionListInfo.getEndYear());
         values.put(COL_SHOW_MINT_MARKS, collectionListInfo.getMintMarkFlags());
         values.put(COL_SHOW_CHECKBOXES, collectionListInfo.getCheckboxFlags());
-        runSqlInsert(TBL_COLLECTION_INFO, values);
+        runSqlUpdateAndCheck(TBL_COLLECTION_INFO, values, "_id=?", new String[] {String.valueOf(collectionId)});
+    }
+
+    /**
+     * Inserts a single coin into a collection, reusing a compiled statement.  This should be
+     * called from within a transaction so that each insert isn't committed separately.
+     * @param collectionId ID of the collection
+     * @param coinSlot coin to insert
+     * @throws SQLException if the insert failed
+     */
+    void insertCoinSlot(long collectionId, CoinSlot coinSlot) throws SQLException {
+        synchronized (mStatementCache) {
+            SQLiteStatement compiledStatement = mStatementCache.get(mDb, TBL_COINS,
+                    STMT_INSERT_COIN_SLOT, SQL_INSERT_COIN_SLOT);
+            try {
+                DatabaseHelper.bindCoinSlotInsert(compiledStatement, collectionId, coinSlot);
+                if (compiledStatement.executeInsert() == -1) {
+                    throw new SQLException();
+                }
+            } finally {
+                compiledStatement.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Begins a transaction, so that a set of changes (Ex: an import) is applied all at once
+     * or not at all.  Transactions may be nested.
+     */
+    void beginTransaction() {
+        mDb.beginTransaction();
+    }
+
+    /**
+     * Marks the current transaction as successful, so that it is committed when it ends
+     */
+    void setTransactionSuccessful() {
+        mDb.setTransactionSuccessful();
+    }
+
+    /**
+     * Ends the current transaction, rolling it back if it wasn't marked successful
+     */
+    void endTransaction() {
+        mDb.endTransaction();
+        // The coins changed in the transaction aren't tracked by collection name
+        mCoinListCache.invalidateAll();
+    }
+
+    /**
+     * Closes all of the cached compiled statements (Ex: after the tables they refer to have
+     * been dropped and recreated)
+     */
+    void clearStatementCache() {
+        mStatementCache.clear();
     }
 
     /**
@@ -271,9 +477,16 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     public void dropCollectionTable(String tableName) throws SQLException {
-        String dropTableCmd = "DROP TABLE [" + tableName + "];";
-        mDb.execSQL(dropTableCmd);
-        runSqlDeleteAndCheck(TBL_COLLECTION_INFO, COL_NAME + "=?", new String[] { tableName });
+        mDb.beginTransaction();
+        try {
+            long collectionId = DatabaseHelper.getCollectionId(mDb, tableName);
+            runSqlDeleteAndCheck(TBL_COLLECTION_INFO, COL_NAME + "=?", new String[] { tableName });
+            mDb.delete(TBL_COINS, COL_COLLECTION_ID + "=?", new String[] { String.valueOf(collectionId) });
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            mCoinListCache.invalidate(tableName);
+        }
     }
 
     /**
@@ -281,8 +494,9 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     void dropCollectionInfoTable() throws SQLException {
-        String dropTableCmd = "DROP TABLE [" + TBL_COLLECTION_INFO + "];";
-        mDb.execSQL(dropTableCmd);
+        mStatementCache.invalidate(TBL_COLLECTION_INFO);
+        DatabaseHelper.dropCollectionInfoTable(mDb);
+        mCoinListCache.invalidateAll();
     }
 
     /**
@@ -302,9 +516,9 @@ public class DatabaseAdapter {
     public ArrayList<CoinSlot> getAllIdentifiers(String tableName) {
 
         ArrayList<CoinSlot> coinList = new ArrayList<>();
-        Cursor cursor = mDb.query("[" + tableName + "]",
+        Cursor cursor = mDb.query(TBL_COINS,
                 new String[] {COL_COIN_IDENTIFIER, COL_COIN_MINT},
-                null, null, null, null, "_id");
+                COLLECTION_WHERE_CLAUSE, new String[] {tableName}, null, null, "_id");
         if (cursor.moveToFirst()){
             do {
                 coinList.add(new CoinSlot(
@@ -325,6 +539,7 @@ public class DatabaseAdapter {
      */
     void upgradeCollections(int oldVersion, boolean fromImport) {
         DatabaseHelper.upgradeDb(mDb, oldVersion, MainApplication.DATABASE_VERSION, fromImport);
+        mCoinListCache.invalidateAll();
     }
 
     /**
@@ -333,6 +548,7 @@ public class DatabaseAdapter {
      * @return -1 if successful otherwise a resource id corresponding to an error message
      */
     public int checkCollectionName(String tableName) {
+        noteDatabaseCall("checkCollectionName");
 
         // Make sure the name isn't in the reserved list
         if (mReservedDbNames.contains(tableName)) {
@@ -362,10 +578,7 @@ public class DatabaseAdapter {
      */
     public int getNextDisplayOrder() throws SQLException {
         String sqlCmd = "SELECT MAX(" + COL_DISPLAY_ORDER + ") FROM " + TBL_COLLECTION_INFO;
-        SQLiteStatement compiledStatement = mDb.compileStatement(sqlCmd);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
+        int result = simpleQueryForLong(mDb, mStatementCache, TBL_COLLECTION_INFO, STMT_NEXT_DISPLAY_ORDER, sqlCmd, null);
         return result + 1;
     }
 
@@ -385,8 +598,13 @@ public class DatabaseAdapter {
 
         // Populate the contents use SQL commands
         String sourceTableName = sourceCollectionListInfo.getName();
-        String populateDbCmd = "INSERT INTO [" + newTableName + "] SELECT * FROM [" + sourceTableName + "];";
-        mDb.execSQL(populateDbCmd);
+        String coinColumns = COL_COIN_IDENTIFIER + ", " + COL_COIN_MINT + ", " + COL_IN_COLLECTION + ", "
+                + COL_ADV_GRADE_INDEX + ", " + COL_ADV_QUANTITY_INDEX + ", " + COL_ADV_NOTES;
+        String populateDbCmd = "INSERT INTO " + TBL_COINS + " (" + COL_COLLECTION_ID + ", " + coinColumns + ")"
+                + " SELECT (SELECT _id FROM " + TBL_COLLECTION_INFO + " WHERE " + COL_NAME + "=?), " + coinColumns
+                + " FROM " + TBL_COINS + " WHERE " + COLLECTION_WHERE_CLAUSE + " ORDER BY _id;";
+        mDb.execSQL(populateDbCmd, new Object[] {newTableName, sourceTableName});
+        mCoinListCache.invalidate(newTableName);
 
         // Return the newly created object
         return newCollectionListInfo;
@@ -399,7 +617,13 @@ public class DatabaseAdapter {
      * @throws SQLException if the database update was not successful
      */
     public void updateCollectionName(String oldName, String newName) throws SQLException {
-        DatabaseHelper.updateCollectionName(mDb, oldName, newName);
+        noteDatabaseCall("updateCollectionName");
+        try {
+            DatabaseHelper.updateCollectionName(mDb, oldName, newName);
+        } finally {
+            mCoinListCache.invalidate(oldName);
+            mCoinListCache.invalidate(newName);
+        }
     }
 
     /**
@@ -410,7 +634,13 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     public void updateExistingCollection(String oldTableName, CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinData) throws SQLException {
-        DatabaseHelper.updateExistingCollection(mDb, oldTableName, collectionListInfo, coinData);
+        // This may rename the collection
+        try {
+            DatabaseHelper.updateExistingCollection(mDb, oldTableName, collectionListInfo, coinData);
+        } finally {
+            mCoinListCache.invalidate(oldTableName);
+            mCoinListCache.invalidate(collectionListInfo.getName());
+        }
     }
 
 
@@ -427,7 +657,124 @@ public class DatabaseAdapter {
      * @throws SQLException if a database error occurs
      */
     public void getAllTables(ArrayList<CollectionListInfo> collectionListEntries) throws SQLException {
-        DatabaseHelper.getAllTables(mDb, collectionListEntries);
+        DatabaseHelper.getAllTables(mDb, collectionListEntries, mStatementCache);
+    }
+
+    /**
+     * Returns a list of all collections in the database, using the stored number of
+     * coins collected in each collection instead of counting them
+     * @param collectionListEntries List of CollectionListInfo to populate
+     * @throws SQLException if a database error occurs
+     */
+    public void getAllTableSummaries(ArrayList<CollectionListInfo> collectionListEntries) throws SQLException {
+        DatabaseHelper.getAllTableSummaries(mDb, collectionListEntries);
+    }
+
+    /**
+     * Returns a list of the collections that changed since the last full backup was taken
+     * (see setBaseBackupToCurrent), using the stored number of coins collected in each collection
+     * @param collectionListEntries List of CollectionListInfo to populate
+     * @throws SQLException if a database error occurs
+     */
+    void getChangedTableSummaries(ArrayList<CollectionListInfo> collectionListEntries) throws SQLException {
+        DatabaseHelper.getChangedTableSummaries(mDb, collectionListEntries, fetchBaseBackupVersion());
+    }
+
+    /**
+     * Records the full backup that changed collections are exported relative to
+     * @param backupId unique ID of the backup
+     * @param backupName file name of the backup, to show the user
+     * @param modVersion modification counter value covered by the backup
+     * @throws SQLException if the database update was not successful
+     */
+    void setBaseBackup(String backupId, String backupName, int modVersion) throws SQLException {
+        ContentValues values = new ContentValues();
+        values.put(COL_BASE_BACKUP_ID, backupId);
+        values.put(COL_BASE_BACKUP_NAME, backupName);
+        values.put(COL_BASE_BACKUP_VERSION, modVersion);
+        if (mDb.update(TBL_BACKUP_STATE, values, null, null) <= 0) {
+            throw new SQLException();
+        }
+    }
+
+    /**
+     * Marks the collections as they are now as matching a full backup (Ex: after it's been
+     * imported or exported), so that any changes made from now on are reported as changed
+     * relative to it
+     * @param backupId unique ID of the backup
+     * @param backupName file name of the backup, to show the user
+     * @throws SQLException if the database update was not successful
+     */
+    void setBaseBackupToCurrent(String backupId, String backupName) throws SQLException {
+        mDb.beginTransaction();
+        try {
+            int modVersion = simpleQueryForLong(mDb, null, TBL_BACKUP_STATE, null,
+                    "SELECT " + COL_MOD_COUNTER + " FROM " + TBL_BACKUP_STATE, null);
+            mDb.execSQL("UPDATE " + TBL_BACKUP_STATE + " SET " + COL_MOD_COUNTER + "=" + COL_MOD_COUNTER + "+1");
+            setBaseBackup(backupId, backupName, modVersion);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * @return the unique ID of the last full backup, or null if there isn't one
+     * @throws SQLException if a database error occurs
+     */
+    public String fetchBaseBackupId() throws SQLException {
+        return fetchBackupStateString(COL_BASE_BACKUP_ID);
+    }
+
+    /**
+     * @return the file name of the last full backup, or null if there isn't one
+     * @throws SQLException if a database error occurs
+     */
+    public String fetchBaseBackupName() throws SQLException {
+        return fetchBackupStateString(COL_BASE_BACKUP_NAME);
+    }
+
+    /**
+     * @return the modification counter value covered by the last full backup
+     * @throws SQLException if a database error occurs
+     */
+    private int fetchBaseBackupVersion() throws SQLException {
+        return simpleQueryForLong(mDb, null, TBL_BACKUP_STATE, null,
+                "SELECT " + COL_BASE_BACKUP_VERSION + " FROM " + TBL_BACKUP_STATE, null);
+    }
+
+    /**
+     * Reads a text column from the backup state table
+     * @param column column name
+     * @return value, or null if not set
+     * @throws SQLException if a database error occurs
+     */
+    private String fetchBackupStateString(String column) throws SQLException {
+        Cursor cursor = mDb.query(TBL_BACKUP_STATE, new String[] {column}, null, null, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new SQLException();
+            }
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the number of times a compiled statement was reused from the statement cache
+     * @return cache hit count
+     */
+    public int getStatementCacheHitCount() {
+        return mStatementCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of times a statement had to be compiled because it wasn't cached
+     * @return cache miss count
+     */
+    public int getStatementCacheMissCount() {
+        return mStatementCache.getMissCount();
     }
 
     /**
@@ -438,9 +785,61 @@ public class DatabaseAdapter {
      * @return CoinSlot list
      */
     public ArrayList<CoinSlot> getCoinList(String tableName, boolean populateAdvInfo) {
+        noteDatabaseCall("getCoinList");
         return DatabaseHelper.getCoinList(mDb, tableName, populateAdvInfo);
     }
 
+    /**
+     * Get the basic coin information into a compact CoinSlotList
+     *
+     * @param tableName The name of the collection
+     * @param populateAdvInfo If true, includes advanced attributes
+     * @return CoinSlot list
+     */
+    public CoinSlotList getCoinSlotList(String tableName, boolean populateAdvInfo) {
+        noteDatabaseCall("getCoinSlotList");
+        return DatabaseHelper.getCoinSlotList(mDb, tableName, populateAdvInfo);
+    }
+
+    /**
+     * Get the basic coin information, from the coin list cache if it's there.  Lists read from
+     * the database are added to the cache.
+     *
+     * @param tableName The name of the collection
+     * @param populateAdvInfo If true, includes advanced attributes
+     * @return CoinSlot list, which the caller may modify
+     */
+    public CoinSlotList getCachedCoinList(String tableName, boolean populateAdvInfo) {
+        CoinSlotList coinList = mCoinListCache.get(tableName, populateAdvInfo);
+        if (coinList == null) {
+            long generation = mCoinListCache.getGeneration();
+            coinList = getCoinSlotList(tableName, populateAdvInfo);
+            mCoinListCache.put(tableName, populateAdvInfo, coinList, generation);
+        }
+        return coinList;
+    }
+
+    /**
+     * Get a cursor over the coins in a collection (including the advanced attributes), so
+     * that large collections can be processed without loading them all into memory
+     *
+     * @param tableName The name of the collection
+     * @return cursor, which the caller must close
+     */
+    public Cursor getCoinCursor(String tableName) {
+        noteDatabaseCall("getCoinCursor");
+        return DatabaseHelper.getCoinCursor(mDb, tableName, true);
+    }
+
+    /**
+     * Flags a database call to StrictMode as a slow call, so that calls made on the UI thread
+     * are reported (or fail, if the thread policy has penaltyDeath) in debug builds
+     * @param name the name of the call
+     */
+    private static void noteDatabaseCall(String name) {
+        StrictMode.noteSlowCall("DatabaseAdapter." + name);
+    }
+
     /**
      * Executes the SQL insert command and returns false if an error occurs
      * @param tableName The table to insert into
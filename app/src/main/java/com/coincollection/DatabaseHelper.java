@@ -8,8 +8,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
+import com.coincollection.helper.CompiledStatementCache;
 import com.spencerpages.BuildConfig;
 import com.spencerpages.MainApplication;
 
@@ -21,11 +23,15 @@ import static com.coincollection.CoinSlot.COL_ADV_NOTES;
 import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_COLLECTION_ID;
 import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.TBL_COINS;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
 import static com.coincollection.CollectionListInfo.COL_END_YEAR;
+import static com.coincollection.CollectionListInfo.COL_MOD_VERSION;
 import static com.coincollection.CollectionListInfo.COL_NAME;
 import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES;
 import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS;
@@ -34,13 +40,123 @@ import static com.coincollection.CollectionListInfo.COL_TOTAL;
 import static com.coincollection.CollectionListInfo.TBL_COLLECTION_INFO;
 import static com.coincollection.CollectionPage.SIMPLE_DISPLAY;
 import static com.spencerpages.MainApplication.APP_NAME;
+import static com.spencerpages.MainApplication.DATABASE_JOURNAL_MODE;
 import static com.spencerpages.MainApplication.DATABASE_NAME;
 import static com.spencerpages.MainApplication.DATABASE_VERSION;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
+    // The coins from every collection are stored in a single table, where each coin references
+    // the _id of its collection's row in the collection info table.  This where clause selects
+    // the coins in a collection, given the collection name as the first argument.
+    public static final String COLLECTION_WHERE_CLAUSE = COL_COLLECTION_ID + "=(SELECT _id FROM "
+            + TBL_COLLECTION_INFO + " WHERE " + COL_NAME + "=?)";
+
+    // Index used to look up coins in a collection by identifier and mint mark
+    public static final String IDX_COIN_SLOT = TBL_COINS + "_coin_slot_idx";
+
+    // Kinds of statements held in the compiled statement cache
+    static final String STMT_IS_IN_COLLECTION = "isInCollection";
+    static final String STMT_TOGGLE_IN_COLLECTION = "toggleInCollection";
+    static final String STMT_UPDATE_IN_COLLECTION = "updateInCollection";
+    static final String STMT_TABLE_DISPLAY = "tableDisplay";
+    static final String STMT_NEXT_DISPLAY_ORDER = "nextDisplayOrder";
+    static final String STMT_TOTAL_COLLECTED = "totalCollected";
+    static final String STMT_INSERT_COIN_SLOT = "insertCoinSlot";
+
+    // Inserts a coin, with the collection ID and coin values bound by bindCoinSlotInsert
+    static final String SQL_INSERT_COIN_SLOT = "INSERT INTO " + TBL_COINS + " (" + COL_COLLECTION_ID + ", "
+            + COL_COIN_IDENTIFIER + ", " + COL_COIN_MINT + ", " + COL_IN_COLLECTION + ", "
+            + COL_ADV_GRADE_INDEX + ", " + COL_ADV_QUANTITY_INDEX + ", " + COL_ADV_NOTES
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // Single row table holding the modification counter (see createModVersionTriggers) and the
+    // last full backup that changed collections can be exported relative to
+    public static final String TBL_BACKUP_STATE = "backup_state";
+    public static final String COL_MOD_COUNTER = "modCounter";
+    public static final String COL_BASE_BACKUP_ID = "baseBackupId";
+    public static final String COL_BASE_BACKUP_NAME = "baseBackupName";
+    public static final String COL_BASE_BACKUP_VERSION = "baseBackupVersion";
+
+    // Journal modes that the database can be opened with (see onConfigure)
+    public static final int JOURNAL_MODE_ROLLBACK = 0;
+    public static final int JOURNAL_MODE_WAL = 1;
+
+    // Page cache size used with the WAL journal mode (negative values are in KiB)
+    private static final int WAL_CACHE_SIZE_KIB = 4096;
+
+    private final int mJournalMode;
+
     public DatabaseHelper(Context context) {
+        this(context, DATABASE_JOURNAL_MODE);
+    }
+
+    /**
+     * Constructor
+     * @param context context
+     * @param journalMode JOURNAL_MODE_ROLLBACK or JOURNAL_MODE_WAL
+     */
+    public DatabaseHelper(Context context, int journalMode) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mJournalMode = journalMode;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configureJournalMode(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // onConfigure was added in Jelly Bean, so on earlier versions configure the connection here
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configureJournalMode(db);
+        }
+    }
+
+    /**
+     * Sets up the connection for the journal mode
+     * @param db database
+     */
+    private void configureJournalMode(SQLiteDatabase db) {
+        if (mJournalMode == JOURNAL_MODE_WAL) {
+            // With WAL, writes only need to append to the log instead of syncing a rollback
+            // journal and the database file.  With synchronous=NORMAL the log is only synced
+            // at checkpoints, so a power loss can lose the most recent commits but can't
+            // corrupt the database.
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA synchronous=NORMAL");
+            db.execSQL("PRAGMA cache_size=-" + WAL_CACHE_SIZE_KIB);
+        } else {
+            db.disableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * @return the journal mode the database is opened with
+     */
+    public int getJournalMode() {
+        return mJournalMode;
+    }
+
+    /**
+     * Copies the contents of the write-ahead log into the database. SQLite does this
+     * automatically once the log grows large enough, but doing it when the app moves to the
+     * background keeps the log small and moves the work out of the way of user actions.
+     * @param db database
+     * @param blocking if true, wait for readers to finish so that the whole log is copied.
+     *                 Otherwise, only copy what can be copied without waiting.
+     */
+    public static void checkpoint(SQLiteDatabase db, boolean blocking) {
+        // The pragma returns a row, so it has to be run as a query
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(" + (blocking ? "FULL" : "PASSIVE") + ")", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -67,10 +183,114 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 + " " + COL_START_YEAR + " integer default 0,"
                 + " " + COL_END_YEAR + " integer default 0,"
                 + " " + COL_SHOW_MINT_MARKS + " integer default 0,"
-                + " " + COL_SHOW_CHECKBOXES + " integer default 0"
+                + " " + COL_SHOW_CHECKBOXES + " integer default 0,"
+                + " " + COL_COLLECTED + " integer default 0,"
+                + " " + COL_MOD_VERSION + " integer default 0"
                 + ");";
 
         db.execSQL(makeCollectionInfoTable);
+
+        // The coins table references the collection info table, so create it here too
+        createCoinsTable(db);
+        createCollectedTriggers(db);
+        createBackupStateTable(db);
+        createModVersionTriggers(db);
+    }
+
+    /**
+     * Creates the backup state table, if it doesn't already exist.  This table is kept when
+     * the collection info table is dropped (Ex: on import) so that the modification counter
+     * never goes backwards.
+     * @param db database to add to
+     * @throws SQLException if an error occurs
+     */
+    static void createBackupStateTable(SQLiteDatabase db) throws SQLException {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TBL_BACKUP_STATE + " ("
+                + " " + COL_MOD_COUNTER + " integer not null,"
+                + " " + COL_BASE_BACKUP_ID + " text,"
+                + " " + COL_BASE_BACKUP_NAME + " text,"
+                + " " + COL_BASE_BACKUP_VERSION + " integer default 0);");
+        // Start the counter above the default modVersion, so that changes to collections that
+        // existed before the counter are recorded
+        db.execSQL("INSERT INTO " + TBL_BACKUP_STATE + " (" + COL_MOD_COUNTER + ") SELECT 1"
+                + " WHERE NOT EXISTS (SELECT 1 FROM " + TBL_BACKUP_STATE + ");");
+    }
+
+    /**
+     * Creates the triggers that record which collections have changed.  Whenever a collection
+     * or its coins change, the collection's modVersion is set to the next value of the
+     * modification counter.  A collection that already has the current counter value is left
+     * alone, so a burst of changes (Ex: populating a new collection) only bumps it once, and
+     * nothing is done for coins whose collection has already been deleted.
+     * Taking a backup increments the counter, so the next change after the backup is recorded.
+     * @param db database
+     * @throws SQLException if an error occurs
+     */
+    static void createModVersionTriggers(SQLiteDatabase db) throws SQLException {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COINS + "_mod_insert"
+                + " AFTER INSERT ON " + TBL_COINS
+                + getModVersionTriggerBody("NEW." + COL_COLLECTION_ID));
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COINS + "_mod_update"
+                + " AFTER UPDATE ON " + TBL_COINS
+                + getModVersionTriggerBody("NEW." + COL_COLLECTION_ID));
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COINS + "_mod_delete"
+                + " AFTER DELETE ON " + TBL_COINS
+                + getModVersionTriggerBody("OLD." + COL_COLLECTION_ID));
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COLLECTION_INFO + "_mod_insert"
+                + " AFTER INSERT ON " + TBL_COLLECTION_INFO
+                + getModVersionTriggerBody("NEW._id"));
+        // The display order and collected count aren't included, since the display order is
+        // exported for every collection and the collected count follows the coins
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COLLECTION_INFO + "_mod_update"
+                + " AFTER UPDATE OF " + COL_NAME + ", " + COL_COIN_TYPE + ", " + COL_TOTAL + ", "
+                + COL_DISPLAY + ", " + COL_START_YEAR + ", " + COL_END_YEAR + ", "
+                + COL_SHOW_MINT_MARKS + ", " + COL_SHOW_CHECKBOXES + " ON " + TBL_COLLECTION_INFO
+                + getModVersionTriggerBody("NEW._id"));
+    }
+
+    /**
+     * Builds the condition and statements run by the modification version triggers
+     * @param collectionId expression for the _id of the collection that changed
+     * @return SQL for the trigger, following the trigger event
+     */
+    private static String getModVersionTriggerBody(String collectionId) {
+        String modCounter = "(SELECT " + COL_MOD_COUNTER + " FROM " + TBL_BACKUP_STATE + ")";
+        return " WHEN (SELECT " + COL_MOD_VERSION + " FROM " + TBL_COLLECTION_INFO + " WHERE _id=" + collectionId
+                + ") < " + modCounter
+                + " BEGIN UPDATE " + TBL_BACKUP_STATE + " SET " + COL_MOD_COUNTER + "=" + COL_MOD_COUNTER + "+1;"
+                + " UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_MOD_VERSION + "=" + modCounter
+                + " WHERE _id=" + collectionId + "; END;";
+    }
+
+    /**
+     * Creates the table holding the coins from every collection, along with its index
+     * @param db database to add to
+     * @throws SQLException if an error occurs
+     */
+    public static void createCoinsTable(SQLiteDatabase db) throws SQLException {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TBL_COINS + " (_id integer primary key,"
+                + " " + COL_COLLECTION_ID + " integer not null references " + TBL_COLLECTION_INFO + "(_id),"
+                + " " + COL_COIN_IDENTIFIER + " text not null,"
+                + " " + COL_COIN_MINT + " text,"
+                + " " + COL_IN_COLLECTION + " integer,"
+                + " " + COL_ADV_GRADE_INDEX + " integer default 0,"
+                + " " + COL_ADV_QUANTITY_INDEX + " integer default 0,"
+                + " " + COL_ADV_NOTES + " text default \"\");");
+
+        // Index the columns used to look up individual coins (see COLLECTION_WHERE_CLAUSE and
+        // CoinSlot.COIN_SLOT_WHERE_CLAUSE.)  This also serves lookups of a whole collection.
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + IDX_COIN_SLOT + " ON " + TBL_COINS + " ("
+                + COL_COLLECTION_ID + ", " + COL_COIN_IDENTIFIER + ", " + COL_COIN_MINT + ");");
+    }
+
+    /**
+     * Drops the coins table and the collection info table
+     * @param db database
+     * @throws SQLException if an error occurs
+     */
+    static void dropCollectionInfoTable(SQLiteDatabase db) throws SQLException {
+        db.execSQL("DROP TABLE IF EXISTS " + TBL_COINS + ";");
+        db.execSQL("DROP TABLE [" + TBL_COLLECTION_INFO + "];");
     }
 
     @Override
@@ -112,6 +332,125 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[]{tableName});
             }
         }
+
+        // Finally make sure the collected counts and changed collections are being maintained,
+        // and that the collected counts are accurate
+        repairCollectedCounts(db);
+        createBackupStateTable(db);
+        createModVersionTriggers(db);
+    }
+
+    /**
+     * Moves the coins from the legacy one-table-per-collection layout into the coins table.
+     * This is done before any other upgrade steps so that they only need to handle the
+     * current layout.
+     * @param db database
+     * @throws SQLException if an error occurs
+     */
+    public static void migrateToCoinsTable(SQLiteDatabase db) throws SQLException {
+
+        if (BuildConfig.DEBUG) {
+            Log.i(APP_NAME, "Moving collections into the " + TBL_COINS + " table");
+        }
+
+        // A collection may already be using the name of the coins table (or its index), so move
+        // it out of the way
+        ArrayList<Long> collectionIds = new ArrayList<>();
+        ArrayList<String> legacyTableNames = new ArrayList<>();
+        Cursor cursor = db.query(TBL_COLLECTION_INFO, new String[]{"_id", COL_NAME}, null, null, null, null, "_id");
+        if (cursor.moveToFirst()) {
+            do {
+                String tableName = cursor.getString(cursor.getColumnIndex(COL_NAME));
+                if (tableName.equalsIgnoreCase(TBL_COINS) || tableName.equalsIgnoreCase(IDX_COIN_SLOT)) {
+                    String newTableName = TBL_COINS + "_legacy_" + cursor.getLong(cursor.getColumnIndex("_id"));
+                    db.execSQL("ALTER TABLE [" + tableName + "] RENAME TO [" + newTableName + "]");
+                    tableName = newTableName;
+                }
+                collectionIds.add(cursor.getLong(cursor.getColumnIndex("_id")));
+                legacyTableNames.add(tableName);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        createCoinsTable(db);
+
+        // Databases from before the advanced view was added don't have all of the columns
+        String[] copyColumns = new String[] {COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION,
+                COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES};
+        for (int i = 0; i < legacyTableNames.size(); i++) {
+            String legacyTableName = legacyTableNames.get(i);
+            Cursor columnCursor = db.query("[" + legacyTableName + "]", null, null, null, null, null, null, "0");
+            StringBuilder columns = new StringBuilder(COL_COLLECTION_ID);
+            StringBuilder values = new StringBuilder(String.valueOf(collectionIds.get(i)));
+            for (String column : copyColumns) {
+                if (columnCursor.getColumnIndex(column) != -1) {
+                    columns.append(", ").append(column);
+                    values.append(", ").append(column);
+                }
+            }
+            columnCursor.close();
+
+            // Copy in _id order so that the coins keep their order within the collection
+            db.execSQL("INSERT INTO " + TBL_COINS + " (" + columns + ") SELECT " + values
+                    + " FROM [" + legacyTableName + "] ORDER BY _id;");
+            db.execSQL("DROP TABLE [" + legacyTableName + "];");
+        }
+    }
+
+    /**
+     * Creates the triggers that keep the collected column in the collection info table in
+     * sync with the contents of the coins table. This lets the number of coins collected
+     * be read without counting the coins in the collection.
+     * @param db database
+     * @throws SQLException if an error occurs
+     */
+    static void createCollectedTriggers(SQLiteDatabase db) throws SQLException {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COINS + "_collected_insert"
+                + " AFTER INSERT ON " + TBL_COINS
+                + " WHEN NEW." + COL_IN_COLLECTION + "=1"
+                + " BEGIN " + getCollectedUpdateSql("NEW", "+1") + " END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COINS + "_collected_update"
+                + " AFTER UPDATE OF " + COL_IN_COLLECTION + " ON " + TBL_COINS
+                + " WHEN NEW." + COL_IN_COLLECTION + " IS NOT OLD." + COL_IN_COLLECTION
+                + " BEGIN " + getCollectedUpdateSql("NEW", "+(NEW." + COL_IN_COLLECTION
+                + "=1)-(OLD." + COL_IN_COLLECTION + "=1)") + " END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TBL_COINS + "_collected_delete"
+                + " AFTER DELETE ON " + TBL_COINS
+                + " WHEN OLD." + COL_IN_COLLECTION + "=1"
+                + " BEGIN " + getCollectedUpdateSql("OLD", "-1") + " END;");
+    }
+
+    /**
+     * Builds the statement run by the collected count triggers
+     * @param row the trigger row to take the collection from ("NEW" or "OLD")
+     * @param delta expression to add to the collected count (Ex: "+1")
+     * @return SQL statement
+     */
+    private static String getCollectedUpdateSql(String row, String delta) {
+        return "UPDATE " + TBL_COLLECTION_INFO + " SET " + COL_COLLECTED + "=" + COL_COLLECTED + delta
+                + " WHERE _id=" + row + "." + COL_COLLECTION_ID + ";";
+    }
+
+    /**
+     * Ensures that the collected count triggers exist, and recounts the coins collected in
+     * each collection to fix up any stored counts that are out of sync
+     * @param db database
+     * @throws SQLException if an error occurs
+     */
+    static void repairCollectedCounts(SQLiteDatabase db) throws SQLException {
+        createCollectedTriggers(db);
+        String countSql = "(SELECT COUNT(_id) FROM " + TBL_COINS + " WHERE " + COL_COLLECTION_ID + "="
+                + TBL_COLLECTION_INFO + "._id AND " + COL_IN_COLLECTION + "=1)";
+        SQLiteStatement compiledStatement = db.compileStatement("UPDATE " + TBL_COLLECTION_INFO
+                + " SET " + COL_COLLECTED + "=" + countSql + " WHERE " + COL_COLLECTED + " IS NOT " + countSql);
+        try {
+            int numRepaired = compiledStatement.executeUpdateDelete();
+            if (BuildConfig.DEBUG && numRepaired != 0) {
+                Log.i(APP_NAME, "Repaired collected counts for " + numRepaired + " collections");
+            }
+        } finally {
+            compiledStatement.close();
+        }
     }
 
     /**
@@ -122,11 +461,53 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLException if the database update was not successful
      */
     static void updateCollectionName(SQLiteDatabase db, String oldName, String newName) throws SQLException {
-        String alterDbSqlStr = "ALTER TABLE [" + oldName + "] RENAME TO [" + newName + "]";
-        db.execSQL(alterDbSqlStr);
+        // The coins reference the collection by _id, so only the collection info needs to change
         ContentValues args = new ContentValues();
         args.put(COL_NAME, newName);
-        runSqlUpdate(db, TBL_COLLECTION_INFO, args, COL_NAME + "=?", new String[] { oldName });
+        if (runSqlUpdate(db, TBL_COLLECTION_INFO, args, COL_NAME + "=?", new String[] { oldName }) <= 0) {
+            throw new SQLException();
+        }
+    }
+
+    /**
+     * Gets the _id of a collection, which is used to reference the collection from the coins table
+     * @param db database
+     * @param tableName collection name
+     * @return collection _id
+     * @throws SQLException if the collection doesn't exist
+     */
+    static long getCollectionId(SQLiteDatabase db, String tableName) throws SQLException {
+        String sqlCmd = "SELECT _id FROM " + TBL_COLLECTION_INFO + " WHERE " + COL_NAME + "=? LIMIT 1";
+        return simpleQueryForLong(db, null, null, null, sqlCmd, new String[] {tableName});
+    }
+
+    /**
+     * Adds the collection where clause to a where clause that applies to a collection's coins
+     * @param whereClause where clause, or null
+     * @return where clause for the coins table
+     */
+    private static String getCollectionWhereClause(String whereClause) {
+        if (whereClause == null) {
+            return COLLECTION_WHERE_CLAUSE;
+        }
+        return COLLECTION_WHERE_CLAUSE + " AND (" + whereClause + ")";
+    }
+
+    /**
+     * Adds the collection name to the arguments for a where clause built with
+     * getCollectionWhereClause
+     * @param tableName collection name
+     * @param whereArgs where args, or null
+     * @return where args for the coins table
+     */
+    private static String[] getCollectionWhereArgs(String tableName, String[] whereArgs) {
+        int numArgs = (whereArgs == null) ? 0 : whereArgs.length;
+        String[] collectionWhereArgs = new String[numArgs + 1];
+        collectionWhereArgs[0] = tableName;
+        if (whereArgs != null) {
+            System.arraycopy(whereArgs, 0, collectionWhereArgs, 1, numArgs);
+        }
+        return collectionWhereArgs;
     }
 
     /**
@@ -138,7 +519,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static int addFromArrayList(SQLiteDatabase db, CollectionListInfo collectionListInfo,
                                        ArrayList<String> values) {
         int total = 0;
-        String tableName = collectionListInfo.getName();
+        long collectionId = getCollectionId(db, collectionListInfo.getName());
         for (int i = 0; i < values.size(); i++) {
             if (collectionListInfo.hasMintMarks()) {
                 for (String flagStr : CollectionListInfo.MINT_STRING_TO_FLAGS.keySet()) {
@@ -148,7 +529,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                         insertValues.put(COL_COIN_IDENTIFIER, values.get(i));
                         insertValues.put(COL_IN_COLLECTION, 0);
                         insertValues.put(COL_COIN_MINT, flagStr);
-                        if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+                        insertValues.put(COL_COLLECTION_ID, collectionId);
+                        if (db.insert(TBL_COINS, null, insertValues) != -1) {
                             total++;
                         }
                     }
@@ -158,7 +540,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 insertValues.put(COL_COIN_IDENTIFIER, values.get(i));
                 insertValues.put(COL_IN_COLLECTION, 0);
                 insertValues.put(COL_COIN_MINT, "");
-                if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+                insertValues.put(COL_COLLECTION_ID, collectionId);
+                if (db.insert(TBL_COINS, null, insertValues) != -1) {
                     total++;
                 }
             }
@@ -215,6 +598,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         // Add the new coin entries
         String tableName = collectionListInfo.getName();
+        long collectionId = getCollectionId(db, tableName);
         if (collectionListInfo.hasMintMarks()) {
             for (String flagStr : CollectionListInfo.MINT_STRING_TO_FLAGS.keySet()) {
                 Integer mintFlag = CollectionListInfo.MINT_STRING_TO_FLAGS.get(flagStr);
@@ -226,7 +610,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     insertValues.put(COL_COIN_IDENTIFIER, identifier);
                     insertValues.put(COL_IN_COLLECTION, 0);
                     insertValues.put(COL_COIN_MINT, flagStr);
-                    if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+                    insertValues.put(COL_COLLECTION_ID, collectionId);
+                    if (db.insert(TBL_COINS, null, insertValues) != -1) {
                         total++;
                     }
                 }
@@ -236,7 +621,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             insertValues.put(COL_COIN_IDENTIFIER, identifier);
             insertValues.put(COL_IN_COLLECTION, 0);
             insertValues.put(COL_COIN_MINT, "");
-            if (db.insert("[" + tableName + "]", null, insertValues) != -1) {
+            insertValues.put(COL_COLLECTION_ID, collectionId);
+            if (db.insert(TBL_COINS, null, insertValues) != -1) {
                 total++;
             }
         }
@@ -259,17 +645,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     static ArrayList<CoinSlot> getCoinList(SQLiteDatabase db, String tableName, boolean populateAdvInfo) {
 
-        String[] dbColumns;
-        if (populateAdvInfo) {
-            dbColumns = new String[] {COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION,
-                    COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES};
-        } else {
-            dbColumns = new String[] {COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION};
-        }
-
         ArrayList<CoinSlot> coinList = new ArrayList<>();
-        Cursor cursor = db.query("[" + tableName + "]", dbColumns,
-                null, null, null, null, "_id");
+        Cursor cursor = getCoinCursor(db, tableName, populateAdvInfo);
         if (cursor.moveToFirst()) {
             do {
                 CoinSlot coinSlot = new CoinSlot(
@@ -289,6 +666,59 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         return coinList;
     }
 
+    /**
+     * Get the basic coin information into a CoinSlotList, without creating a CoinSlot for
+     * each coin
+     * @param db database
+     * @param tableName The name of the collection
+     * @param populateAdvInfo If true, includes advanced attributes
+     * @return CoinSlot list
+     */
+    static CoinSlotList getCoinSlotList(SQLiteDatabase db, String tableName, boolean populateAdvInfo) {
+
+        Cursor cursor = getCoinCursor(db, tableName, populateAdvInfo);
+        CoinSlotList coinList = new CoinSlotList(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            int identifierIndex = cursor.getColumnIndex(COL_COIN_IDENTIFIER);
+            int mintIndex = cursor.getColumnIndex(COL_COIN_MINT);
+            int inCollectionIndex = cursor.getColumnIndex(COL_IN_COLLECTION);
+            int gradeIndex = cursor.getColumnIndex(COL_ADV_GRADE_INDEX);
+            int quantityIndex = cursor.getColumnIndex(COL_ADV_QUANTITY_INDEX);
+            int notesIndex = cursor.getColumnIndex(COL_ADV_NOTES);
+            do {
+                coinList.add(
+                        cursor.getString(identifierIndex),
+                        cursor.getString(mintIndex),
+                        (cursor.getInt(inCollectionIndex) == 1),
+                        populateAdvInfo ? cursor.getInt(gradeIndex) : 0,
+                        populateAdvInfo ? cursor.getInt(quantityIndex) : 0,
+                        populateAdvInfo ? cursor.getString(notesIndex) : "");
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+        return coinList;
+    }
+
+    /**
+     * Get a cursor over the coins in a collection, in display order
+     * @param db database
+     * @param tableName The name of the collection
+     * @param populateAdvInfo If true, includes advanced attributes
+     * @return cursor, which the caller must close
+     */
+    static Cursor getCoinCursor(SQLiteDatabase db, String tableName, boolean populateAdvInfo) {
+
+        String[] dbColumns;
+        if (populateAdvInfo) {
+            dbColumns = new String[] {COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION,
+                    COL_ADV_GRADE_INDEX, COL_ADV_QUANTITY_INDEX, COL_ADV_NOTES};
+        } else {
+            dbColumns = new String[] {COL_COIN_IDENTIFIER, COL_COIN_MINT, COL_IN_COLLECTION};
+        }
+        return db.query(TBL_COINS, dbColumns,
+                COLLECTION_WHERE_CLAUSE, new String[] {tableName}, null, null, "_id");
+    }
+
     /**
      * Get the total number of coins in the collection
      * @param db database
@@ -297,12 +727,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLException if an error occurs
      */
     public static int fetchTotalCollected(SQLiteDatabase db, String tableName) throws SQLException {
-        String sqlCmd = "SELECT COUNT(_id) FROM [" + tableName + "] WHERE " + COL_IN_COLLECTION + "=1 LIMIT 1";
-        SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
-        int result = simpleQueryForLong(compiledStatement);
-        compiledStatement.clearBindings();
-        compiledStatement.close();
-        return result;
+        return fetchTotalCollected(db, tableName, null);
+    }
+
+    /**
+     * Get the total number of coins in the collection
+     * @param db database
+     * @param tableName String that identifiers which table to query
+     * @param statementCache cache of compiled statements to use, or null
+     * @return int with the total number of coins in the collection
+     * @throws SQLException if an error occurs
+     */
+    static int fetchTotalCollected(SQLiteDatabase db, String tableName, CompiledStatementCache statementCache) throws SQLException {
+        String sqlCmd = "SELECT COUNT(_id) FROM " + TBL_COINS + " WHERE " + COLLECTION_WHERE_CLAUSE
+                + " AND " + COL_IN_COLLECTION + "=1 LIMIT 1";
+        return simpleQueryForLong(db, statementCache, TBL_COINS, STMT_TOTAL_COLLECTED, sqlCmd,
+                new String[] {tableName});
     }
 
     /**
@@ -312,6 +752,18 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLException if a database error occurs
      */
     public static void getAllTables(SQLiteDatabase db, ArrayList<CollectionListInfo> collectionListEntries) throws SQLException {
+        getAllTables(db, collectionListEntries, null);
+    }
+
+    /**
+     * Returns a list of all collections in the database
+     * @param db database
+     * @param collectionListEntries List of CollectionListInfo to populate
+     * @param statementCache cache of compiled statements to use, or null
+     * @throws SQLException if a database error occurs
+     */
+    static void getAllTables(SQLiteDatabase db, ArrayList<CollectionListInfo> collectionListEntries,
+                             CompiledStatementCache statementCache) throws SQLException {
 
         // Get rid of the other items in the list (if any)
         collectionListEntries.clear();
@@ -330,7 +782,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     throw new SQLException();
                 }
                 // Get the number of coins collected
-                int collected = fetchTotalCollected(db, tableName);
+                int collected = fetchTotalCollected(db, tableName, statementCache);
                 if (collected == -1) {
                     cursor.close();
                     throw new SQLException();
@@ -351,6 +803,75 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         cursor.close();
     }
 
+    /**
+     * Returns a summary of all collections in the database. This returns the same information
+     * as getAllTables, but the number of coins collected in each collection is read from the
+     * collected column (maintained by triggers) instead of being counted.
+     * @param db database
+     * @param collectionListEntries List of CollectionListInfo to populate
+     * @throws SQLException if a database error occurs
+     */
+    public static void getAllTableSummaries(SQLiteDatabase db, ArrayList<CollectionListInfo> collectionListEntries) throws SQLException {
+        getTableSummaries(db, collectionListEntries, null, null);
+    }
+
+    /**
+     * Returns a list of the collections that changed after a modification counter value (see
+     * createModVersionTriggers), using the stored number of coins collected in each collection
+     * @param db database
+     * @param collectionListEntries List of CollectionListInfo to populate
+     * @param sinceModVersion modification counter value to compare against
+     * @throws SQLException if a database error occurs
+     */
+    static void getChangedTableSummaries(SQLiteDatabase db, ArrayList<CollectionListInfo> collectionListEntries,
+                                         int sinceModVersion) throws SQLException {
+        getTableSummaries(db, collectionListEntries, COL_MOD_VERSION + ">?",
+                new String[] {String.valueOf(sinceModVersion)});
+    }
+
+    /**
+     * Returns a list of collections in the database, in display order
+     * @param db database
+     * @param collectionListEntries List of CollectionListInfo to populate
+     * @param selection where clause to filter the collections by, or null for all of them
+     * @param selectionArgs arguments for the where clause
+     * @throws SQLException if a database error occurs
+     */
+    private static void getTableSummaries(SQLiteDatabase db, ArrayList<CollectionListInfo> collectionListEntries,
+                                          String selection, String[] selectionArgs) throws SQLException {
+
+        // Get rid of the other items in the list (if any)
+        collectionListEntries.clear();
+        Cursor cursor = db.query(TBL_COLLECTION_INFO,
+                new String[] {COL_NAME, COL_COIN_TYPE, COL_TOTAL, COL_COLLECTED, COL_DISPLAY,
+                        COL_START_YEAR, COL_END_YEAR, COL_SHOW_MINT_MARKS, COL_SHOW_CHECKBOXES},
+                selection, selectionArgs, null, null, COL_DISPLAY_ORDER);
+        if (cursor.moveToFirst()) {
+            do {
+                String tableName = cursor.getString(cursor.getColumnIndex(COL_NAME));
+                String coinType = cursor.getString(cursor.getColumnIndex(COL_COIN_TYPE));
+                // Figure out what collection type maps to this
+                int index = MainApplication.getIndexFromCollectionNameStr(coinType);
+                if (index == -1) {
+                    cursor.close();
+                    throw new SQLException();
+                }
+                // Add it to the list of collections
+                collectionListEntries.add(new CollectionListInfo(
+                        tableName,
+                        cursor.getInt(cursor.getColumnIndex(COL_TOTAL)),
+                        cursor.getInt(cursor.getColumnIndex(COL_COLLECTED)),
+                        index,
+                        cursor.getInt(cursor.getColumnIndex(COL_DISPLAY)),
+                        cursor.getInt(cursor.getColumnIndex(COL_START_YEAR)),
+                        cursor.getInt(cursor.getColumnIndex(COL_END_YEAR)),
+                        cursor.getInt(cursor.getColumnIndex(COL_SHOW_MINT_MARKS)),
+                        cursor.getInt(cursor.getColumnIndex(COL_SHOW_CHECKBOXES))));
+            } while(cursor.moveToNext());
+        }
+        cursor.close();
+    }
+
     /**
      * Gets the collection parameters based on the collection contents,
      * which is needed for database upgrade.
@@ -378,47 +899,120 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public static void updateExistingCollection(SQLiteDatabase db, String oldTableName, CollectionListInfo collectionListInfo, ArrayList<CoinSlot> coinData) throws SQLException {
 
-        // Update the coin data
-        if (coinData != null) {
-            runSqlDelete(db, oldTableName, "1", null);
+        db.beginTransaction();
+        try {
+            // Update the coin data
+            if (coinData != null) {
+                runSqlDelete(db, oldTableName, "1", null);
+                insertCoinSlots(db, oldTableName, coinData);
+            }
+
+            // Update the collection info
+            ContentValues values = new ContentValues();
+            values.put(COL_COIN_TYPE, collectionListInfo.getType());
+            values.put(COL_TOTAL, collectionListInfo.getMax());
+            values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
+            values.put(COL_START_YEAR, collectionListInfo.getStartYear());
+            values.put(COL_END_YEAR, collectionListInfo.getEndYear());
+            values.put(COL_SHOW_MINT_MARKS, collectionListInfo.getMintMarkFlags());
+            values.put(COL_SHOW_CHECKBOXES, collectionListInfo.getCheckboxFlags());
+            runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[] { oldTableName });
+
+            // Rename the collection if needed
+            if (!oldTableName.equals(collectionListInfo.getName())) {
+                updateCollectionName(db, oldTableName, collectionListInfo.getName());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts coins into a collection table. A single compiled statement is reused for all
+     * of the rows, so this should be called from within a transaction to avoid each insert
+     * being committed separately.
+     * @param db database
+     * @param tableName collection to insert into
+     * @param coinData coins to insert
+     * @throws SQLException if an insert error occurred
+     */
+    static void insertCoinSlots(SQLiteDatabase db, String tableName, ArrayList<CoinSlot> coinData) throws SQLException {
+        long collectionId = getCollectionId(db, tableName);
+        SQLiteStatement compiledStatement = db.compileStatement(SQL_INSERT_COIN_SLOT);
+        try {
             for (CoinSlot coinSlot : coinData) {
-                ContentValues values = new ContentValues();
-                values.put(COL_COIN_IDENTIFIER, coinSlot.getIdentifier());
-                values.put(COL_COIN_MINT, coinSlot.getMint());
-                values.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
-                values.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
-                values.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
-                values.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
-                runSqlInsert(db, oldTableName, values);
+                bindCoinSlotInsert(compiledStatement, collectionId, coinSlot);
+                if (compiledStatement.executeInsert() == -1) {
+                    throw new SQLException();
+                }
             }
+        } finally {
+            compiledStatement.close();
         }
+    }
 
-        // Update the collection info
-        ContentValues values = new ContentValues();
-        values.put(COL_COIN_TYPE, collectionListInfo.getType());
-        values.put(COL_TOTAL, collectionListInfo.getMax());
-        values.put(COL_DISPLAY, collectionListInfo.getDisplayType());
-        values.put(COL_START_YEAR, collectionListInfo.getStartYear());
-        values.put(COL_END_YEAR, collectionListInfo.getEndYear());
-        values.put(COL_SHOW_MINT_MARKS, collectionListInfo.getMintMarkFlags());
-        values.put(COL_SHOW_CHECKBOXES, collectionListInfo.getCheckboxFlags());
-        runSqlUpdate(db, TBL_COLLECTION_INFO, values, COL_NAME + "=?", new String[] { oldTableName });
+    /**
+     * Binds the values for inserting a coin to a statement compiled from SQL_INSERT_COIN_SLOT
+     * @param compiledStatement statement to bind to
+     * @param collectionId ID of the collection the coin is in
+     * @param coinSlot coin to insert
+     */
+    static void bindCoinSlotInsert(SQLiteStatement compiledStatement, long collectionId, CoinSlot coinSlot) {
+        compiledStatement.bindLong(1, collectionId);
+        bindStringOrNull(compiledStatement, 2, coinSlot.getIdentifier());
+        bindStringOrNull(compiledStatement, 3, coinSlot.getMint());
+        compiledStatement.bindLong(4, coinSlot.isInCollectionInt());
+        bindIntegerOrNull(compiledStatement, 5, coinSlot.getAdvancedGrades());
+        bindIntegerOrNull(compiledStatement, 6, coinSlot.getAdvancedQuantities());
+        bindStringOrNull(compiledStatement, 7, coinSlot.getAdvancedNotes());
+    }
 
-        // Rename the collection if needed
-        if (!oldTableName.equals(collectionListInfo.getName())) {
-            updateCollectionName(db, oldTableName, collectionListInfo.getName());
+    /**
+     * Binds a string value, or null if the value is null (matching ContentValues behavior)
+     * @param compiledStatement statement to bind to
+     * @param index 1-based parameter index
+     * @param value value to bind
+     */
+    private static void bindStringOrNull(SQLiteStatement compiledStatement, int index, String value) {
+        if (value == null) {
+            compiledStatement.bindNull(index);
+        } else {
+            compiledStatement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Binds an integer value, or null if the value is null (matching ContentValues behavior)
+     * @param compiledStatement statement to bind to
+     * @param index 1-based parameter index
+     * @param value value to bind
+     */
+    private static void bindIntegerOrNull(SQLiteStatement compiledStatement, int index, Integer value) {
+        if (value == null) {
+            compiledStatement.bindNull(index);
+        } else {
+            compiledStatement.bindLong(index, value);
         }
     }
 
     /**
      * Executes the SQL insert command and returns false if an error occurs
      * @param db The database
-     * @param tableName The table to insert into
+     * @param tableName The collection to insert into (or TBL_COLLECTION_INFO)
      * @param values Values to insert into the table
      * @throws SQLException if an insert error occurred
      */
     public static void runSqlInsert(SQLiteDatabase db, String tableName, ContentValues values) throws SQLException {
-        if (db.insert("[" + tableName + "]", null, values) == -1) {
+        long result;
+        if (TBL_COLLECTION_INFO.equals(tableName)) {
+            result = db.insert(TBL_COLLECTION_INFO, null, values);
+        } else {
+            ContentValues coinValues = new ContentValues(values);
+            coinValues.put(COL_COLLECTION_ID, getCollectionId(db, tableName));
+            result = db.insert(TBL_COINS, null, coinValues);
+        }
+        if (result == -1) {
             throw new SQLException();
         }
     }
@@ -426,14 +1020,18 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     /**
      * Executes the SQL update command and returns false if an error occurs
      * @param db The database
-     * @param tableName Table to update
+     * @param tableName Collection to update (or TBL_COLLECTION_INFO)
      * @param values Values to update
      * @param whereClause Where clause
      * @param whereArgs Where args
      * @return the number of rows impacted
      */
     public static int runSqlUpdate(SQLiteDatabase db, String tableName, ContentValues values, String whereClause, String[] whereArgs) {
-        return db.update("[" + tableName + "]", values, whereClause, whereArgs);
+        if (TBL_COLLECTION_INFO.equals(tableName)) {
+            return db.update(TBL_COLLECTION_INFO, values, whereClause, whereArgs);
+        }
+        return db.update(TBL_COINS, values, getCollectionWhereClause(whereClause),
+                getCollectionWhereArgs(tableName, whereArgs));
     }
 
     /**
@@ -450,15 +1048,57 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Runs a query that returns a single number, using a cached compiled statement if a
+     * statement cache is provided and otherwise compiling the statement for this call only
+     * @param db database
+     * @param statementCache cache of compiled statements to use, or null
+     * @param tableName table the statement operates on (used as part of the cache key)
+     * @param kind kind of statement (used as part of the cache key)
+     * @param sqlCmd SQL query
+     * @param bindArgs string arguments to bind, or null
+     * @return int query result
+     * @throws SQLException if a database exception occurs
+     */
+    static int simpleQueryForLong(SQLiteDatabase db, CompiledStatementCache statementCache, String tableName,
+                                  String kind, String sqlCmd, String[] bindArgs) throws SQLException {
+        if (statementCache == null) {
+            SQLiteStatement compiledStatement = db.compileStatement(sqlCmd);
+            try {
+                if (bindArgs != null) {
+                    compiledStatement.bindAllArgsAsStrings(bindArgs);
+                }
+                return simpleQueryForLong(compiledStatement);
+            } finally {
+                compiledStatement.close();
+            }
+        }
+        synchronized (statementCache) {
+            SQLiteStatement compiledStatement = statementCache.get(db, tableName, kind, sqlCmd);
+            try {
+                if (bindArgs != null) {
+                    compiledStatement.bindAllArgsAsStrings(bindArgs);
+                }
+                return simpleQueryForLong(compiledStatement);
+            } finally {
+                compiledStatement.clearBindings();
+            }
+        }
+    }
+
     /**
      * Wrapper for delete
      * @param db The database
-     * @param tableName Table to update
+     * @param tableName Collection to update (or TBL_COLLECTION_INFO)
      * @param whereClause Where clause
      * @param whereArgs Where args
      * @return the number of rows impacted
      */
     public static int runSqlDelete(SQLiteDatabase db, String tableName, String whereClause, String[] whereArgs) {
-        return db.delete("[" + tableName + "]", whereClause, whereArgs);
+        if (TBL_COLLECTION_INFO.equals(tableName)) {
+            return db.delete(TBL_COLLECTION_INFO, whereClause, whereArgs);
+        }
+        return db.delete(TBL_COINS, getCollectionWhereClause(whereClause),
+                getCollectionWhereArgs(tableName, whereArgs));
     }
 }
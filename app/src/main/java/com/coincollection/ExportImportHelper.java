@@ -21,6 +21,7 @@
 package com.coincollection;
 
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.os.Environment;
 import android.util.JsonReader;
@@ -31,6 +32,12 @@ import com.opencsv.CSVWriter;
 import com.spencerpages.MainApplication;
 import com.spencerpages.R;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -41,6 +48,19 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class ExportImportHelper {
 
@@ -49,11 +69,22 @@ public class ExportImportHelper {
     final DatabaseAdapter mDbAdapter;
 
     public final static String JSON_CHARSET = "UTF-8";
+    private final static int EXPORT_BUFFER_SIZE = 64 * 1024;
 
     // JSON keys
     public final static String JSON_DB_VERSION = "databaseVersion";
     public final static String JSON_COLLECTIONS = "collections";
     public final static String JSON_COIN_LIST = "coinList";
+    public final static String JSON_BACKUP_ID = "backupId";
+    public final static String JSON_BASE_BACKUP_ID = "baseBackupId";
+    public final static String JSON_BASE_BACKUP_NAME = "baseBackupName";
+    public final static String JSON_COLLECTION_ORDER = "collectionOrder";
+    public final static String JSON_CHECKSUM = "checksum";
+    public final static String JSON_FILE_DIGEST = "fileDigest";
+
+    // Files of changed collections start with this, which is used to tell them apart from
+    // full JSON backups
+    private final static String JSON_CHANGES_PREFIX = "{\"" + JSON_BASE_BACKUP_ID + "\"";
 
     // Legacy export file/directory name
     public final static String LEGACY_EXPORT_FOLDER_NAME = "/coin-collection-app-files";
@@ -61,11 +92,61 @@ public class ExportImportHelper {
     public final static String LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT = ".csv";
     public final static String LEGACY_EXPORT_DB_VERSION_FILE = "database_version.txt";
 
+    // Number of threads writing (when exporting) or parsing (when importing) collection files
+    private final static int LEGACY_CSV_NUM_THREADS = 3;
+    // How many collection files may be parsed ahead of the one being added to the database
+    private final static int LEGACY_CSV_PARSE_AHEAD = 2 * LEGACY_CSV_NUM_THREADS;
+
+    /**
+     * Notified as an import or export progresses
+     */
+    public interface ProgressListener {
+        /**
+         * @param fraction fraction of the collections processed, from 0 to 1
+         */
+        void onProgress(float fraction);
+
+        /**
+         * Checked before each collection, so that the import or export can stop early.  An
+         * import that stops is rolled back, and an export leaves the file incomplete.
+         * @return true if the import or export should stop
+         */
+        boolean isCancelled();
+    }
+
+    private ProgressListener mProgressListener = null;
+
     public ExportImportHelper(Resources res, DatabaseAdapter dbAdapter) {
         mRes = res;
         mDbAdapter = dbAdapter;
     }
 
+    /**
+     * Sets a listener to report progress to
+     * @param listener listener, or null to stop reporting progress
+     */
+    public void setProgressListener(ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Reports progress to the listener (if any)
+     * @param numDone number of collections processed
+     * @param numTotal total number of collections
+     */
+    private void reportProgress(int numDone, int numTotal) {
+        if (mProgressListener != null && numTotal > 0) {
+            mProgressListener.onProgress((float) numDone / numTotal);
+        }
+    }
+
+    /**
+     * @return true if the listener (if any) wants the import or export to stop
+     */
+    private boolean isCancelled() {
+        return mProgressListener != null && mProgressListener.isCancelled();
+    }
+
     /**
      * This method imports collections from the external storage (legacy storage). New versions
      * of the app export to JSON and store in a user-accessible storage location
@@ -97,7 +178,6 @@ public class ExportImportHelper {
         File inputFile = new File(dir, LEGACY_EXPORT_DB_VERSION_FILE);
         int importDatabaseVersion;
         ArrayList<CollectionListInfo> importedCollectionInfoList = new ArrayList<>();
-        ArrayList<ArrayList<CoinSlot>> importedCollectionContents = new ArrayList<>();
         try {
             ArrayList<String[]> fileContents = getCsvFileContents(inputFile);
             if (fileContents.size() > 0 && fileContents.get(0).length > 0) {
@@ -120,47 +200,155 @@ public class ExportImportHelper {
             return mRes.getString(R.string.error_open_file_reading, inputFile.getAbsolutePath());
         }
 
-        // We loaded in the collection "metadata" table, so now load in each collection
+        // We loaded in the collection "metadata" table, so now load in each collection.  The
+        // files are parsed in parallel on the worker threads, and this thread adds them to the
+        // database one at a time in display order.  Only a few files are parsed ahead of the
+        // one being added, so that the whole import doesn't need to be held in memory.
+        final File importDir = dir;
+        final int numCollections = importedCollectionInfoList.size();
         ArrayList<String> collectionErrorMessages = new ArrayList<>();
-        for (int i = 0; i < importedCollectionInfoList.size(); i++) {
-            CollectionListInfo collectionData = importedCollectionInfoList.get(i);
-            // If any '/''s exist in the collection name, change them to "_SL_" to match
-            // the export logic (used to prevent slashes from being confused as path
-            // delimiters when opening the file.)
-            String collectionFileName = collectionData.getName().replaceAll("/", "_SL_");
-            inputFile = new File(dir, collectionFileName + ".csv");
-
-            if (!inputFile.isFile()) {
-                collectionErrorMessages.add(mRes.getString(R.string.cannot_find_input_file, inputFile.getAbsolutePath()));
-                continue;
+        ArrayList<Future<LegacyCsvCollection>> parsedCollections = new ArrayList<>();
+        ThreadPoolExecutor parseExecutor = newLegacyCsvExecutor();
+        mDbAdapter.beginTransaction();
+        try {
+            // Replace the existing collections (this is rolled back if the import fails)
+            mDbAdapter.dropCollectionInfoTable();
+            mDbAdapter.createCollectionInfoTable();
+
+            for (int i = 0; i < numCollections; i++) {
+                if (isCancelled()) {
+                    return mRes.getString(R.string.error_import_canceled);
+                }
+
+                // Keep the worker threads busy with the files after this one
+                while (parsedCollections.size() < Math.min(i + LEGACY_CSV_PARSE_AHEAD, numCollections)) {
+                    final String collectionName = importedCollectionInfoList.get(parsedCollections.size()).getName();
+                    parsedCollections.add(parseExecutor.submit(new Callable<LegacyCsvCollection>() {
+                        @Override
+                        public LegacyCsvCollection call() {
+                            return readLegacyCsvCollection(importDir, collectionName);
+                        }
+                    }));
+                }
+
+                LegacyCsvCollection parsedCollection;
+                try {
+                    parsedCollection = parsedCollections.get(i).get();
+                } catch (ExecutionException e) {
+                    return mRes.getString(R.string.error_importing, e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return mRes.getString(R.string.error_importing, e.getMessage());
+                }
+                parsedCollections.set(i, null);
+                if (parsedCollection.mErrorMessage != null) {
+                    collectionErrorMessages.add(parsedCollection.mErrorMessage);
+                }
+                if (collectionErrorMessages.size() != 0) {
+                    // Keep checking the remaining files so that all of the errors get reported
+                    continue;
+                }
+
+                // Check for duplicate or illegal names
+                CollectionListInfo collectionListInfo = importedCollectionInfoList.get(i);
+                int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
+                if (checkName != -1) {
+                    return mRes.getString(R.string.error_import);
+                }
+                mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, parsedCollection.mCoinList);
+                reportProgress(i + 1, numCollections);
             }
 
-            // Read in the file
-            ArrayList<CoinSlot> collectionContent = new ArrayList<>();
-            try {
-                ArrayList<String[]> fileContents = getCsvFileContents(inputFile);
-                for (String[] items : fileContents) {
-                    collectionContent.add(new CoinSlot(items));
+            if (collectionErrorMessages.size() != 0) {
+                // An error occurred in one or more of the databases so show an error
+                StringBuilder problems = new StringBuilder();
+                for (String message : collectionErrorMessages) {
+                    problems.append("\n").append(message);
                 }
-            } catch (IOException ignored) {
-                collectionErrorMessages.add(mRes.getString(R.string.error_open_file_reading, inputFile.getAbsolutePath()));
-                continue;
+                return mRes.getString(R.string.error_exporting_collections, problems.toString());
             }
-            importedCollectionContents.add(collectionContent);
+
+            // Update any imported tables, if necessary
+            if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+                mDbAdapter.upgradeCollections(importDatabaseVersion, true);
+            }
+
+            // This format can't be used as the base for exporting changed collections
+            mDbAdapter.setBaseBackup(null, null, 0);
+            mDbAdapter.setTransactionSuccessful();
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
+            // Statements may have been compiled against the tables that were rolled back
+            mDbAdapter.clearStatementCache();
+            parseExecutor.shutdownNow();
+        }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * The coins read from a legacy CSV collection file, or the reason it couldn't be read
+     */
+    private static class LegacyCsvCollection {
+        final ArrayList<CoinSlot> mCoinList;
+        final String mErrorMessage;
+
+        LegacyCsvCollection(ArrayList<CoinSlot> coinList, String errorMessage) {
+            mCoinList = coinList;
+            mErrorMessage = errorMessage;
+        }
+    }
+
+    /**
+     * Reads in the coins from a legacy CSV collection file (may be called from any thread)
+     * @param dir directory containing the exported files
+     * @param collectionName name of the collection
+     * @return the coins, or an error message if the file couldn't be read
+     */
+    private LegacyCsvCollection readLegacyCsvCollection(File dir, String collectionName) {
+        // If any '/''s exist in the collection name, change them to "_SL_" to match
+        // the export logic (used to prevent slashes from being confused as path
+        // delimiters when opening the file.)
+        String collectionFileName = collectionName.replaceAll("/", "_SL_");
+        File inputFile = new File(dir, collectionFileName + ".csv");
+
+        if (!inputFile.isFile()) {
+            return new LegacyCsvCollection(null,
+                    mRes.getString(R.string.cannot_find_input_file, inputFile.getAbsolutePath()));
         }
 
-        if (collectionErrorMessages.size() != 0) {
-            // An error occurred in one or more of the databases so show an error
-            StringBuilder problems = new StringBuilder();
-            for (String message : collectionErrorMessages) {
-                problems.append("\n").append(message);
+        // Read in the file
+        ArrayList<CoinSlot> collectionContent = new ArrayList<>();
+        try {
+            ArrayList<String[]> fileContents = getCsvFileContents(inputFile);
+            for (String[] items : fileContents) {
+                collectionContent.add(new CoinSlot(items));
             }
-            return mRes.getString(R.string.error_exporting_collections, problems.toString());
+        } catch (IOException ignored) {
+            return new LegacyCsvCollection(null,
+                    mRes.getString(R.string.error_open_file_reading, inputFile.getAbsolutePath()));
+        } catch (RuntimeException ignored) {
+            // A line in the file is missing fields or has a bad value
+            return new LegacyCsvCollection(null,
+                    mRes.getString(R.string.error_reading_file, inputFile.getAbsolutePath()));
         }
+        return new LegacyCsvCollection(collectionContent, null);
+    }
 
-        // All data has been parsed from CSV files so perform the DB steps to import
-        return updateDatabaseFromImport(importDatabaseVersion, importedCollectionInfoList,
-                importedCollectionContents);
+    /**
+     * Creates the thread pool used to write or parse the legacy CSV collection files.  The
+     * queue is bounded, and once it fills up the submitting thread runs the next task itself.
+     * @return thread pool, which the caller must shut down
+     */
+    private static ThreadPoolExecutor newLegacyCsvExecutor() {
+        return new ThreadPoolExecutor(LEGACY_CSV_NUM_THREADS, LEGACY_CSV_NUM_THREADS,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(LEGACY_CSV_NUM_THREADS),
+                new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
     /**
@@ -198,7 +386,7 @@ public class ExportImportHelper {
 
         // Get all collection lists from the database
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
-        mDbAdapter.getAllTables(collectionListEntries);
+        mDbAdapter.getAllTableSummaries(collectionListEntries);
 
         // Write out the collection_info table
         File outputFile = new File(dir, LEGACY_EXPORT_COLLECTION_LIST_FILE_NAME + LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT);
@@ -226,50 +414,105 @@ public class ExportImportHelper {
             return mRes.getString(R.string.error_exporting, e.getMessage());
         }
 
-        // Write out all of the other tables
-        for(int i = 0; i < collectionListEntries.size(); i++){
-            CollectionListInfo item = collectionListEntries.get(i);
-            String name = item.getName();
-
-            // Handle '/''s in the file names (otherwise importing will fail, because the OS will
-            // think the '/' characters are folder delimiters.)  This will be undone when we import.
-            String cleanName = name.replaceAll("/", "_SL_");
+        // Write out all of the other tables.  The coins are read from the database on this
+        // thread, and each collection's file is encoded and written by the writer threads.  If
+        // the writers fall behind, the queue fills up and this thread writes the next file
+        // itself, which limits how many collections are held in memory at once.
+        final int numCollections = collectionListEntries.size();
+        final AtomicInteger numWritten = new AtomicInteger(0);
+        ThreadPoolExecutor writerExecutor = newLegacyCsvExecutor();
+        ArrayList<Future<Void>> writes = new ArrayList<>();
+        try {
+            for (int i = 0; i < numCollections; i++) {
+                if (isCancelled()) {
+                    return mRes.getString(R.string.error_export_canceled);
+                }
+                String name = collectionListEntries.get(i).getName();
 
-            outputFile = new File(dir, cleanName + ".csv");
-            csvOutputLines = new ArrayList<>();
+                // Handle '/''s in the file names (otherwise importing will fail, because the OS will
+                // think the '/' characters are folder delimiters.)  This will be undone when we import.
+                String cleanName = name.replaceAll("/", "_SL_");
 
-            ArrayList<CoinSlot> coinList = mDbAdapter.getCoinList(name, true);
-            for (CoinSlot coinSlot : coinList) {
-                csvOutputLines.add(coinSlot.getLegacyCsvExportProperties());
+                final File collectionFile = new File(dir, cleanName + ".csv");
+                final ArrayList<String[]> coinLines;
+                Cursor cursor = mDbAdapter.getCoinCursor(name);
+                try {
+                    coinLines = CoinSlot.getAllLegacyCsvExportProperties(cursor);
+                } finally {
+                    cursor.close();
+                }
+                writes.add(writerExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        writeToLegacyCsv(collectionFile, coinLines);
+                        reportProgress(numWritten.incrementAndGet(), numCollections);
+                        return null;
+                    }
+                }));
             }
-            try {
-                writeToLegacyCsv(outputFile, csvOutputLines);
-            } catch (IOException e) {
-                return mRes.getString(R.string.error_exporting, e.getMessage());
+
+            // Wait for the writes to finish, and report the first error (if any)
+            for (Future<Void> write : writes) {
+                try {
+                    write.get();
+                } catch (ExecutionException e) {
+                    return mRes.getString(R.string.error_exporting, e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return mRes.getString(R.string.error_exporting, e.getMessage());
+                }
             }
+        } finally {
+            // Stops any remaining writes if an error occurred
+            writerExecutor.shutdownNow();
         }
         return mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME);
     }
 
     /**
-     * This method imports collections from a JSON file
+     * This method imports collections from a JSON file, which may be gzip compressed.  The file
+     * is read and written to the database a coin at a time, all in one transaction, so that large
+     * backups don't need to be held in memory and the existing collections are kept if the import
+     * fails part way through.
      * @param inputStream input stream to read from
      * @return "" if successful, otherwise an error message to display
      */
     public String importCollectionsFromJson(InputStream inputStream) {
+        return importCollectionsFromJson(inputStream, null);
+    }
+
+    /**
+     * This method imports collections from a JSON file, which may be gzip compressed.  The file
+     * is read and written to the database a coin at a time, all in one transaction, so that large
+     * backups don't need to be held in memory and the existing collections are kept if the import
+     * fails part way through.
+     * @param inputStream input stream to read from
+     * @param fileName name of the file being imported, shown when exporting the changes since
+     *                 this backup, or null if not known
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromJson(InputStream inputStream, String fileName) {
 
         int importDatabaseVersion = 0;
-        ArrayList<CollectionListInfo> importedCollectionInfoList = new ArrayList<>();
-        ArrayList<ArrayList<CoinSlot>> importedCollectionContents = new ArrayList<>();
+        String backupId = null;
+        String fileDigest = null;
+        BackupChecksum checksum = new BackupChecksum();
         JsonReader reader;
 
         try {
-            reader = new JsonReader(new InputStreamReader(inputStream, JSON_CHARSET));
-        } catch (UnsupportedEncodingException e) {
+            // Files written by exportCollectionsToCompressedJson are detected by their contents
+            reader = new JsonReader(new BufferedReader(
+                    new InputStreamReader(decompressIfNeeded(inputStream), JSON_CHARSET), EXPORT_BUFFER_SIZE));
+        } catch (IOException e) {
             return mRes.getString(R.string.error_importing, e.getMessage());
         }
 
+        mDbAdapter.beginTransaction();
         try {
+            // Replace the existing collections (this is rolled back if the import fails)
+            mDbAdapter.dropCollectionInfoTable();
+            mDbAdapter.createCollectionInfoTable();
+
             // Parse the JSON file
             reader.beginObject();
             while (reader.hasNext()) {
@@ -278,14 +521,17 @@ public class ExportImportHelper {
                     case JSON_DB_VERSION:
                         importDatabaseVersion = reader.nextInt();
                         break;
+                    case JSON_BACKUP_ID:
+                        backupId = reader.nextString();
+                        break;
                     case JSON_COLLECTIONS:
-                        reader.beginArray();
-                        while (reader.hasNext()) {
-                            ArrayList<CoinSlot> coinList = new ArrayList<>();
-                            importedCollectionInfoList.add(new CollectionListInfo(reader, coinList));
-                            importedCollectionContents.add(coinList);
+                        String result = readJsonCollections(reader, checksum, false, false);
+                        if (!result.equals("")) {
+                            return result;
                         }
-                        reader.endArray();
+                        break;
+                    case JSON_FILE_DIGEST:
+                        fileDigest = reader.nextString();
                         break;
                     default:
                         reader.skipValue();
@@ -293,99 +539,432 @@ public class ExportImportHelper {
                 }
             }
             reader.endObject();
-            // All data has been parsed from CSV files so perform the DB steps to import
-            return updateDatabaseFromImport(importDatabaseVersion, importedCollectionInfoList,
-                    importedCollectionContents);
+
+            // Everything read so far is rolled back if the file was damaged
+            if (fileDigest != null && !fileDigest.equals(
+                    checksum.finishFile(importDatabaseVersion, backupId, null))) {
+                return mRes.getString(R.string.error_backup_damaged);
+            }
+
+            // Update any imported tables, if necessary
+            if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+                mDbAdapter.upgradeCollections(importDatabaseVersion, true);
+            }
+
+            // The collections now match the backup, so changes can be exported relative to it.
+            // (Older backups don't have an ID, so there's no base for exporting changes until
+            // the next full backup is exported.)
+            mDbAdapter.setBaseBackupToCurrent(backupId,
+                    (fileName != null) ? fileName : mRes.getString(R.string.restored_backup_name));
+            mDbAdapter.setTransactionSuccessful();
         } catch (IOException e) {
             return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
         } finally {
+            mDbAdapter.endTransaction();
+            // Statements may have been compiled against the tables that were rolled back
+            mDbAdapter.clearStatementCache();
             try {
                 reader.close();
             } catch (IOException ignored) {
                 // Can't close the file for some reason (shouldn't happen - ignore)
             }
         }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * Exports the collection information to gzip compressed JSON, which can be imported by
+     * importCollectionsFromJson.  Notes compress well, so this is much smaller than plain JSON
+     * for collections with many notes.
+     * @param outputStream output stream to write to
+     * @param filePath file path being written to
+     * @param compressionLevel deflate compression level, from Deflater.BEST_SPEED to
+     *                         Deflater.BEST_COMPRESSION, or Deflater.DEFAULT_COMPRESSION
+     * @return A message to be displayed to the user, whether successful or not
+     */
+    public String exportCollectionsToCompressedJson(OutputStream outputStream, String filePath,
+                                                    final int compressionLevel) {
+        GZIPOutputStream gzipStream;
+        try {
+            gzipStream = new GZIPOutputStream(outputStream, EXPORT_BUFFER_SIZE) {
+                {
+                    def.setLevel(compressionLevel);
+                }
+            };
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_exporting, e.getMessage());
+        }
+        // Closing the JSON writer finishes the compressed stream
+        return exportCollectionsToJson(gzipStream, filePath);
     }
 
     /**
-     * Update the database with the imported data
-     * @param importDatabaseVersion imported database version
-     * @param importedCollectionInfoList imported list of CollectionListInfo
-     * @param importedCollectionContents imported list of coins
-     * @return "" if successful, otherwise an error string
+     * Exports the collection information to JSON
+     * @param outputStream output stream to write to
+     * @param filePath file path being written to
+     * @return A message to be displayed to the user, whether successful or not
      */
-    private String updateDatabaseFromImport(int importDatabaseVersion,
-                                            ArrayList<CollectionListInfo> importedCollectionInfoList,
-                                            ArrayList<ArrayList<CoinSlot>> importedCollectionContents) {
+    public String exportCollectionsToJson(OutputStream outputStream, String filePath){
+
+        String backupId = UUID.randomUUID().toString();
+        BackupChecksum checksum = new BackupChecksum();
 
-        // Drop existing tables
-        ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
-        mDbAdapter.getAllTables(existingCollections);
-        for (int i = 0; i < existingCollections.size(); i++) {
-            CollectionListInfo info = existingCollections.get(i);
-            mDbAdapter.dropCollectionTable(info.getName());
+        // JsonWriter makes many small writes, so buffer them rather than passing each one
+        // through the encoder to the output stream
+        JsonWriter writer;
+        try {
+            writer = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(outputStream, JSON_CHARSET), EXPORT_BUFFER_SIZE));
+        } catch (UnsupportedEncodingException e) {
+            return mRes.getString(R.string.error_exporting, e.getMessage());
         }
-        mDbAdapter.dropCollectionInfoTable();
 
-        // Take the data we've stored and replace what's in the database with it
+        // The collections are read in one transaction so that they can't change while they're
+        // being written.  This backup only becomes the base for exporting changed collections
+        // once it's been written, so a failed export leaves the backup state unchanged.
+        mDbAdapter.beginTransaction();
         try {
-            // Add new collections
-            mDbAdapter.createCollectionInfoTable();
-            for (int i = 0; i < importedCollectionInfoList.size(); i++) {
-                CollectionListInfo collectionListInfo = importedCollectionInfoList.get(i);
-                ArrayList<CoinSlot> collectionContent = importedCollectionContents.get(i);
+            // Get all collection lists from the database
+            ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+            mDbAdapter.getAllTableSummaries(collectionListEntries);
 
-                // Check for duplicate or illegal names
-                int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
-                if (checkName != -1) {
-                    return mRes.getString(R.string.error_import);
+            writer.beginObject();
+            writer.name(JSON_DB_VERSION).value(MainApplication.DATABASE_VERSION);
+            writer.name(JSON_BACKUP_ID).value(backupId);
+            writer.name(JSON_COLLECTIONS).beginArray();
+            for (int i = 0; i < collectionListEntries.size(); i++) {
+                if (isCancelled()) {
+                    return mRes.getString(R.string.error_export_canceled);
                 }
-                mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, collectionContent);
+                // Add the collection and coin info, streaming the coins from the database
+                CollectionListInfo collectionListInfo = collectionListEntries.get(i);
+                collectionListInfo.writeToJson(writer, mDbAdapter, checksum);
+                reportProgress(i + 1, collectionListEntries.size());
+            }
+            writer.endArray();
+            // The digest covers the collection checksums, so it's computed as they're written
+            writer.name(JSON_FILE_DIGEST).value(
+                    checksum.finishFile(MainApplication.DATABASE_VERSION, backupId, null));
+            writer.endObject();
+            writer.flush();
+            mDbAdapter.setBaseBackupToCurrent(backupId, filePath);
+            mDbAdapter.setTransactionSuccessful();
+            return mRes.getString(R.string.success_export, filePath);
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_exporting, e.getMessage());
+        } finally {
+            mDbAdapter.endTransaction();
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // Can't close the file for some reason (shouldn't happen - ignore)
             }
+        }
+    }
 
-            // Update any imported tables, if necessary
-            if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
-                mDbAdapter.upgradeCollections(importDatabaseVersion, true);
+    /**
+     * Exports the collection information to the compact binary backup format (see
+     * CompactBackup for the layout)
+     * @param outputStream output stream to write to
+     * @param filePath file path being written to
+     * @return A message to be displayed to the user, whether successful or not
+     */
+    public String exportCollectionsToCompactBackup(OutputStream outputStream, String filePath) {
+
+        // Get all collection lists from the database
+        ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTableSummaries(collectionListEntries);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, EXPORT_BUFFER_SIZE));
+        try {
+            CompactBackup.writeHeader(out, MainApplication.DATABASE_VERSION, collectionListEntries.size());
+            for (int i = 0; i < collectionListEntries.size(); i++) {
+                if (isCancelled()) {
+                    return mRes.getString(R.string.error_export_canceled);
+                }
+                CollectionListInfo collectionListInfo = collectionListEntries.get(i);
+                Cursor cursor = mDbAdapter.getCoinCursor(collectionListInfo.getName());
+                try {
+                    CompactBackup.writeCollection(out, collectionListInfo, cursor);
+                } finally {
+                    cursor.close();
+                }
+                reportProgress(i + 1, collectionListEntries.size());
+            }
+            out.flush();
+            return mRes.getString(R.string.success_export, filePath);
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_exporting, e.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Can't close the file for some reason (shouldn't happen - ignore)
             }
-        } catch (SQLException e) {
-            // Report an import error message to display on the UI thread
-            return mRes.getString(R.string.error_import);
         }
+    }
 
-        // Success!
+    /**
+     * Reads the array of collections from a JSON backup, checking each collection's checksum
+     * and streaming its coins into the database as they are read
+     * @param reader reader positioned at the start of the array
+     * @param checksum checksum to compute, which the file digest is checked against afterwards
+     * @param replaceExisting if true, existing collections with the same names as the imported
+     *                        ones are replaced.  Otherwise the names must not already be used.
+     * @param verifyOnly if true, only check the collections without changing the database
+     * @return "" if successful, otherwise an error message to display
+     * @throws IOException if an error occurred reading the file
+     * @throws SQLException if a database error occurred
+     */
+    private String readJsonCollections(JsonReader reader, final BackupChecksum checksum,
+                                       boolean replaceExisting, final boolean verifyOnly) throws IOException, SQLException {
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            if (isCancelled()) {
+                return mRes.getString(R.string.error_import_canceled);
+            }
+            // The coins may come before the collection attributes, so insert
+            // a placeholder collection to add them to and fill it in afterwards
+            final long collectionId = verifyOnly ? -1 : mDbAdapter.createPlaceholderCollection(i);
+            CollectionListInfo collectionListInfo = new CollectionListInfo(reader,
+                    new CollectionListInfo.CoinSlotHandler() {
+                        @Override
+                        public void onCoinSlot(CoinSlot coinSlot) {
+                            checksum.updateCoin(coinSlot);
+                            if (!verifyOnly) {
+                                mDbAdapter.insertCoinSlot(collectionId, coinSlot);
+                            }
+                        }
+                    });
+
+            // Backups from older versions of the app don't have checksums
+            String collectionChecksum = checksum.finishCollection(collectionListInfo);
+            if (collectionListInfo.getBackupChecksum() != null
+                    && !collectionListInfo.getBackupChecksum().equals(collectionChecksum)) {
+                return mRes.getString(R.string.error_backup_collection_damaged, collectionListInfo.getName());
+            }
+            if (verifyOnly) {
+                continue;
+            }
+
+            if (replaceExisting) {
+                dropCollectionWithName(collectionListInfo.getName());
+            }
+
+            // Check for duplicate or illegal names
+            int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
+            if (checkName != -1) {
+                return mRes.getString(R.string.error_import);
+            }
+            mDbAdapter.updateCollectionInfo(collectionId, collectionListInfo, i);
+        }
+        reader.endArray();
         return "";
     }
 
     /**
-     * Exports the collection information to JSON
+     * Checks a backup file for damage without changing the database, by reading it through
+     * once.  For JSON backups the collection checksums and file digest are checked (backups
+     * from older versions of the app don't have these, so only their format is checked.)
+     * Compact backups don't have checksums, so only their format is checked.
+     * @param inputStream input stream to read from
+     * @return "" if the backup can be imported, otherwise an error message to display
+     */
+    public String verifyBackup(InputStream inputStream) {
+
+        BufferedInputStream bufferedStream;
+        byte[] header;
+        try {
+            bufferedStream = decompressIfNeeded(inputStream);
+            header = peekHeader(bufferedStream, CompactBackup.MAGIC.length);
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        }
+        if (CompactBackup.isCompactBackup(header, header.length)) {
+            return verifyCompactBackup(bufferedStream);
+        }
+
+        int importDatabaseVersion = 0;
+        String backupId = null;
+        ArrayList<String> collectionOrder = null;
+        String fileDigest = null;
+        BackupChecksum checksum = new BackupChecksum();
+        JsonReader reader;
+        try {
+            reader = new JsonReader(new BufferedReader(
+                    new InputStreamReader(bufferedStream, JSON_CHARSET), EXPORT_BUFFER_SIZE));
+        } catch (UnsupportedEncodingException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        }
+
+        try {
+            // This handles both full backups and changed collections
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case JSON_DB_VERSION:
+                        importDatabaseVersion = reader.nextInt();
+                        break;
+                    case JSON_BACKUP_ID:
+                    case JSON_BASE_BACKUP_ID:
+                        backupId = reader.nextString();
+                        break;
+                    case JSON_COLLECTION_ORDER:
+                        collectionOrder = new ArrayList<>();
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            collectionOrder.add(reader.nextString().replace('[', ' ').replace(']', ' '));
+                        }
+                        reader.endArray();
+                        break;
+                    case JSON_COLLECTIONS:
+                        String result = readJsonCollections(reader, checksum, false, true);
+                        if (!result.equals("")) {
+                            return result;
+                        }
+                        break;
+                    case JSON_FILE_DIGEST:
+                        fileDigest = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            if (fileDigest != null && !fileDigest.equals(
+                    checksum.finishFile(importDatabaseVersion, backupId, collectionOrder))) {
+                return mRes.getString(R.string.error_backup_damaged);
+            }
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected values this way
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Can't close the file for some reason (shouldn't happen - ignore)
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Checks that a compact backup can be read, without changing the database
+     * @param inputStream input stream to read from
+     * @return "" if the backup can be imported, otherwise an error message to display
+     */
+    private String verifyCompactBackup(InputStream inputStream) {
+        DataInputStream in = new DataInputStream(inputStream);
+        try {
+            int numCollections = CompactBackup.readHeader(in)[1];
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            for (int i = 0; i < numCollections; i++) {
+                coinList.clear();
+                CompactBackup.readCollection(in, coinList);
+            }
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // Can't close the file for some reason (shouldn't happen - ignore)
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Removes a collection, if there is one with a name matching the given name (ignoring case,
+     * as checkCollectionName does)
+     * @param collectionName name to look for
+     * @throws SQLException if a database error occurred
+     */
+    private void dropCollectionWithName(String collectionName) throws SQLException {
+        Locale defaultLocale = Locale.getDefault();
+        String existingName = null;
+        Cursor cursor = mDbAdapter.getAllCollectionNames();
+        try {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(cursor.getColumnIndex(CollectionListInfo.COL_NAME));
+                if (name.toLowerCase(defaultLocale).equals(collectionName.toLowerCase(defaultLocale))) {
+                    existingName = name;
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (existingName != null) {
+            mDbAdapter.dropCollectionTable(existingName);
+        }
+    }
+
+    /**
+     * Exports only the collections that changed since the last full JSON backup, along with
+     * a manifest listing every collection (in display order) and the full backup the changes
+     * apply to.  Importing the full backup and then this file restores the current collections.
      * @param outputStream output stream to write to
      * @param filePath file path being written to
      * @return A message to be displayed to the user, whether successful or not
      */
-    public String exportCollectionsToJson(OutputStream outputStream, String filePath){
+    public String exportChangedCollectionsToJson(OutputStream outputStream, String filePath) {
 
-        // Get all collection lists from the database
+        String baseBackupId = mDbAdapter.fetchBaseBackupId();
+        if (baseBackupId == null) {
+            return mRes.getString(R.string.error_no_base_backup);
+        }
+
+        // Get all collection lists from the database, and the ones that changed
         ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
-        mDbAdapter.getAllTables(collectionListEntries);
+        ArrayList<CollectionListInfo> changedCollectionListEntries = new ArrayList<>();
+        mDbAdapter.getAllTableSummaries(collectionListEntries);
+        mDbAdapter.getChangedTableSummaries(changedCollectionListEntries);
+        ArrayList<String> collectionOrder = new ArrayList<>();
+        for (CollectionListInfo collectionListInfo : collectionListEntries) {
+            collectionOrder.add(collectionListInfo.getName());
+        }
+        BackupChecksum checksum = new BackupChecksum();
 
         JsonWriter writer;
         try {
-            writer = new JsonWriter(new OutputStreamWriter(outputStream, JSON_CHARSET));
+            writer = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(outputStream, JSON_CHARSET), EXPORT_BUFFER_SIZE));
         } catch (UnsupportedEncodingException e) {
             return mRes.getString(R.string.error_exporting, e.getMessage());
         }
 
         try {
+            // The base backup ID must be first, since it's used to detect the type of file
             writer.beginObject();
+            writer.name(JSON_BASE_BACKUP_ID).value(baseBackupId);
+            writer.name(JSON_BASE_BACKUP_NAME).value(mDbAdapter.fetchBaseBackupName());
             writer.name(JSON_DB_VERSION).value(MainApplication.DATABASE_VERSION);
+            writer.name(JSON_COLLECTION_ORDER).beginArray();
+            for (String collectionName : collectionOrder) {
+                writer.value(collectionName);
+            }
+            writer.endArray();
             writer.name(JSON_COLLECTIONS).beginArray();
-            for (int i = 0; i < collectionListEntries.size(); i++) {
-                // Add the collection and coin info
-                CollectionListInfo collectionListInfo = collectionListEntries.get(i);
-                ArrayList<CoinSlot> coinList = mDbAdapter.getCoinList(collectionListInfo.getName(), true);
-                collectionListInfo.writeToJson(writer, mDbAdapter, coinList);
+            for (int i = 0; i < changedCollectionListEntries.size(); i++) {
+                if (isCancelled()) {
+                    return mRes.getString(R.string.error_export_canceled);
+                }
+                changedCollectionListEntries.get(i).writeToJson(writer, mDbAdapter, checksum);
+                reportProgress(i + 1, changedCollectionListEntries.size());
             }
             writer.endArray();
+            writer.name(JSON_FILE_DIGEST).value(
+                    checksum.finishFile(MainApplication.DATABASE_VERSION, baseBackupId, collectionOrder));
             writer.endObject();
             return mRes.getString(R.string.success_export, filePath);
         } catch (IOException e) {
@@ -399,6 +978,305 @@ public class ExportImportHelper {
         }
     }
 
+    /**
+     * Imports a file written by exportChangedCollectionsToJson, applying the changes to the
+     * collections restored from its full backup.  The changes are applied in one transaction.
+     * @param inputStream input stream to read from
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importChangedCollectionsFromJson(InputStream inputStream) {
+
+        int importDatabaseVersion = 0;
+        String baseBackupId = null;
+        String baseBackupName = null;
+        ArrayList<String> collectionOrder = null;
+        String fileDigest = null;
+        BackupChecksum checksum = new BackupChecksum();
+        JsonReader reader;
+
+        try {
+            reader = new JsonReader(new BufferedReader(
+                    new InputStreamReader(inputStream, JSON_CHARSET), EXPORT_BUFFER_SIZE));
+        } catch (UnsupportedEncodingException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        }
+
+        mDbAdapter.beginTransaction();
+        try {
+            // Parse the JSON file, replacing the changed collections as they are read
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case JSON_BASE_BACKUP_ID:
+                        baseBackupId = reader.nextString();
+                        break;
+                    case JSON_BASE_BACKUP_NAME:
+                        baseBackupName = reader.nextString();
+                        break;
+                    case JSON_DB_VERSION:
+                        importDatabaseVersion = reader.nextInt();
+                        break;
+                    case JSON_COLLECTION_ORDER:
+                        collectionOrder = new ArrayList<>();
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            // Strip out all bad characters, to match the collection names
+                            collectionOrder.add(reader.nextString().replace('[', ' ').replace(']', ' '));
+                        }
+                        reader.endArray();
+                        break;
+                    case JSON_COLLECTIONS:
+                        // Don't apply the changes to the wrong collections
+                        if (baseBackupId == null) {
+                            return mRes.getString(R.string.error_import);
+                        } else if (!baseBackupId.equals(mDbAdapter.fetchBaseBackupId())) {
+                            return mRes.getString(R.string.error_wrong_base_backup,
+                                    (baseBackupName != null) ? baseBackupName : "");
+                        }
+                        String result = readJsonCollections(reader, checksum, true, false);
+                        if (!result.equals("")) {
+                            return result;
+                        }
+                        break;
+                    case JSON_FILE_DIGEST:
+                        fileDigest = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            if (baseBackupId == null || collectionOrder == null) {
+                return mRes.getString(R.string.error_import);
+            } else if (fileDigest != null && !fileDigest.equals(
+                    checksum.finishFile(importDatabaseVersion, baseBackupId, collectionOrder))) {
+                return mRes.getString(R.string.error_backup_damaged);
+            } else if (!baseBackupId.equals(mDbAdapter.fetchBaseBackupId())) {
+                return mRes.getString(R.string.error_wrong_base_backup,
+                        (baseBackupName != null) ? baseBackupName : "");
+            }
+
+            // The collections from the full backup were upgraded when it was imported, so the
+            // changes can't be upgraded separately
+            if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+                return mRes.getString(R.string.error_wrong_base_backup,
+                        (baseBackupName != null) ? baseBackupName : "");
+            }
+
+            // Remove the collections that were deleted since the full backup, and put the rest
+            // in order (any that are missing mean the changes don't match the collections)
+            ArrayList<CollectionListInfo> existingCollections = new ArrayList<>();
+            mDbAdapter.getAllTableSummaries(existingCollections);
+            for (CollectionListInfo collectionListInfo : existingCollections) {
+                if (!collectionOrder.contains(collectionListInfo.getName())) {
+                    mDbAdapter.dropCollectionTable(collectionListInfo.getName());
+                }
+            }
+            for (int i = 0; i < collectionOrder.size(); i++) {
+                mDbAdapter.updateDisplayOrder(collectionOrder.get(i), i);
+            }
+            mDbAdapter.setTransactionSuccessful();
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
+            // Statements may have been compiled against the tables that were dropped
+            mDbAdapter.clearStatementCache();
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Can't close the file for some reason (shouldn't happen - ignore)
+            }
+        }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * Restores the collections from a full JSON backup followed by files of the changes since
+     * that backup, all in one transaction
+     * @param baseInputStream input stream to read the full backup from
+     * @param changesInputStreams input streams to read the changes from, oldest first
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromJsonWithChanges(InputStream baseInputStream, List<InputStream> changesInputStreams) {
+        mDbAdapter.beginTransaction();
+        try {
+            String result = importCollectionsFromJson(baseInputStream);
+            for (int i = 0; i < changesInputStreams.size() && result.equals(""); i++) {
+                result = importChangedCollectionsFromJson(changesInputStreams.get(i));
+            }
+            if (result.equals("")) {
+                mDbAdapter.setTransactionSuccessful();
+            }
+            return result;
+        } finally {
+            mDbAdapter.endTransaction();
+        }
+    }
+
+    /**
+     * This method imports collections from a compact binary backup, replacing the existing
+     * collections in one transaction
+     * @param inputStream input stream to read from
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromCompactBackup(InputStream inputStream) {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream, EXPORT_BUFFER_SIZE));
+        mDbAdapter.beginTransaction();
+        try {
+            int[] header = CompactBackup.readHeader(in);
+            int importDatabaseVersion = header[0];
+            int numCollections = header[1];
+
+            // Replace the existing collections (this is rolled back if the import fails)
+            mDbAdapter.dropCollectionInfoTable();
+            mDbAdapter.createCollectionInfoTable();
+            for (int i = 0; i < numCollections; i++) {
+                if (isCancelled()) {
+                    return mRes.getString(R.string.error_import_canceled);
+                }
+                ArrayList<CoinSlot> coinList = new ArrayList<>();
+                CollectionListInfo collectionListInfo = CompactBackup.readCollection(in, coinList);
+
+                // Check for duplicate or illegal names
+                int checkName = mDbAdapter.checkCollectionName(collectionListInfo.getName());
+                if (checkName != -1) {
+                    return mRes.getString(R.string.error_import);
+                }
+                mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, coinList);
+                reportProgress(i + 1, numCollections);
+            }
+
+            // Update any imported tables, if necessary
+            if (importDatabaseVersion != MainApplication.DATABASE_VERSION) {
+                mDbAdapter.upgradeCollections(importDatabaseVersion, true);
+            }
+
+            // This format can't be used as the base for exporting changed collections
+            mDbAdapter.setBaseBackup(null, null, 0);
+            mDbAdapter.setTransactionSuccessful();
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        } catch (SQLException e) {
+            // Report an import error message to display on the UI thread
+            return mRes.getString(R.string.error_import);
+        } finally {
+            mDbAdapter.endTransaction();
+            // Statements may have been compiled against the tables that were rolled back
+            mDbAdapter.clearStatementCache();
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // Can't close the file for some reason (shouldn't happen - ignore)
+            }
+        }
+
+        // Success!
+        return "";
+    }
+
+    /**
+     * This method imports collections from a backup file, checking the start of the file to
+     * tell whether it's a compact backup or JSON (which may be gzip compressed)
+     * @param inputStream input stream to read from
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromBackup(InputStream inputStream) {
+        return importCollectionsFromBackup(inputStream, null);
+    }
+
+    /**
+     * This method imports collections from a backup file, checking the start of the file to
+     * tell whether it's a compact backup or JSON (which may be gzip compressed)
+     * @param inputStream input stream to read from
+     * @param fileName name of the file being imported, or null if not known
+     * @return "" if successful, otherwise an error message to display
+     */
+    public String importCollectionsFromBackup(InputStream inputStream, String fileName) {
+
+        BufferedInputStream bufferedStream;
+        byte[] header;
+        try {
+            bufferedStream = decompressIfNeeded(inputStream);
+            header = peekHeader(bufferedStream, Math.max(CompactBackup.MAGIC.length, JSON_CHANGES_PREFIX.length()));
+        } catch (IOException e) {
+            return mRes.getString(R.string.error_importing, e.getMessage());
+        }
+
+        if (CompactBackup.isCompactBackup(header, header.length)) {
+            return importCollectionsFromCompactBackup(bufferedStream);
+        } else if (isChangedCollectionsFile(header, header.length)) {
+            return importChangedCollectionsFromJson(bufferedStream);
+        } else {
+            return importCollectionsFromJson(bufferedStream, fileName);
+        }
+    }
+
+    /**
+     * Reads the first bytes of a stream without consuming them
+     * @param bufferedStream stream to read from
+     * @param length maximum number of bytes to read
+     * @return the bytes read, which is fewer than length if the stream is shorter
+     * @throws IOException if an error occurred reading the stream
+     */
+    private static byte[] peekHeader(BufferedInputStream bufferedStream, int length) throws IOException {
+        byte[] header = new byte[length];
+        int headerLength = 0;
+        int numRead;
+        bufferedStream.mark(length);
+        while (headerLength < length
+                && (numRead = bufferedStream.read(header, headerLength, length - headerLength)) != -1) {
+            headerLength += numRead;
+        }
+        bufferedStream.reset();
+        return Arrays.copyOf(header, headerLength);
+    }
+
+    /**
+     * Checks the start of a stream for the gzip magic bytes, and if found wraps the stream so
+     * that the decompressed contents are read from it
+     * @param inputStream stream to read from
+     * @return stream of the file contents
+     * @throws IOException if an error occurred reading the stream
+     */
+    private static BufferedInputStream decompressIfNeeded(InputStream inputStream) throws IOException {
+        BufferedInputStream bufferedStream = new BufferedInputStream(inputStream, EXPORT_BUFFER_SIZE);
+        byte[] header = peekHeader(bufferedStream, 2);
+        if (header.length == 2
+                && (header[0] & 0xff) == (GZIPInputStream.GZIP_MAGIC & 0xff)
+                && (header[1] & 0xff) == ((GZIPInputStream.GZIP_MAGIC >> 8) & 0xff)) {
+            return new BufferedInputStream(
+                    new GZIPInputStream(bufferedStream, EXPORT_BUFFER_SIZE), EXPORT_BUFFER_SIZE);
+        }
+        return bufferedStream;
+    }
+
+    /**
+     * Checks whether the start of a file matches a file written by exportChangedCollectionsToJson
+     * @param header bytes read from the start of the file
+     * @param length number of bytes read
+     * @return true if the file contains changed collections
+     */
+    private static boolean isChangedCollectionsFile(byte[] header, int length) {
+        if (length < JSON_CHANGES_PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < JSON_CHANGES_PREFIX.length(); i++) {
+            if (header[i] != JSON_CHANGES_PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Extract the contents from a CSV file into a 2D list of strings
      * @param inputFile file to read
@@ -430,7 +1308,7 @@ public class ExportImportHelper {
      * @throws IOException if an error occurs
      */
     private void writeToLegacyCsv(File file, ArrayList<String[]> contents) throws IOException {
-        CSVWriter csvWriter = new CSVWriter(new FileWriter(file));
+        CSVWriter csvWriter = new CSVWriter(new BufferedWriter(new FileWriter(file), EXPORT_BUFFER_SIZE));
         for (String[] fileLine : contents) {
             csvWriter.writeNext(fileLine);
         }
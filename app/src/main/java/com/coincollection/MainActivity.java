@@ -67,6 +67,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.zip.Deflater;
 
 import static com.coincollection.CollectionListInfo.COL_NAME;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_FOLDER_NAME;
@@ -88,6 +89,7 @@ public class MainActivity extends BaseActivity {
     // Used for the Update Database functionality
     private boolean mIsImportingCollection = false;
     private boolean mImportExportLegacyCsv = false;
+    private int mExportFormat = EXPORT_JSON_BACKUP;
     private Uri mImportExportFileUri = null;
 
     // App permission requests
@@ -96,6 +98,18 @@ public class MainActivity extends BaseActivity {
     private final static int PICK_IMPORT_FILE = 2;
     private final static int PICK_EXPORT_FILE = 3;
 
+    // Back-up file types
+    private final static String JSON_MIME_TYPE = "application/json";
+    private final static String COMPACT_BACKUP_MIME_TYPE = "application/octet-stream";
+    private final static String COMPACT_BACKUP_FILE_EXT = ".ccb";
+    private final static String COMPRESSED_JSON_MIME_TYPE = "application/gzip";
+    private final static String COMPRESSED_JSON_FILE_EXT = ".json.gz";
+    private final static int EXPORT_JSON_BACKUP = 0;
+    private final static int EXPORT_COMPRESSED_JSON_BACKUP = 1;
+    private final static int EXPORT_COMPACT_BACKUP = 2;
+    private final static int EXPORT_CHANGED_COLLECTIONS = 3;
+    private final static String _EXPORT_FORMAT = "ExportFormat";
+
     // Default list item view positions
     //  0. Add Collection
     //  1. Remove Collection
@@ -138,6 +152,11 @@ public class MainActivity extends BaseActivity {
 
         setContentView(R.layout.main_activity_layout);
 
+        // The file picker may be showing, and its result depends on the format chosen
+        if (savedInstanceState != null) {
+            mExportFormat = savedInstanceState.getInt(_EXPORT_FORMAT, EXPORT_JSON_BACKUP);
+        }
+
         // In legacy code we used first_Time_screen2 here so that the message would be displayed
         // until they made it to the create collection screen.  That isn't necessary anymore, but
         // if they are upgrading from that don't show them the help screen if first_Time_screen1
@@ -347,6 +366,14 @@ public class MainActivity extends BaseActivity {
         // is required, but just open and close the database regularly as needed after that.
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        // Keep the export format for when the file picker returns
+        outState.putInt(_EXPORT_FORMAT, mExportFormat);
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -373,14 +400,15 @@ public class MainActivity extends BaseActivity {
                 return openDbAdapterForAsyncThread();
             }
             case TASK_IMPORT_COLLECTIONS: {
-                ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                ExportImportHelper helper = newExportImportHelper();
                 if (mImportExportLegacyCsv) {
                     return helper.importCollectionsFromLegacyCSV(getLegacyExportFolderName());
                 } else {
                     InputStream inputStream = null;
                     try {
                         inputStream = getContentResolver().openInputStream(mImportExportFileUri);
-                        return helper.importCollectionsFromJson(inputStream);
+                        return helper.importCollectionsFromBackup(inputStream,
+                                getFileNameFromUri(mImportExportFileUri));
                     } catch (FileNotFoundException e) {
                         return mRes.getString(R.string.error_importing, e.getMessage());
                     } finally {
@@ -395,15 +423,27 @@ public class MainActivity extends BaseActivity {
                 }
             }
             case TASK_EXPORT_COLLECTIONS: {
-                ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+                ExportImportHelper helper = newExportImportHelper();
                 if (mImportExportLegacyCsv) {
                     return helper.exportCollectionsToLegacyCSV(getLegacyExportFolderName());
                 } else {
                     OutputStream outputStream = null;
                     try {
                         outputStream = getContentResolver().openOutputStream(mImportExportFileUri);
-                        return helper.exportCollectionsToJson(outputStream,
-                                getFileNameFromUri(mImportExportFileUri));
+                        switch (mExportFormat) {
+                            case EXPORT_COMPRESSED_JSON_BACKUP:
+                                return helper.exportCollectionsToCompressedJson(outputStream,
+                                        getFileNameFromUri(mImportExportFileUri), Deflater.DEFAULT_COMPRESSION);
+                            case EXPORT_COMPACT_BACKUP:
+                                return helper.exportCollectionsToCompactBackup(outputStream,
+                                        getFileNameFromUri(mImportExportFileUri));
+                            case EXPORT_CHANGED_COLLECTIONS:
+                                return helper.exportChangedCollectionsToJson(outputStream,
+                                        getFileNameFromUri(mImportExportFileUri));
+                            default:
+                                return helper.exportCollectionsToJson(outputStream,
+                                        getFileNameFromUri(mImportExportFileUri));
+                        }
                     } catch (FileNotFoundException e) {
                         return mRes.getString(R.string.error_importing, e.getMessage());
                     } finally {
@@ -421,6 +461,28 @@ public class MainActivity extends BaseActivity {
         return "";
     }
 
+    /**
+     * Creates a helper for importing or exporting on the async task, which reports its
+     * progress through the task and stops early if the task is cancelled
+     * @return helper
+     */
+    private ExportImportHelper newExportImportHelper() {
+        final AsyncProgressTask task = mTask;
+        ExportImportHelper helper = new ExportImportHelper(mRes, mDbAdapter);
+        helper.setProgressListener(new ExportImportHelper.ProgressListener() {
+            @Override
+            public void onProgress(float fraction) {
+                task.publishProgress(fraction);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return task.isCancelled();
+            }
+        });
+        return helper;
+    }
+
     @Override
     public void asyncProgressOnPreExecute() {
         switch (mTask.mAsyncTaskId) {
@@ -443,7 +505,11 @@ public class MainActivity extends BaseActivity {
     public void asyncProgressOnPostExecute(String resultStr) {
         super.asyncProgressOnPostExecute(resultStr);
         dismissProgressDialog();
-        if (mTask.mAsyncTaskId == TASK_IMPORT_COLLECTIONS) {
+        if (mTask.mAsyncTaskId == TASK_OPEN_DATABASE && mDbAdapter == null) {
+            // The database was opened for the previous instance of the activity (Ex: before
+            // the screen rotated), so just pick up the already open adapter
+            openDbAdapterForUIThread();
+        } else if (mTask.mAsyncTaskId == TASK_IMPORT_COLLECTIONS) {
             mIsImportingCollection = false;
         }
         updateCollectionListFromDatabaseAndUpdateViewForUIThread();
@@ -509,7 +575,9 @@ public class MainActivity extends BaseActivity {
                 android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
             Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
-            intent.setType("application/json");
+            // Either JSON or compact back-up files can be imported
+            intent.setType("*/*");
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {JSON_MIME_TYPE, COMPRESSED_JSON_MIME_TYPE, COMPACT_BACKUP_MIME_TYPE});
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 // The files should preferably be placed in the downloads folder
                 Uri pickerInitialUri = Uri.parse(Environment.DIRECTORY_DOWNLOADS);
@@ -546,17 +614,7 @@ public class MainActivity extends BaseActivity {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // Indicate that we're using the legacy CSV
             mImportExportLegacyCsv = false;
-
-            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
-            intent.addCategory(Intent.CATEGORY_OPENABLE);
-            intent.setType("application/json");
-            intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + ".json");
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                // The files should preferably be placed in the downloads folder
-                Uri pickerInitialUri = Uri.parse(Environment.DIRECTORY_DOWNLOADS);
-                intent.putExtra(DocumentsContract.EXTRA_INITIAL_URI, pickerInitialUri);
-            }
-            startActivityForResult(intent, PICK_EXPORT_FILE);
+            promptJsonOrCompactExport();
         } else {
             // Check for WRITE_EXTERNAL_STORAGE permissions (must request starting in API Level 23)
             // hasPermissions() will kick off the permissions request and the handler will re-call
@@ -774,6 +832,12 @@ public class MainActivity extends BaseActivity {
             // We need this so that new collections that are added/removed get shown
 
             updateCollectionListFromDatabaseAndUpdateViewForUIThread();
+
+            // Reload the recently opened collections that were changed while they were open,
+            // so that they open right away next time
+            if (mUseAsyncTasks && mDbAdapter != null) {
+                CoinListCache.getInstance().prefetch(mDbAdapter);
+            }
         }
     }
 
@@ -785,7 +849,7 @@ public class MainActivity extends BaseActivity {
 
         //Get a list of all the database tables
         try {
-            mDbAdapter.getAllTables(mCollectionListEntries);
+            mDbAdapter.getAllTableSummaries(mCollectionListEntries);
         } catch (SQLException e){
             showCancelableAlert(mRes.getString(R.string.error_reading_database));
         }
@@ -1062,6 +1126,59 @@ public class MainActivity extends BaseActivity {
         return new SimpleDateFormat("MMddyy", Locale.getDefault()).format(new Date());
     }
 
+    /**
+     * Allow users to pick between exporting a JSON, compressed JSON, or compact back-up file (or
+     * just the changes since their last JSON back-up, if there is one), then have them choose
+     * where to save it
+     */
+    private void promptJsonOrCompactExport() {
+
+        boolean hasBaseBackup = (mDbAdapter.fetchBaseBackupId() != null);
+        String baseBackupName = mDbAdapter.fetchBaseBackupName();
+        if (baseBackupName == null) {
+            baseBackupName = mRes.getString(R.string.restored_backup_name);
+        }
+        CharSequence[] actionsList = new CharSequence[hasBaseBackup ? 4 : 3];
+        actionsList[EXPORT_JSON_BACKUP] = mRes.getString(R.string.json_backup_file);
+        actionsList[EXPORT_COMPRESSED_JSON_BACKUP] = mRes.getString(R.string.compressed_json_backup_file);
+        actionsList[EXPORT_COMPACT_BACKUP] = mRes.getString(R.string.compact_backup_file);
+        if (hasBaseBackup) {
+            actionsList[EXPORT_CHANGED_COLLECTIONS] = mRes.getString(R.string.changed_backup_file, baseBackupName);
+        }
+        showAlert(newBuilder()
+                .setTitle(mRes.getString(R.string.export_format_message))
+                .setItems(actionsList, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int item) {
+                        dialog.dismiss();
+                        mExportFormat = item;
+
+                        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        if (mExportFormat == EXPORT_COMPACT_BACKUP) {
+                            intent.setType(COMPACT_BACKUP_MIME_TYPE);
+                            intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString()
+                                    + COMPACT_BACKUP_FILE_EXT);
+                        } else if (mExportFormat == EXPORT_COMPRESSED_JSON_BACKUP) {
+                            intent.setType(COMPRESSED_JSON_MIME_TYPE);
+                            intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString()
+                                    + COMPRESSED_JSON_FILE_EXT);
+                        } else if (mExportFormat == EXPORT_CHANGED_COLLECTIONS) {
+                            intent.setType(JSON_MIME_TYPE);
+                            intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-changes-" + getTodayDateString() + ".json");
+                        } else {
+                            intent.setType(JSON_MIME_TYPE);
+                            intent.putExtra(Intent.EXTRA_TITLE, "coin-collection-" + getTodayDateString() + ".json");
+                        }
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                            // The files should preferably be placed in the downloads folder
+                            Uri pickerInitialUri = Uri.parse(Environment.DIRECTORY_DOWNLOADS);
+                            intent.putExtra(DocumentsContract.EXTRA_INITIAL_URI, pickerInitialUri);
+                        }
+                        startActivityForResult(intent, PICK_EXPORT_FILE);
+                    }
+                }));
+    }
+
     /**
      * For now, allow users to pick between an import file or legacy storage
      * - Eventually legacy storage won't be an option
@@ -0,0 +1,151 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.coincollection.helper;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of compiled statements, keyed by the table the statement operates on and
+ * the kind of statement. Statements returned by the cache must not be closed by the caller, and
+ * callers should synchronize on the cache while binding and executing a statement, since the
+ * statements are shared and may be closed when evicted.
+ */
+public class CompiledStatementCache {
+
+    private final LinkedHashMap<StatementKey, SQLiteStatement> mStatements;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * Creates the cache
+     * @param maxSize maximum number of compiled statements to hold onto
+     */
+    public CompiledStatementCache(final int maxSize) {
+        mStatements = new LinkedHashMap<StatementKey, SQLiteStatement>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StatementKey, SQLiteStatement> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a compiled statement from the cache, compiling it if it isn't already present
+     * @param db database to compile the statement against
+     * @param tableName table the statement operates on
+     * @param kind the kind of statement (one statement is cached per table and kind)
+     * @param sqlCmd SQL to compile if the statement isn't cached
+     * @return compiled statement
+     */
+    public synchronized SQLiteStatement get(SQLiteDatabase db, String tableName, String kind, String sqlCmd) {
+        StatementKey key = new StatementKey(tableName, kind);
+        SQLiteStatement compiledStatement = mStatements.get(key);
+        if (compiledStatement != null) {
+            mHitCount++;
+            return compiledStatement;
+        }
+        mMissCount++;
+        compiledStatement = db.compileStatement(sqlCmd);
+        mStatements.put(key, compiledStatement);
+        return compiledStatement;
+    }
+
+    /**
+     * Closes and removes any statements that operate on a table
+     * @param tableName table name
+     */
+    public synchronized void invalidate(String tableName) {
+        Iterator<Map.Entry<StatementKey, SQLiteStatement>> iterator = mStatements.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<StatementKey, SQLiteStatement> entry = iterator.next();
+            if (entry.getKey().mTableName.equals(tableName)) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes and removes all statements
+     */
+    public synchronized void clear() {
+        for (SQLiteStatement compiledStatement : mStatements.values()) {
+            compiledStatement.close();
+        }
+        mStatements.clear();
+    }
+
+    /**
+     * @return the number of statements currently cached
+     */
+    public synchronized int size() {
+        return mStatements.size();
+    }
+
+    /**
+     * @return the number of lookups that returned an already compiled statement
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of lookups that required compiling a statement
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Cache key made up of the table name and statement kind
+     */
+    private static class StatementKey {
+        private final String mTableName;
+        private final String mKind;
+
+        StatementKey(String tableName, String kind) {
+            mTableName = tableName;
+            mKind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            StatementKey key = (StatementKey) o;
+            return mTableName.equals(key.mTableName) && mKind.equals(key.mKind);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mTableName.hashCode() + mKind.hashCode();
+        }
+    }
+}
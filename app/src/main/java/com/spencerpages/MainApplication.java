@@ -23,6 +23,7 @@ package com.spencerpages;
 import android.app.Application;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.coincollection.CollectionInfo;
@@ -57,14 +58,16 @@ import com.spencerpages.collections.SusanBAnthonyDollars;
 import com.spencerpages.collections.WalkingLibertyHalfDollars;
 import com.spencerpages.collections.WashingtonQuarters;
 
-import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
-import static com.coincollection.CoinSlot.COL_ADV_NOTES;
-import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static com.coincollection.CoinSlot.COL_COIN_MINT;
 import static com.coincollection.CollectionListInfo.COL_COIN_TYPE;
+import static com.coincollection.CollectionListInfo.COL_COLLECTED;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY;
 import static com.coincollection.CollectionListInfo.COL_DISPLAY_ORDER;
 import static com.coincollection.CollectionListInfo.COL_END_YEAR;
+import static com.coincollection.CollectionListInfo.COL_MOD_VERSION;
 import static com.coincollection.CollectionListInfo.COL_NAME;
 import static com.coincollection.CollectionListInfo.COL_SHOW_CHECKBOXES;
 import static com.coincollection.CollectionListInfo.COL_SHOW_MINT_MARKS;
@@ -116,12 +119,40 @@ public class MainApplication extends Application {
 
     public static final String DATABASE_NAME = "CoinCollection";
 
+    // Journal mode to open the database with (see DatabaseHelper)
+    public static final int DATABASE_JOURNAL_MODE = DatabaseHelper.JOURNAL_MODE_WAL;
+
     private final DatabaseAdapter mDbAdapter = new DatabaseAdapter(this);
 
     public DatabaseAdapter getDbAdapter() {
         return mDbAdapter;
     }
 
+    // Runs write-ahead log checkpoints off of the UI thread
+    private final ExecutorService mCheckpointExecutor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Once the app is in the background, copy recent changes from the write-ahead log into
+        // the database.  The checkpoint doesn't wait on readers, and while the app is in use
+        // SQLite's auto-checkpoint keeps the log from growing too large.
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            mCheckpointExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mDbAdapter.checkpoint(false);
+                    } catch (SQLException e) {
+                        // Not a problem, the log will be checkpointed later
+                    } catch (IllegalStateException e) {
+                        // The database was closed
+                    }
+                }
+            });
+        }
+    }
+
     /**
      *  DATABASE_VERSION Tracks the current database version, and is essential for periodic
      *                   database updating.  It should be raised anytime we need to insert new
@@ -142,8 +173,9 @@ public class MainApplication extends Application {
      *                   Version 14 - Used in Version 2.3.5 of the app
      *                   Version 15 - Used in Version 3.0.0 of the app
      *                   Version 16 - Used in Version 3.1.0 of the app
+     *                   Version 17 - Used in Version 3.2.0 of the app
      */
-    public static final int DATABASE_VERSION = 16;
+    public static final int DATABASE_VERSION = 17;
 
     /**
      * Performs any database updates that are needed at an application level
@@ -163,26 +195,19 @@ public class MainApplication extends Application {
             int newVersion,
             boolean fromImport){
 
+        // Until version 17 each collection was stored in its own table.  Move the coins into
+        // the single coins table first, so that the steps below only deal with that layout.
+        // Skip if importing, since the database will be created with the latest structure
+        if (oldVersion <= 16 && !fromImport) {
+            DatabaseHelper.migrateToCoinsTable(db);
+        }
+
         // Skip if importing, since the database will be created with the latest structure
         if (oldVersion <= 5 && !fromImport) {
 
-            // We need to add in columns to support the new advanced view
+            // We need to add in columns to support the new advanced view.  (The coins table
+            // already has the advanced view columns, so only the collection info needs them.)
             db.execSQL("ALTER TABLE " + TBL_COLLECTION_INFO + " ADD COLUMN " + COL_DISPLAY + " INTEGER DEFAULT " + CollectionPage.SIMPLE_DISPLAY);
-
-            // Get all of the created tables
-            Cursor resultCursor = db.query(TBL_COLLECTION_INFO, new String[]{COL_NAME}, null, null, null, null, "_id");
-            if (resultCursor.moveToFirst()) {
-                do {
-
-                    String name = resultCursor.getString(resultCursor.getColumnIndex(COL_NAME));
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_GRADE_INDEX + " INTEGER DEFAULT 0");
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_QUANTITY_INDEX + " INTEGER DEFAULT 0");
-                    db.execSQL("ALTER TABLE [" + name + "] ADD COLUMN " + COL_ADV_NOTES + " TEXT DEFAULT \"\"");
-
-                    // Move to the next collection
-                } while (resultCursor.moveToNext());
-            }
-            resultCursor.close();
         }
 
         if (oldVersion <= 7) {
@@ -281,6 +306,21 @@ public class MainApplication extends Application {
                 DatabaseHelper.updateExistingCollection(db, collectionListInfo.getName(), collectionListInfo, null);
             }
         }
+
+        if (oldVersion <= 16) {
+
+            if (!fromImport) {
+                // Add a column to store the number of coins collected in each collection.  This is
+                // populated (and the triggers that maintain it are created) by DatabaseHelper after
+                // the upgrade completes.
+                db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_COLLECTED + " INTEGER DEFAULT 0");
+
+                // Add a column to record when each collection last changed, for exporting only
+                // the changed collections.  The triggers that maintain it are also created by
+                // DatabaseHelper after the upgrade completes.
+                db.execSQL("ALTER TABLE [" + TBL_COLLECTION_INFO + "] ADD COLUMN " + COL_MOD_VERSION + " INTEGER DEFAULT 0");
+            }
+        }
     }
 
     /**
@@ -45,6 +45,7 @@ import com.spencerpages.SharedTest;
 
 import junit.framework.TestCase;
 
+import org.junit.Assume;
 import org.junit.Before;
 import org.robolectric.Shadows;
 import org.robolectric.shadows.ShadowApplication;
@@ -58,6 +59,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
@@ -81,6 +83,9 @@ public class BaseTestCase {
     public final static int VERSION_1_YEAR = 2013;
     public static final Random random = new Random(98320498);
 
+    // Benchmarks only run when this system property is set (./gradlew test -PrunBenchmarks)
+    public final static String RUN_BENCHMARKS_PROPERTY = "runBenchmarks";
+
     private ArrayList<String> mPreviousRandCollectionNames;
 
     /**
@@ -116,6 +121,13 @@ public class BaseTestCase {
         mPreviousRandCollectionNames = new ArrayList<>();
     }
 
+    /**
+     * Skips the calling test unless benchmarks were requested
+     */
+    void assumeBenchmarksEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean(RUN_BENCHMARKS_PROPERTY));
+    }
+
     /**
      * Gets a minimally populated CollectionListInfo
      * @param name collection name
@@ -154,12 +166,34 @@ public class BaseTestCase {
      */
     @SuppressWarnings("SameReturnValue")
     public boolean setupOneOfEachCollectionTypes(MainActivity activity) {
+        return setupOneOfEachCollectionTypes(activity, false);
+    }
+
+    /**
+     * Populate the database with one collection of each type
+     * @param activity activity associated with the collection
+     * @param randomAdvancedInfo if true, each coin is given a random in collection state,
+     *                           grade, quantity and notes
+     * @return true if successful, otherwise false
+     */
+    @SuppressWarnings("SameReturnValue")
+    public boolean setupOneOfEachCollectionTypes(MainActivity activity, boolean randomAdvancedInfo) {
+        int numGrades = activity.getResources().getStringArray(R.array.coin_grades).length;
+        int numQuantities = activity.getResources().getStringArray(R.array.coin_quantities).length;
         int displayOrder = 0;
         for (CollectionInfo collectionInfo : COLLECTION_TYPES) {
             ParcelableHashMap parameters = new ParcelableHashMap();
             collectionInfo.getCreationParameters(parameters);
             ArrayList<CoinSlot> newCoinList = new ArrayList<>();
             collectionInfo.populateCollectionLists(parameters, newCoinList);
+            if (randomAdvancedInfo) {
+                for (CoinSlot coinSlot : newCoinList) {
+                    coinSlot.setInCollection(random.nextBoolean());
+                    coinSlot.setAdvancedGrades(random.nextInt(numGrades));
+                    coinSlot.setAdvancedQuantities(random.nextInt(numQuantities));
+                    coinSlot.setAdvancedNotes(random.nextInt(4) == 0 ? "" : getRandCollectionName());
+                }
+            }
             CollectionListInfo collectionListInfo = getCollectionListInfo(
                     collectionInfo.getCoinType(),
                     collectionInfo,
@@ -350,6 +384,9 @@ public class BaseTestCase {
                         }
                     }
                     assertTrue(foundTable);
+
+                    // Make sure the collected counts were populated by the upgrade
+                    checkCollectedCounts(activity);
                 }
             });
         }
@@ -382,6 +419,18 @@ public class BaseTestCase {
         assertTrue(SharedTest.compareCollectionListInfos(base, check));
     }
 
+    /**
+     * Compare two coin lists, including each coin's advanced attributes
+     * @param base coin list
+     * @param check coin list
+     */
+    void compareCoinLists(List<CoinSlot> base, List<CoinSlot> check) {
+        assertEquals(base.size(), check.size());
+        for (int i = 0; i < base.size(); i++) {
+            assertTrue("Coin " + i + " differs", SharedTest.compareCoinSlots(base.get(i), check.get(i)));
+        }
+    }
+
     /**
      * Compare the collection against what's stored in the database
      * @param activity test activity
@@ -434,6 +483,26 @@ public class BaseTestCase {
 
             }
         }
+
+        // Make sure the stored collected counts kept up with the changes
+        checkCollectedCounts(activity);
+    }
+
+    /**
+     * Checks that the collected counts stored in the collection info table match
+     * the number of coins actually marked as collected in each collection
+     * @param activity activity to use for database access
+     */
+    void checkCollectedCounts(BaseActivity activity) {
+        ArrayList<CollectionListInfo> countedEntries = new ArrayList<>();
+        ArrayList<CollectionListInfo> storedEntries = new ArrayList<>();
+        activity.mDbAdapter.getAllTables(countedEntries);
+        activity.mDbAdapter.getAllTableSummaries(storedEntries);
+        assertEquals(countedEntries.size(), storedEntries.size());
+        for (int i = 0; i < countedEntries.size(); i++) {
+            assertEquals(countedEntries.get(i).getName(), storedEntries.get(i).getName());
+            assertEquals(countedEntries.get(i).getCollected(), storedEntries.get(i).getCollected());
+        }
     }
 
     /**
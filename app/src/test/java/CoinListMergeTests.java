@@ -0,0 +1,198 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import android.os.Build;
+
+import com.coincollection.CoinPageCreator;
+import com.coincollection.CoinSlot;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(ParameterizedRobolectricTestRunner.class)
+// TODO - Must keep at 28 until Robolectric supports Java 9 (required to use 29+)
+@Config(sdk = Build.VERSION_CODES.P)
+public class CoinListMergeTests extends BaseTestCase {
+
+    private final static String[] MINTS = new String[]{"P", "D", "S"};
+
+    private final int mNumCoins;
+
+    public CoinListMergeTests(Integer numCoins) {
+        mNumCoins = numCoins;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters
+    public static List<?> getNumCoins() {
+        return Arrays.asList(100, 1000, 10000);
+    }
+
+    /**
+     * Create a list of coins, optionally with P, D and S mint marks
+     * @param numCoins number of coins to create
+     * @param firstYear identifier of the first coin
+     * @param withMints whether to add mint marks
+     * @return coin list
+     */
+    private ArrayList<CoinSlot> createCoinList(int numCoins, int firstYear, boolean withMints) {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < numCoins; i++) {
+            String identifier = String.valueOf(firstYear + (withMints ? i / MINTS.length : i));
+            String mint = withMints ? MINTS[i % MINTS.length] : "";
+            coinList.add(new CoinSlot(identifier, mint, random.nextBoolean(),
+                    random.nextInt(10), random.nextInt(10), "Notes " + i));
+        }
+        return coinList;
+    }
+
+    /**
+     * @param coinList coin list to copy
+     * @return a deep copy of the coin list
+     */
+    private ArrayList<CoinSlot> copyCoinList(ArrayList<CoinSlot> coinList) {
+        ArrayList<CoinSlot> copy = new ArrayList<>();
+        for (CoinSlot coinSlot : coinList) {
+            copy.add(coinSlot.copy(coinSlot.getIdentifier(), coinSlot.getMint()));
+        }
+        return copy;
+    }
+
+    /**
+     * The nested loop merge that CoinPageCreator used before the coins were indexed, kept
+     * as the reference behavior
+     */
+    private void nestedLoopMerge(ArrayList<CoinSlot> coinList, ArrayList<CoinSlot> existingCoinList,
+                                 boolean hadMintMarks, boolean hasMintMarks) {
+        for (int i = 0; i < coinList.size(); i++) {
+            for (int j = 0; j < existingCoinList.size(); j++) {
+                CoinSlot newCoin = coinList.get(i);
+                CoinSlot existingCoin = existingCoinList.get(j);
+                if (!hadMintMarks && hasMintMarks) {
+                    if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
+                        coinList.set(i, existingCoin.copy(newCoin.getIdentifier(), newCoin.getMint()));
+                        break;
+                    }
+                } else if (hadMintMarks && !hasMintMarks) {
+                    if (newCoin.getIdentifier().equals(existingCoin.getIdentifier())) {
+                        existingCoin.setInCollection(existingCoin.isInCollection() || newCoin.isInCollection());
+                        coinList.set(i, existingCoin);
+                    }
+                } else {
+                    if (newCoin.equals(existingCoin)) {
+                        coinList.set(i, existingCoin);
+                        existingCoinList.remove(j);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs both merges on copies of the same coin lists and checks that the results match
+     * @param hadMintMarks whether the existing collection shows mint marks
+     * @param hasMintMarks whether the new coin list shows mint marks
+     */
+    private void checkMerge(boolean hadMintMarks, boolean hasMintMarks) {
+        // Shift the years so that some coins are added and some are removed
+        ArrayList<CoinSlot> existingCoinList = createCoinList(mNumCoins, 1000, hadMintMarks);
+        ArrayList<CoinSlot> coinList = createCoinList(mNumCoins, 1000 + mNumCoins / 20, hasMintMarks);
+
+        ArrayList<CoinSlot> expected = copyCoinList(coinList);
+        nestedLoopMerge(expected, copyCoinList(existingCoinList), hadMintMarks, hasMintMarks);
+        ArrayList<CoinSlot> merged = copyCoinList(coinList);
+        ArrayList<CoinSlot> mergedExisting = copyCoinList(existingCoinList);
+        CoinPageCreator.mergeExistingCoinList(merged, mergedExisting, hadMintMarks, hasMintMarks);
+
+        assertEquals(expected.size(), merged.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CoinSlot expectedCoin = expected.get(i);
+            CoinSlot mergedCoin = merged.get(i);
+            assertEquals(expectedCoin.getIdentifier(), mergedCoin.getIdentifier());
+            assertEquals(expectedCoin.getMint(), mergedCoin.getMint());
+            assertEquals(expectedCoin.isInCollection(), mergedCoin.isInCollection());
+            assertEquals(expectedCoin.getAdvancedGrades(), mergedCoin.getAdvancedGrades());
+            assertEquals(expectedCoin.getAdvancedQuantities(), mergedCoin.getAdvancedQuantities());
+            assertEquals(expectedCoin.getAdvancedNotes(), mergedCoin.getAdvancedNotes());
+        }
+
+        // Coins kept from the existing collection are the same objects, so their ids carry over
+        if (hadMintMarks == hasMintMarks) {
+            for (CoinSlot mergedCoin : merged) {
+                int index = mergedExisting.indexOf(mergedCoin);
+                if (index != -1) {
+                    assertSame(mergedExisting.get(index), mergedCoin);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the indexed merge matches the nested loop merge for each mint mark change
+     */
+    @Test
+    public void test_mergeMatchesNestedLoop() {
+        checkMerge(false, false);
+        checkMerge(true, true);
+        checkMerge(false, true);
+        checkMerge(true, false);
+    }
+
+    /**
+     * Compare the time taken by the nested loop merge and the indexed merge (only runs
+     * with -PrunBenchmarks)
+     */
+    @Test
+    public void test_mergeBenchmark() {
+        assumeBenchmarksEnabled();
+        boolean[][] mintMarkChanges = new boolean[][]{{true, true}, {false, true}, {true, false}};
+        for (boolean[] change : mintMarkChanges) {
+            ArrayList<CoinSlot> existingCoinList = createCoinList(mNumCoins, 1000, change[0]);
+            ArrayList<CoinSlot> coinList = createCoinList(mNumCoins, 1000, change[1]);
+            String name = (change[0] ? "mints" : "no mints") + " to " + (change[1] ? "mints" : "no mints");
+
+            ArrayList<CoinSlot> newList = copyCoinList(coinList);
+            ArrayList<CoinSlot> existingList = copyCoinList(existingCoinList);
+            long start = System.nanoTime();
+            nestedLoopMerge(newList, existingList, change[0], change[1]);
+            long nestedLoopNanos = System.nanoTime() - start;
+
+            newList = copyCoinList(coinList);
+            existingList = copyCoinList(existingCoinList);
+            start = System.nanoTime();
+            CoinPageCreator.mergeExistingCoinList(newList, existingList, change[0], change[1]);
+            long indexedNanos = System.nanoTime() - start;
+
+            System.out.println(String.format(Locale.US,
+                    "[benchmark] merge %s (n=%d): nested loop %.3f ms, indexed %.3f ms",
+                    name, mNumCoins, nestedLoopNanos / 1000000.0, indexedNanos / 1000000.0));
+        }
+    }
+}
@@ -18,9 +18,12 @@
  * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import com.coincollection.CoinCatalog;
 import com.coincollection.CoinPageCreator;
+import com.coincollection.CollectionInfo;
 import com.coincollection.CoinSlot;
 import com.coincollection.helper.ParcelableHashMap;
+import com.spencerpages.MainApplication;
 import com.spencerpages.collections.AmericanEagleSilverDollars;
 import com.spencerpages.collections.AmericanInnovationDollars;
 import com.spencerpages.collections.BarberDimes;
@@ -50,10 +53,17 @@ import com.spencerpages.collections.WashingtonQuarters;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class CollectionCreationTests extends BaseTestCase {
 
@@ -974,4 +984,123 @@ public class CollectionCreationTests extends BaseTestCase {
 
         checkCreationParamsFromCoinList(coinList, coinClass);
     }
-}
\ No newline at end of file
+
+    /**
+     * Serializes a coin list so that coin lists can be compared byte for byte
+     * @param coinList coin list
+     * @return serialized coin list
+     */
+    private byte[] serializeCoinList(ArrayList<CoinSlot> coinList) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(coinList.size());
+        for (CoinSlot coinSlot : coinList) {
+            out.writeUTF(coinSlot.getIdentifier());
+            out.writeUTF(coinSlot.getMint());
+            out.writeBoolean(coinSlot.isInCollection());
+            out.writeInt(coinSlot.getAdvancedGrades());
+            out.writeInt(coinSlot.getAdvancedQuantities());
+            out.writeUTF(coinSlot.getAdvancedNotes());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Checks that the catalog returns the same coins as populateCollectionLists
+     * @param catalog coin catalog
+     * @param coinClass collection type
+     * @param parameters the parameters to check
+     */
+    private void checkCatalogCoinList(CoinCatalog catalog, CollectionInfo coinClass,
+                                      HashMap<String, Object> parameters) throws IOException {
+        ArrayList<CoinSlot> expected = new ArrayList<>();
+        coinClass.populateCollectionLists(parameters, expected);
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        catalog.populateCollectionLists(coinClass, parameters, coinList);
+        assertArrayEquals(coinClass.getCoinType() + " " + parameters,
+                serializeCoinList(expected), serializeCoinList(coinList));
+    }
+
+    /**
+     * Checks that a coin catalog matches populateCollectionLists for every collection type,
+     * combination of options, and (for most) date range
+     * @param catalog coin catalog
+     */
+    private void checkCatalog(CoinCatalog catalog) throws IOException {
+        for (CollectionInfo coinClass : MainApplication.COLLECTION_TYPES) {
+            HashMap<String, Object> parameters = new ParcelableHashMap();
+            coinClass.getCreationParameters(parameters);
+            ArrayList<String> options = new ArrayList<>();
+            for (String key : parameters.keySet()) {
+                if (parameters.get(key) instanceof Boolean) {
+                    options.add(key);
+                }
+            }
+            boolean hasDateRange = parameters.containsKey(CoinPageCreator.OPT_START_YEAR);
+            int firstYear = coinClass.getStartYear();
+            int lastYear = coinClass.getStopYear();
+
+            for (int optionFlags = 0; optionFlags < (1 << options.size()); optionFlags++) {
+                for (int i = 0; i < options.size(); i++) {
+                    parameters.put(options.get(i), (optionFlags & (1 << i)) != 0);
+                }
+                if (!hasDateRange) {
+                    checkCatalogCoinList(catalog, coinClass, parameters);
+                    continue;
+                }
+                // Every start year and every stop year, plus some random ranges
+                for (int year = firstYear; year <= lastYear; year++) {
+                    parameters.put(CoinPageCreator.OPT_START_YEAR, year);
+                    parameters.put(CoinPageCreator.OPT_STOP_YEAR, lastYear);
+                    checkCatalogCoinList(catalog, coinClass, parameters);
+                    parameters.put(CoinPageCreator.OPT_START_YEAR, firstYear);
+                    parameters.put(CoinPageCreator.OPT_STOP_YEAR, year);
+                    checkCatalogCoinList(catalog, coinClass, parameters);
+                }
+                for (int i = 0; i < 10; i++) {
+                    int startYear = firstYear + random.nextInt(lastYear - firstYear + 1);
+                    int stopYear = startYear + random.nextInt(lastYear - startYear + 1);
+                    parameters.put(CoinPageCreator.OPT_START_YEAR, startYear);
+                    parameters.put(CoinPageCreator.OPT_STOP_YEAR, stopYear);
+                    checkCatalogCoinList(catalog, coinClass, parameters);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test the coin catalog built from populateCollectionLists as collections are created
+     */
+    @Test
+    public void test_coinCatalogMatchesCollectionLists() throws IOException {
+        checkCatalog(new CoinCatalog());
+    }
+
+    /**
+     * Test the coin catalog file generated at build time
+     */
+    @Test
+    public void test_coinCatalogFile() throws IOException {
+        ByteArrayOutputStream catalogBytes = new ByteArrayOutputStream();
+        new CoinCatalog().writeCatalog(catalogBytes);
+
+        CoinCatalog catalog = new CoinCatalog();
+        assertTrue(catalog.loadCatalog(ByteBuffer.wrap(catalogBytes.toByteArray())));
+        assertTrue(catalog.getNumCatalogTables() > MainApplication.COLLECTION_TYPES.length);
+        checkCatalog(catalog);
+
+        // Files from another catalog version aren't used
+        byte[] otherVersion = catalogBytes.toByteArray();
+        otherVersion[7]++;
+        CoinCatalog otherCatalog = new CoinCatalog();
+        assertFalse(otherCatalog.loadCatalog(ByteBuffer.wrap(otherVersion)));
+        assertEquals(0, otherCatalog.getNumCatalogTables());
+
+        // Nor are files generated from different sources (the fingerprint follows the version)
+        byte[] otherSources = catalogBytes.toByteArray();
+        otherSources[10]++;
+        assertFalse(otherCatalog.loadCatalog(ByteBuffer.wrap(otherSources)));
+        assertEquals(0, otherCatalog.getNumCatalogTables());
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.StrictMode;
+import android.widget.GridView;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CoinListCache;
+import com.coincollection.CoinSlot;
+import com.coincollection.CoinSlotList;
+import com.coincollection.CoinSlotWriteQueue;
+import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionListInfo;
+import com.coincollection.CollectionPage;
+import com.coincollection.DatabaseAdapter;
+import com.coincollection.MainActivity;
+import com.spencerpages.MainApplication;
+import com.spencerpages.R;
+import com.spencerpages.collections.LincolnCents;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.os.Looper.getMainLooper;
+import static com.coincollection.CollectionPage.ADVANCED_DISPLAY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+// TODO - Must keep at 28 until Robolectric supports Java 9 (required to use 29+)
+@Config(sdk = Build.VERSION_CODES.P)
+public class CollectionPageTests extends BaseTestCase {
+
+    // How long to wait for an async task to finish before failing the test
+    private final static int ASYNC_TIMEOUT_MS = 10000;
+
+    /**
+     * Creates a collection to open with CollectionPage
+     * @param collectionName collection name
+     * @return the coins in the collection
+     */
+    private ArrayList<CoinSlot> setupCollection(final String collectionName) {
+        final ArrayList<CoinSlot> coinList = new ArrayList<>();
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    for (int i = 0; i < 60; i++) {
+                        coinList.add(new CoinSlot(String.valueOf(1950 + i), "", false));
+                    }
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            collectionName, new LincolnCents(), coinList);
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+                }
+            });
+        }
+        return coinList;
+    }
+
+    /**
+     * Launches CollectionPage with async tasks enabled, failing on any database
+     * calls made from the UI thread
+     * @param collectionName collection to open
+     * @return activity scenario
+     */
+    private ActivityScenario<CollectionPage> launchCollectionPage(String collectionName) {
+        CollectionInfo collectionInfo = new LincolnCents();
+        return ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), CollectionPage.class)
+                        .putExtra(CollectionPage.COLLECTION_NAME, collectionName)
+                        .putExtra(CollectionPage.COLLECTION_TYPE_INDEX,
+                                MainApplication.getIndexFromCollectionNameStr(collectionInfo.getCoinType()))
+                        .putExtra(CollectionPage.UNIT_TEST_STRICT_MODE, true));
+    }
+
+    /**
+     * Runs the UI thread until the collection view is showing
+     * @param scenario activity scenario
+     * @return the grid view for the collection
+     */
+    private GridView waitForCollectionView(ActivityScenario<CollectionPage> scenario) throws InterruptedException {
+        final GridView[] gridView = new GridView[1];
+        for (int waited = 0; waited < ASYNC_TIMEOUT_MS; waited += 10) {
+            shadowOf(getMainLooper()).idle();
+            scenario.onActivity(new ActivityScenario.ActivityAction<CollectionPage>() {
+                @Override
+                public void perform(CollectionPage activity) {
+                    gridView[0] = activity.findViewById(R.id.standard_collection_page);
+                }
+            });
+            if (gridView[0] != null) {
+                return gridView[0];
+            }
+            Thread.sleep(10);
+        }
+        fail("Timed out waiting for the collection to load");
+        return null;
+    }
+
+    /**
+     * Reads a collection back from the database
+     * @param collectionName collection name
+     * @return the coins in the collection
+     */
+    private ArrayList<CoinSlot> readCoinList(String collectionName) {
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        dbAdapter.open();
+        ArrayList<CoinSlot> coinList = dbAdapter.getCoinList(collectionName, false);
+        dbAdapter.close();
+        return coinList;
+    }
+
+    /**
+     * Test that the collection is loaded and taps are written without touching the
+     * database on the UI thread
+     */
+    @Test
+    public void test_loadAndToggleOffUiThread() throws InterruptedException {
+        String collectionName = "Off UI Thread";
+        ArrayList<CoinSlot> coinList = setupCollection(collectionName);
+
+        try(ActivityScenario<CollectionPage> scenario = launchCollectionPage(collectionName)) {
+            final GridView gridView = waitForCollectionView(scenario);
+            assertEquals(coinList.size(), gridView.getAdapter().getCount());
+
+            // Tap a coin, which is written in the background
+            scenario.onActivity(new ActivityScenario.ActivityAction<CollectionPage>() {
+                @Override
+                public void perform(CollectionPage activity) {
+                    assertTrue(gridView.performItemClick(null, 3, 3));
+                }
+            });
+        } finally {
+            StrictMode.setThreadPolicy(StrictMode.ThreadPolicy.LAX);
+        }
+
+        // Closing the activity waits for the queued write
+        ArrayList<CoinSlot> dbCoinList = readCoinList(collectionName);
+        assertEquals(coinList, dbCoinList);
+        for (int i = 0; i < dbCoinList.size(); i++) {
+            assertEquals(i == 3, dbCoinList.get(i).isInCollection());
+        }
+    }
+
+    /**
+     * Test changing views, which updates the database on the async task
+     */
+    @Test
+    public void test_changeViewOffUiThread() throws InterruptedException {
+        final String collectionName = "Change View";
+        setupCollection(collectionName);
+
+        try(ActivityScenario<CollectionPage> scenario = launchCollectionPage(collectionName)) {
+            waitForCollectionView(scenario);
+            final CollectionPage[] collectionPage = new CollectionPage[1];
+            scenario.onActivity(new ActivityScenario.ActivityAction<CollectionPage>() {
+                @Override
+                public void perform(CollectionPage activity) {
+                    collectionPage[0] = activity;
+                    assertFalse(activity.isFinishing());
+                    assertTrue(shadowOf(activity).clickMenuItem(R.id.change_view));
+                }
+            });
+
+            // The activity restarts with the new view once the database is updated
+            for (int waited = 0; waited < ASYNC_TIMEOUT_MS && !collectionPage[0].isFinishing(); waited += 10) {
+                Thread.sleep(10);
+                shadowOf(getMainLooper()).idle();
+            }
+            assertTrue(collectionPage[0].isFinishing());
+        } finally {
+            StrictMode.setThreadPolicy(StrictMode.ThreadPolicy.LAX);
+        }
+
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        dbAdapter.open();
+        assertEquals(ADVANCED_DISPLAY, dbAdapter.fetchTableDisplay(collectionName));
+        dbAdapter.close();
+    }
+
+    /**
+     * Test that taps which couldn't be written are reported with the values in the database
+     */
+    @Test
+    public void test_writeQueueReportsUnsavedCoins() {
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        dbAdapter.open();
+        final ArrayList<CoinSlot> unsavedCoinSlots = new ArrayList<>();
+        CoinSlotWriteQueue writeQueue = new CoinSlotWriteQueue(dbAdapter, "Missing", false);
+        writeQueue.setWriteErrorListener(new CoinSlotWriteQueue.WriteErrorListener() {
+            @Override
+            public void onWriteError(List<CoinSlot> coinSlots) {
+                unsavedCoinSlots.addAll(coinSlots);
+            }
+        });
+
+        // The collection doesn't exist, so the write fails
+        CoinSlot coinSlot = new CoinSlot("1950", "", false);
+        writeQueue.toggle(coinSlot);
+        assertTrue(coinSlot.isInCollection());
+        writeQueue.flush();
+        assertFalse(writeQueue.isWritten());
+
+        // Once the listener has been notified, the failure has been handled
+        shadowOf(getMainLooper()).idle();
+        assertTrue(writeQueue.isWritten());
+        assertEquals(1, unsavedCoinSlots.size());
+        assertEquals(coinSlot, unsavedCoinSlots.get(0));
+        assertFalse(unsavedCoinSlots.get(0).isInCollection());
+        dbAdapter.close();
+    }
+
+    /**
+     * Test that the cached coin lists are copies, and are dropped when the collection changes
+     */
+    @Test
+    public void test_coinListCacheInvalidatedByWrites() {
+        String collectionName = "Cached";
+        ArrayList<CoinSlot> coinList = setupCollection(collectionName);
+
+        DatabaseAdapter dbAdapter = new DatabaseAdapter(ApplicationProvider.getApplicationContext());
+        dbAdapter.open();
+        CoinListCache coinListCache = CoinListCache.getInstance();
+        CoinSlotList cachedCoinList = dbAdapter.getCachedCoinList(collectionName, false);
+        assertEquals(coinList, cachedCoinList);
+        assertTrue(coinListCache.contains(collectionName, false));
+
+        // Changing the returned list doesn't change the cached one
+        cachedCoinList.get(0).setInCollection(true);
+        int hitCount = coinListCache.getHitCount();
+        assertFalse(dbAdapter.getCachedCoinList(collectionName, false).get(0).isInCollection());
+        assertEquals(hitCount + 1, coinListCache.getHitCount());
+
+        // Writing to the collection drops it from the cache
+        dbAdapter.updateInCollection(collectionName, cachedCoinList.subList(0, 1));
+        assertFalse(coinListCache.contains(collectionName, false));
+        assertTrue(dbAdapter.getCachedCoinList(collectionName, false).get(0).isInCollection());
+        dbAdapter.close();
+    }
+
+    /**
+     * Test the cache size limit and that lists read before an invalidation aren't cached
+     */
+    @Test
+    public void test_coinListCacheLimits() {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            coinList.add(new CoinSlot(String.valueOf(1950 + i), "", false));
+        }
+        CoinListCache coinListCache = new CoinListCache(100);
+
+        // The least recently used list is evicted once over the limit
+        coinListCache.put("First", false, coinList, coinListCache.getGeneration());
+        coinListCache.put("Second", false, coinList, coinListCache.getGeneration());
+        assertFalse(coinListCache.contains("First", false));
+        assertEquals(coinList, coinListCache.get("Second", false));
+        assertEquals(coinList.size(), coinListCache.getNumCoins());
+
+        // A list read before the cache was invalidated may be out of date
+        long generation = coinListCache.getGeneration();
+        coinListCache.invalidate("Second");
+        coinListCache.put("Second", false, coinList, generation);
+        assertNull(coinListCache.get("Second", false));
+        assertEquals(0, coinListCache.getNumCoins());
+    }
+
+    /**
+     * Test that CoinSlotList's coins write through to the list, and that it survives a parcel
+     */
+    @Test
+    public void test_coinSlotList() {
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            coinList.add(new CoinSlot(String.valueOf(1950 + i), (i % 2 == 0) ? "" : "D",
+                    i % 3 == 0, i % 5, i % 7, "Notes " + i));
+        }
+        CoinSlotList compactList = new CoinSlotList(coinList);
+        assertEquals(coinList, compactList);
+        assertEquals(compactList, coinList);
+
+        // Changes made through a coin are made to the list
+        CoinSlot coinSlot = compactList.get(70);
+        coinSlot.setInCollection(!coinSlot.isInCollection());
+        coinSlot.setAdvancedGrades(4);
+        coinSlot.setAdvancedNotes("Changed");
+        assertEquals(!coinList.get(70).isInCollection(), compactList.get(70).isInCollection());
+        assertEquals(Integer.valueOf(4), compactList.get(70).getAdvancedGrades());
+        assertEquals("Changed", compactList.get(70).getAdvancedNotes());
+        assertFalse(coinList.get(70).getAdvancedNotes().equals("Changed"));
+
+        // Copies don't share the arrays
+        CoinSlotList copy = new CoinSlotList(compactList);
+        copy.get(0).setInCollection(!compactList.get(0).isInCollection());
+        assertFalse(copy.get(0).isInCollection() == compactList.get(0).isInCollection());
+
+        // Replacing a coin returns what was there before
+        CoinSlot oldCoinSlot = compactList.set(70, coinList.get(70));
+        assertEquals("Changed", oldCoinSlot.getAdvancedNotes());
+        assertEquals(coinList, compactList);
+
+        Parcel parcel = Parcel.obtain();
+        compactList.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        CoinSlotList parceledList = CoinSlotList.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        assertEquals(coinList, parceledList);
+        for (int i = 0; i < coinList.size(); i++) {
+            assertEquals(coinList.get(i).isInCollection(), parceledList.get(i).isInCollection());
+            assertEquals(coinList.get(i).getAdvancedGrades(), parceledList.get(i).getAdvancedGrades());
+            assertEquals(coinList.get(i).getAdvancedQuantities(), parceledList.get(i).getAdvancedQuantities());
+            assertEquals(coinList.get(i).getAdvancedNotes(), parceledList.get(i).getAdvancedNotes());
+        }
+    }
+
+    /**
+     * Test that rotating the screen restores the coins from the cache rather than the bundle
+     */
+    @Test
+    public void test_rotationUsesCoinListCache() throws InterruptedException {
+        String collectionName = "Rotate";
+        ArrayList<CoinSlot> coinList = setupCollection(collectionName);
+
+        try(ActivityScenario<CollectionPage> scenario = launchCollectionPage(collectionName)) {
+            waitForCollectionView(scenario);
+            int hitCount = CoinListCache.getInstance().getHitCount();
+            scenario.recreate();
+            GridView gridView = waitForCollectionView(scenario);
+            assertEquals(coinList.size(), gridView.getAdapter().getCount());
+            assertEquals(hitCount + 1, CoinListCache.getInstance().getHitCount());
+        } finally {
+            StrictMode.setThreadPolicy(StrictMode.ThreadPolicy.LAX);
+        }
+    }
+}
@@ -973,4 +973,34 @@ public class CollectionUpgradeTests extends BaseTestCase {
         // Compare against a new database
         validateUpdatedDb(collection, collectionName);
     }
-}
\ No newline at end of file
+
+    /**
+     * For BarberDimes
+     * - Test that the collected counts are populated upon upgrading from a database
+     *   that didn't store them
+     */
+    @Test
+    public void test_collectedCountUpgrade() {
+
+        // Test Parameters
+        CollectionInfo collection = new BarberDimes();
+        String coinType = "Barber Dimes";
+        String collectionName = coinType + " Collected";
+        int startYear = 1892;
+        int endYear = 1916;
+
+        // Create V1 database, with some coins collected, and run upgrade
+        TestDatabaseHelper testDbHelper = new TestDatabaseHelper(ApplicationProvider.getApplicationContext());
+        SQLiteDatabase db = testDbHelper.getWritableDatabase();
+        ArrayList<Object[]> coinList = new ArrayList<>();
+        for(int i = startYear; i <= endYear; i++){
+            coinList.add(new Object[]{Integer.toString(i), "", i % 2});
+        }
+        createV1Collection(db, collectionName, coinType, coinList);
+        db.close();
+        testDbHelper.close();
+
+        // Compare against a new database (also checks the collected counts)
+        validateUpdatedDb(collection, collectionName);
+    }
+}
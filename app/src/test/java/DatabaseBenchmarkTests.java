@@ -0,0 +1,698 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Parcel;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CoinSlot;
+import com.coincollection.CoinSlotList;
+import com.coincollection.CoinSymbolTable;
+import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseAdapter;
+import com.coincollection.DatabaseHelper;
+import com.coincollection.ExportImportHelper;
+import com.coincollection.MainActivity;
+import com.spencerpages.collections.LincolnCents;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.spencerpages.MainApplication.COLLECTION_TYPES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Timing and size comparisons for the database and backup code. These are skipped by default
+ * and run with: ./gradlew testAndroidDebugUnitTest -PrunBenchmarks --tests DatabaseBenchmarkTests
+ */
+@RunWith(RobolectricTestRunner.class)
+// TODO - Must keep at 28 until Robolectric supports Java 9 (required to use 29+)
+@Config(sdk = Build.VERSION_CODES.P)
+public class DatabaseBenchmarkTests extends BaseTestCase {
+
+    private final static int NUM_TIMING_ITERATIONS = 5;
+    private final static int NUM_COINS_PER_COLLECTION = 50;
+
+    /**
+     * Skip the benchmarks unless they were requested
+     */
+    @Before
+    public void benchmarkSetup() {
+        assumeBenchmarksEnabled();
+    }
+
+    /**
+     * Print out a benchmark result (shown in the test logs)
+     * @param name benchmark name
+     * @param size number of items the benchmark operated on
+     * @param nanos average time taken
+     */
+    private void reportTiming(String name, int size, long nanos) {
+        System.out.println(String.format(Locale.US, "[benchmark] %s (n=%d): %.3f ms",
+                name, size, nanos / 1000000.0));
+    }
+
+    /**
+     * Create a number of small collections in the database
+     * @param activity activity to use for database access
+     * @param numCollections number of collections to create
+     */
+    private void createSyntheticCollections(MainActivity activity, int numCollections) {
+        for (int i = 0; i < numCollections; i++) {
+            CollectionInfo collectionInfo = COLLECTION_TYPES[i % COLLECTION_TYPES.length];
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            for (int j = 0; j < NUM_COINS_PER_COLLECTION; j++) {
+                coinList.add(new CoinSlot(String.valueOf(1900 + j), "", random.nextBoolean()));
+            }
+            CollectionListInfo collectionListInfo = getCollectionListInfo(
+                    "Collection " + i, collectionInfo, coinList);
+            activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, coinList);
+        }
+    }
+
+    /**
+     * Compare the per-collection COUNT queries against the single summary query
+     */
+    @Test
+    public void test_collectionSummaryQuery() {
+        for (final int numCollections : new int[]{10, 100, 500}) {
+            try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                    new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                            .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+                scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                    @Override
+                    public void perform(MainActivity activity) {
+                        createSyntheticCollections(activity, numCollections);
+                        ArrayList<CollectionListInfo> loopEntries = new ArrayList<>();
+                        ArrayList<CollectionListInfo> summaryEntries = new ArrayList<>();
+
+                        // Warm up both paths once before timing
+                        activity.mDbAdapter.getAllTables(loopEntries);
+                        activity.mDbAdapter.getAllTableSummaries(summaryEntries);
+
+                        long loopStart = System.nanoTime();
+                        for (int i = 0; i < NUM_TIMING_ITERATIONS; i++) {
+                            activity.mDbAdapter.getAllTables(loopEntries);
+                        }
+                        long loopNanos = (System.nanoTime() - loopStart) / NUM_TIMING_ITERATIONS;
+
+                        long summaryStart = System.nanoTime();
+                        for (int i = 0; i < NUM_TIMING_ITERATIONS; i++) {
+                            activity.mDbAdapter.getAllTableSummaries(summaryEntries);
+                        }
+                        long summaryNanos = (System.nanoTime() - summaryStart) / NUM_TIMING_ITERATIONS;
+
+                        reportTiming("getAllTables", numCollections, loopNanos);
+                        reportTiming("getAllTableSummaries", numCollections, summaryNanos);
+                        assertEquals(loopEntries.size(), summaryEntries.size());
+
+                        deleteAllCollections(activity);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Print out a throughput benchmark result (shown in the test logs)
+     * @param name benchmark name
+     * @param size number of items the benchmark operated on
+     * @param nanos total time taken
+     */
+    private void reportRate(String name, int size, long nanos) {
+        System.out.println(String.format(Locale.US, "[benchmark] %s (n=%d): %.0f rows/sec",
+                name, size, size / (nanos / 1000000000.0)));
+    }
+
+    /**
+     * Create a list of coins with P, D and S mint marks
+     * @param numCoins number of coins to create
+     * @return coin list
+     */
+    private ArrayList<CoinSlot> createSyntheticCoinList(int numCoins) {
+        String[] mints = new String[]{"P", "D", "S"};
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < numCoins; i++) {
+            coinList.add(new CoinSlot(String.valueOf(1000 + (i / mints.length)), mints[i % mints.length],
+                    random.nextBoolean(), random.nextInt(10), random.nextInt(10), "Notes " + i));
+        }
+        return coinList;
+    }
+
+    /**
+     * Compare inserting coins one at a time (each in its own implicit transaction) against
+     * the bulk insert path used when creating a collection
+     */
+    @Test
+    public void test_bulkInsertRate() {
+        for (final int numCoins : new int[]{500, 5000}) {
+            try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                    new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                            .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+                scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                    @Override
+                    public void perform(MainActivity activity) {
+                        CollectionInfo collectionInfo = new LincolnCents();
+                        ArrayList<CoinSlot> coinList = createSyntheticCoinList(numCoins);
+
+                        // Per-row inserts, the way collections used to be populated
+                        CollectionListInfo legacyListInfo = getCollectionListInfo(
+                                "Legacy Insert", collectionInfo, coinList);
+                        activity.mDbAdapter.createAndPopulateNewTable(legacyListInfo, 0, null);
+                        DatabaseHelper legacyDbHelper = new DatabaseHelper(activity);
+                        SQLiteDatabase legacyDb = legacyDbHelper.getWritableDatabase();
+                        long legacyStart = System.nanoTime();
+                        for (CoinSlot coinSlot : coinList) {
+                            ContentValues values = new ContentValues();
+                            values.put(COL_COIN_IDENTIFIER, coinSlot.getIdentifier());
+                            values.put(COL_COIN_MINT, coinSlot.getMint());
+                            values.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
+                            values.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
+                            values.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
+                            values.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
+                            DatabaseHelper.runSqlInsert(legacyDb, legacyListInfo.getName(), values);
+                        }
+                        long legacyNanos = System.nanoTime() - legacyStart;
+                        legacyDbHelper.close();
+
+                        // Single transaction with a reused compiled statement
+                        CollectionListInfo bulkListInfo = getCollectionListInfo(
+                                "Bulk Insert", collectionInfo, coinList);
+                        long bulkStart = System.nanoTime();
+                        activity.mDbAdapter.createAndPopulateNewTable(bulkListInfo, 1, coinList);
+                        long bulkNanos = System.nanoTime() - bulkStart;
+
+                        reportRate("per-row insert", numCoins, legacyNanos);
+                        reportRate("bulk insert", numCoins, bulkNanos);
+
+                        deleteAllCollections(activity);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Measure the sustained toggle rate, one tap at a time and as a multi-select batch
+     */
+    @Test
+    public void test_toggleStress() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numTaps = 2000;
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(300);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            "Toggle Stress", new LincolnCents(), coinList);
+                    String tableName = collectionListInfo.getName();
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+                    // Single taps, applying the returned value the way CollectionPage does
+                    long start = System.nanoTime();
+                    for (int i = 0; i < numTaps; i++) {
+                        CoinSlot coinSlot = coinList.get(random.nextInt(coinList.size()));
+                        coinSlot.setInCollection(activity.mDbAdapter.toggleInCollection(tableName, coinSlot) == 1);
+                    }
+                    long nanos = System.nanoTime() - start;
+                    System.out.println(String.format(Locale.US, "[benchmark] single toggle (n=%d): %.0f taps/sec",
+                            numTaps, numTaps / (nanos / 1000000000.0)));
+
+                    // Multi-select batches
+                    int numBatches = numTaps / coinList.size();
+                    start = System.nanoTime();
+                    for (int i = 0; i < numBatches; i++) {
+                        int[] newValues = activity.mDbAdapter.toggleInCollection(tableName, coinList);
+                        for (int j = 0; j < coinList.size(); j++) {
+                            coinList.get(j).setInCollection(newValues[j] == 1);
+                        }
+                    }
+                    nanos = System.nanoTime() - start;
+                    System.out.println(String.format(Locale.US, "[benchmark] batch toggle (n=%d): %.0f taps/sec",
+                            numBatches * coinList.size(), numBatches * coinList.size() / (nanos / 1000000000.0)));
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Look up random coins in a collection
+     * @param activity activity to use for database access
+     * @param tableName collection name
+     * @param coinList coins in the collection
+     * @param numLookups number of lookups to perform
+     * @return average time per lookup
+     */
+    private long timeLookups(MainActivity activity, String tableName, ArrayList<CoinSlot> coinList, int numLookups) {
+        long start = System.nanoTime();
+        for (int i = 0; i < numLookups; i++) {
+            CoinSlot coinSlot = coinList.get(random.nextInt(coinList.size()));
+            activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot);
+        }
+        return (System.nanoTime() - start) / numLookups;
+    }
+
+    /**
+     * Time individual coin lookups with and without the coin slot index, for increasing
+     * collection sizes
+     */
+    @Test
+    public void test_coinSlotIndexLookup() {
+        for (final int numCoins : new int[]{100, 1000, 10000}) {
+            try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                    new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                            .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+                scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                    @Override
+                    public void perform(MainActivity activity) {
+                        final int numLookups = 500;
+                        ArrayList<CoinSlot> coinList = createSyntheticCoinList(numCoins);
+                        CollectionListInfo collectionListInfo = getCollectionListInfo(
+                                "Index Lookup", new LincolnCents(), coinList);
+                        String tableName = collectionListInfo.getName();
+                        activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+                        DatabaseHelper dbHelper = new DatabaseHelper(activity);
+                        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+                        long indexedNanos = timeLookups(activity, tableName, coinList, numLookups);
+                        db.execSQL("DROP INDEX [" + DatabaseHelper.IDX_COIN_SLOT + "]");
+                        long scanNanos = timeLookups(activity, tableName, coinList, numLookups);
+                        DatabaseHelper.createCoinsTable(db);
+                        dbHelper.close();
+
+                        reportTiming("fetchIsInCollection (no index)", numCoins, scanNanos);
+                        reportTiming("fetchIsInCollection (index)", numCoins, indexedNanos);
+
+                        deleteAllCollections(activity);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Compare toggle latency and JSON export throughput with each journal mode
+     */
+    @Test
+    public void test_journalModeBenchmark() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 20;
+                    final int numCoins = 1000;
+                    final int numTaps = 500;
+
+                    // The journal mode can only be switched away from WAL when no other
+                    // connections are open, so close the activity's connection while testing
+                    activity.mDbAdapter.close();
+                    for (int journalMode : new int[]{DatabaseHelper.JOURNAL_MODE_ROLLBACK, DatabaseHelper.JOURNAL_MODE_WAL}) {
+                        String modeName = (journalMode == DatabaseHelper.JOURNAL_MODE_WAL) ? "WAL" : "rollback journal";
+                        DatabaseAdapter dbAdapter = new DatabaseAdapter(activity, journalMode);
+                        dbAdapter.open();
+                        ArrayList<CoinSlot> coinList = null;
+                        ArrayList<String> tableNames = new ArrayList<>();
+                        for (int i = 0; i < numCollections; i++) {
+                            coinList = createSyntheticCoinList(numCoins);
+                            CollectionListInfo collectionListInfo = getCollectionListInfo(
+                                    "Journal " + i, new LincolnCents(), coinList);
+                            dbAdapter.createAndPopulateNewTable(collectionListInfo, i, coinList);
+                            tableNames.add(collectionListInfo.getName());
+                        }
+
+                        // Each tap is committed on its own, like taps in CollectionPage
+                        String tableName = tableNames.get(tableNames.size() - 1);
+                        long start = System.nanoTime();
+                        for (int i = 0; i < numTaps; i++) {
+                            CoinSlot coinSlot = coinList.get(random.nextInt(coinList.size()));
+                            coinSlot.setInCollection(dbAdapter.toggleInCollection(tableName, coinSlot) == 1);
+                        }
+                        reportTiming("toggle latency (" + modeName + ")", numTaps,
+                                (System.nanoTime() - start) / numTaps);
+
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        ExportImportHelper helper = new ExportImportHelper(activity.mRes, dbAdapter);
+                        start = System.nanoTime();
+                        helper.exportCollectionsToJson(outputStream, "benchmark.json");
+                        long nanos = System.nanoTime() - start;
+                        System.out.println(String.format(Locale.US, "[benchmark] JSON export (%s, n=%d): %.2f MB/s",
+                                modeName, numCollections * numCoins,
+                                outputStream.size() / (1024.0 * 1024.0) / (nanos / 1000000000.0)));
+
+                        for (String name : tableNames) {
+                            dbAdapter.dropCollectionTable(name);
+                        }
+                        dbAdapter.checkpoint(true);
+                        dbAdapter.close();
+                    }
+                    activity.mDbAdapter.open();
+                }
+            });
+        }
+    }
+
+    /**
+     * Create collections of synthetic coins in the database
+     * @param activity activity to use for database access
+     * @param prefix collection name prefix, followed by the collection's index
+     * @param numCollections number of collections to create
+     * @param numCoins number of coins in each collection
+     */
+    private void createSyntheticCollections(MainActivity activity, String prefix,
+                                            int numCollections, int numCoins) {
+        for (int i = 0; i < numCollections; i++) {
+            ArrayList<CoinSlot> coinList = createSyntheticCoinList(numCoins);
+            CollectionListInfo collectionListInfo = getCollectionListInfo(
+                    prefix + i, COLLECTION_TYPES[i % COLLECTION_TYPES.length], coinList);
+            activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, coinList);
+        }
+    }
+
+    /**
+     * Measure the throughput of the legacy CSV export, which writes the files in parallel
+     */
+    @Test
+    public void test_parallelCsvExport() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 200;
+                    final int numCoins = 500;
+
+                    assertTrue(setEnabledPermissions(activity));
+                    createSyntheticCollections(activity, "CSV ", numCollections, numCoins);
+
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    String exportFolderName = activity.getLegacyExportFolderName();
+                    long start = System.nanoTime();
+                    helper.exportCollectionsToLegacyCSV(exportFolderName);
+                    long nanos = System.nanoTime() - start;
+
+                    long numBytesWritten = 0;
+                    for (int i = 0; i < numCollections; i++) {
+                        numBytesWritten += new File(exportFolderName, "CSV " + i + ".csv").length();
+                    }
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] parallel CSV export (n=%d): %.2f MB/s",
+                            numCollections * numCoins,
+                            numBytesWritten / (1024.0 * 1024.0) / (nanos / 1000000000.0)));
+                }
+            });
+        }
+    }
+
+    /**
+     * Compare the size and round trip time of a compact backup against JSON
+     */
+    @Test
+    public void test_compactBackupVersusJson() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 200;
+                    final int numCoins = 500;
+
+                    createSyntheticCollections(activity, "Backup ", numCollections, numCoins);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+
+                    // JSON round trip
+                    long start = System.nanoTime();
+                    ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToJson(jsonStream, "backup.json");
+                    assertEquals("", helper.importCollectionsFromJson(new ByteArrayInputStream(jsonStream.toByteArray())));
+                    long jsonNanos = System.nanoTime() - start;
+
+                    // Compact backup round trip
+                    start = System.nanoTime();
+                    ByteArrayOutputStream compactStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToCompactBackup(compactStream, "backup.ccb");
+                    assertEquals("", helper.importCollectionsFromCompactBackup(new ByteArrayInputStream(compactStream.toByteArray())));
+                    long compactNanos = System.nanoTime() - start;
+
+                    int totalCoins = numCollections * numCoins;
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] JSON backup (n=%d): %d bytes, %.3f ms round trip",
+                            totalCoins, jsonStream.size(), jsonNanos / 1000000.0));
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] compact backup (n=%d): %d bytes, %.3f ms round trip",
+                            totalCoins, compactStream.size(), compactNanos / 1000000.0));
+                }
+            });
+        }
+    }
+
+    /**
+     * Compare the size and export time of compressed JSON at each compression level
+     */
+    @Test
+    public void test_compressedJsonLevels() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 200;
+                    final int numCoins = 500;
+
+                    createSyntheticCollections(activity, "Compressed ", numCollections, numCoins);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    int totalCoins = numCollections * numCoins;
+
+                    // Uncompressed export, for reference
+                    long start = System.nanoTime();
+                    ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToJson(jsonStream, "backup.json");
+                    long jsonNanos = System.nanoTime() - start;
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] JSON export (n=%d): %d bytes, %.3f ms",
+                            totalCoins, jsonStream.size(), jsonNanos / 1000000.0));
+
+                    for (int level = Deflater.BEST_SPEED; level <= Deflater.BEST_COMPRESSION; level++) {
+                        start = System.nanoTime();
+                        ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+                        helper.exportCollectionsToCompressedJson(compressedStream, "backup.json.gz", level);
+                        long exportNanos = System.nanoTime() - start;
+                        start = System.nanoTime();
+                        assertEquals("", helper.importCollectionsFromJson(
+                                new ByteArrayInputStream(compressedStream.toByteArray())));
+                        long importNanos = System.nanoTime() - start;
+                        System.out.println(String.format(Locale.US,
+                                "[benchmark] gzip level %d JSON (n=%d): %d bytes (%.1f%%), %.3f ms export, %.3f ms import",
+                                level, totalCoins, compressedStream.size(),
+                                100.0 * compressedStream.size() / jsonStream.size(),
+                                exportNanos / 1000000.0, importNanos / 1000000.0));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the heap in use after a garbage collection
+     */
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Report the heap saved by sharing coin identifiers and mint marks across a large database,
+     * compared to each coin holding its own copy of the strings read from the database
+     */
+    @Test
+    public void test_internedCoinSlotHeap() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 100;
+                    final int numCoinsPerCollection = 500;
+                    createSyntheticCollections(activity, "Heap ", numCollections, numCoinsPerCollection);
+
+                    // Load every collection
+                    long startHeap = getUsedHeap();
+                    ArrayList<ArrayList<CoinSlot>> coinLists = new ArrayList<>();
+                    for (int i = 0; i < numCollections; i++) {
+                        coinLists.add(activity.mDbAdapter.getCoinList("Heap " + i, true));
+                    }
+                    long internedHeap = getUsedHeap() - startHeap;
+
+                    // The strings each coin held before they were shared
+                    int numCoins = numCollections * numCoinsPerCollection;
+                    String[] copies = new String[2 * numCoins];
+                    long copiesStartHeap = getUsedHeap();
+                    int index = 0;
+                    for (ArrayList<CoinSlot> coinList : coinLists) {
+                        for (CoinSlot coinSlot : coinList) {
+                            copies[index++] = new String(coinSlot.getIdentifier().toCharArray());
+                            copies[index++] = new String(coinSlot.getMint().toCharArray());
+                        }
+                    }
+                    long savedHeap = getUsedHeap() - copiesStartHeap;
+
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] interned coin lists (n=%d): %.2f MB heap, %d shared strings, %.2f MB saved",
+                            numCoins, internedHeap / 1048576.0, CoinSymbolTable.size(), savedHeap / 1048576.0));
+
+                    // Keep both alive until after the measurements
+                    assertEquals(numCollections, coinLists.size());
+                    assertEquals(copies.length, index);
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads every field of each coin in a list, like CoinSlotAdapter does when binding views
+     * @param coinList coins to read
+     * @return a value depending on the fields read, so the reads aren't optimized away
+     */
+    private static int bindCoinList(List<CoinSlot> coinList) {
+        int checksum = 0;
+        for (int i = 0; i < coinList.size(); i++) {
+            CoinSlot coinSlot = coinList.get(i);
+            checksum += coinSlot.getIdentifier().length() + coinSlot.getMint().length()
+                    + coinSlot.isInCollectionInt() + coinSlot.getAdvancedGrades()
+                    + coinSlot.getAdvancedQuantities() + coinSlot.getAdvancedNotes().length();
+        }
+        return checksum;
+    }
+
+    /**
+     * Compare the heap, bind time and parcel size of a large advanced collection loaded as
+     * CoinSlot objects and as a CoinSlotList
+     */
+    @Test
+    public void test_coinSlotListHeapAndBind() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCoins = 5000;
+                    final int numCopies = 20;
+                    String tableName = "Compact";
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(numCoins);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            tableName, new LincolnCents(), coinList);
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+                    ArrayList<CoinSlot> objectList = activity.mDbAdapter.getCoinList(tableName, true);
+                    CoinSlotList compactList = activity.mDbAdapter.getCoinSlotList(tableName, true);
+
+                    // Heap used by several copies of each
+                    ArrayList<List<CoinSlot>> copies = new ArrayList<>();
+                    long startHeap = getUsedHeap();
+                    for (int i = 0; i < numCopies; i++) {
+                        copies.add(activity.mDbAdapter.getCoinList(tableName, true));
+                    }
+                    long objectHeap = (getUsedHeap() - startHeap) / numCopies;
+                    assertEquals(numCopies, copies.size());
+                    copies.clear();
+                    startHeap = getUsedHeap();
+                    for (int i = 0; i < numCopies; i++) {
+                        copies.add(activity.mDbAdapter.getCoinSlotList(tableName, true));
+                    }
+                    long compactHeap = (getUsedHeap() - startHeap) / numCopies;
+                    assertEquals(numCopies, copies.size());
+                    copies.clear();
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] coin list heap (n=%d): %.1f KB CoinSlots, %.1f KB CoinSlotList",
+                            numCoins, objectHeap / 1024.0, compactHeap / 1024.0));
+
+                    // Time reading every coin, as when binding the collection's views
+                    long objectTime = 0;
+                    long compactTime = 0;
+                    int checksum = 0;
+                    for (int i = 0; i < NUM_TIMING_ITERATIONS; i++) {
+                        long start = System.nanoTime();
+                        checksum += bindCoinList(objectList);
+                        objectTime += System.nanoTime() - start;
+                        start = System.nanoTime();
+                        checksum -= bindCoinList(compactList);
+                        compactTime += System.nanoTime() - start;
+                    }
+                    assertEquals(0, checksum);
+                    reportTiming("bind CoinSlots", numCoins, objectTime / NUM_TIMING_ITERATIONS);
+                    reportTiming("bind CoinSlotList", numCoins, compactTime / NUM_TIMING_ITERATIONS);
+
+                    // Parcel sizes, as when saving the collection's state
+                    Parcel parcel = Parcel.obtain();
+                    parcel.writeTypedList(objectList);
+                    int objectParcelSize = parcel.dataSize();
+                    parcel.recycle();
+                    parcel = Parcel.obtain();
+                    compactList.writeToParcel(parcel, 0);
+                    int compactParcelSize = parcel.dataSize();
+                    parcel.recycle();
+                    System.out.println(String.format(Locale.US,
+                            "[benchmark] coin list parcel (n=%d): %.1f KB CoinSlots, %.1f KB CoinSlotList",
+                            numCoins, objectParcelSize / 1024.0, compactParcelSize / 1024.0));
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+}
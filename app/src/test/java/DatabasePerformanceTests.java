@@ -0,0 +1,781 @@
+/*
+ * Coin Collection, an Android app that helps users track the coins that they've collected
+ * Copyright (C) 2010-2016 Andrew Williams
+ *
+ * This file is part of Coin Collection.
+ *
+ * Coin Collection is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Coin Collection is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Coin Collection.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Parcel;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.coincollection.CoinSlot;
+import com.coincollection.CoinSlotList;
+import com.coincollection.CoinSlotWriteQueue;
+import com.coincollection.CoinSymbolTable;
+import com.coincollection.CollectionInfo;
+import com.coincollection.CollectionListInfo;
+import com.coincollection.DatabaseAdapter;
+import com.coincollection.DatabaseHelper;
+import com.coincollection.ExportImportHelper;
+import com.coincollection.MainActivity;
+import com.spencerpages.R;
+import com.spencerpages.collections.LincolnCents;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static com.coincollection.CoinSlot.COL_ADV_GRADE_INDEX;
+import static com.coincollection.CoinSlot.COL_ADV_NOTES;
+import static com.coincollection.CoinSlot.COL_ADV_QUANTITY_INDEX;
+import static com.coincollection.CoinSlot.COL_COIN_IDENTIFIER;
+import static com.coincollection.CoinSlot.COL_COIN_MINT;
+import static com.coincollection.CoinSlot.COL_IN_COLLECTION;
+import static com.coincollection.CoinSlot.TBL_COINS;
+import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_DB_VERSION_FILE;
+import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_FOLDER_NAME;
+import static com.spencerpages.MainApplication.COLLECTION_TYPES;
+import static com.coincollection.CoinSlot.COIN_SLOT_WHERE_CLAUSE;
+import static com.coincollection.DatabaseHelper.COLLECTION_WHERE_CLAUSE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+// TODO - Must keep at 28 until Robolectric supports Java 9 (required to use 29+)
+@Config(sdk = Build.VERSION_CODES.P)
+public class DatabasePerformanceTests extends BaseTestCase {
+
+    private final static int NUM_COINS_PER_COLLECTION = 50;
+
+    /**
+     * Create a list of coins with P, D and S mint marks
+     * @param numCoins number of coins to create
+     * @return coin list
+     */
+    private ArrayList<CoinSlot> createSyntheticCoinList(int numCoins) {
+        String[] mints = new String[]{"P", "D", "S"};
+        ArrayList<CoinSlot> coinList = new ArrayList<>();
+        for (int i = 0; i < numCoins; i++) {
+            coinList.add(new CoinSlot(String.valueOf(1000 + (i / mints.length)), mints[i % mints.length],
+                    random.nextBoolean(), random.nextInt(10), random.nextInt(10), "Notes " + i));
+        }
+        return coinList;
+    }
+
+    /**
+     * Create a number of small collections in the database
+     * @param activity activity to use for database access
+     * @param numCollections number of collections to create
+     */
+    private void createSyntheticCollections(MainActivity activity, int numCollections) {
+        for (int i = 0; i < numCollections; i++) {
+            CollectionInfo collectionInfo = COLLECTION_TYPES[i % COLLECTION_TYPES.length];
+            ArrayList<CoinSlot> coinList = new ArrayList<>();
+            for (int j = 0; j < NUM_COINS_PER_COLLECTION; j++) {
+                coinList.add(new CoinSlot(String.valueOf(1900 + j), "", random.nextBoolean()));
+            }
+            CollectionListInfo collectionListInfo = getCollectionListInfo(
+                    "Collection " + i, collectionInfo, coinList);
+            activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, coinList);
+        }
+    }
+
+    /**
+     * Create collections of synthetic coins in the database
+     * @param activity activity to use for database access
+     * @param prefix collection name prefix, followed by the collection's index
+     * @param numCollections number of collections to create
+     * @param numCoins number of coins in each collection
+     * @return the coins in the last collection
+     */
+    private ArrayList<CoinSlot> createSyntheticCollections(MainActivity activity, String prefix,
+                                                           int numCollections, int numCoins) {
+        ArrayList<CoinSlot> lastCoinList = null;
+        for (int i = 0; i < numCollections; i++) {
+            lastCoinList = createSyntheticCoinList(numCoins);
+            CollectionListInfo collectionListInfo = getCollectionListInfo(
+                    prefix + i, COLLECTION_TYPES[i % COLLECTION_TYPES.length], lastCoinList);
+            activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, i, lastCoinList);
+        }
+        return lastCoinList;
+    }
+
+    /**
+     * Check that the per-collection COUNT queries and the single summary query agree
+     */
+    @Test
+    public void test_collectionSummaryQuery() {
+        for (final int numCollections : new int[]{1, 25}) {
+            try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                    new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                            .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+                scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                    @Override
+                    public void perform(MainActivity activity) {
+                        createSyntheticCollections(activity, numCollections);
+                        ArrayList<CollectionListInfo> loopEntries = new ArrayList<>();
+                        ArrayList<CollectionListInfo> summaryEntries = new ArrayList<>();
+                        activity.mDbAdapter.getAllTables(loopEntries);
+                        activity.mDbAdapter.getAllTableSummaries(summaryEntries);
+
+                        // Both methods must return the same results
+                        assertEquals(numCollections, loopEntries.size());
+                        assertEquals(loopEntries.size(), summaryEntries.size());
+                        for (int i = 0; i < loopEntries.size(); i++) {
+                            compareCollectionListInfos(loopEntries.get(i), summaryEntries.get(i));
+                        }
+
+                        deleteAllCollections(activity);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Check that the bulk insert used when creating a collection stores the same coins as
+     * inserting them one at a time
+     */
+    @Test
+    public void test_bulkInsert() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    CollectionInfo collectionInfo = new LincolnCents();
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(300);
+
+                    // Per-row inserts, the way collections used to be populated
+                    CollectionListInfo legacyListInfo = getCollectionListInfo(
+                            "Legacy Insert", collectionInfo, coinList);
+                    activity.mDbAdapter.createAndPopulateNewTable(legacyListInfo, 0, null);
+                    DatabaseHelper legacyDbHelper = new DatabaseHelper(activity);
+                    SQLiteDatabase legacyDb = legacyDbHelper.getWritableDatabase();
+                    for (CoinSlot coinSlot : coinList) {
+                        ContentValues values = new ContentValues();
+                        values.put(COL_COIN_IDENTIFIER, coinSlot.getIdentifier());
+                        values.put(COL_COIN_MINT, coinSlot.getMint());
+                        values.put(COL_IN_COLLECTION, coinSlot.isInCollectionInt());
+                        values.put(COL_ADV_GRADE_INDEX, coinSlot.getAdvancedGrades());
+                        values.put(COL_ADV_QUANTITY_INDEX, coinSlot.getAdvancedQuantities());
+                        values.put(COL_ADV_NOTES, coinSlot.getAdvancedNotes());
+                        DatabaseHelper.runSqlInsert(legacyDb, legacyListInfo.getName(), values);
+                    }
+                    legacyDbHelper.close();
+
+                    // Single transaction with a reused compiled statement
+                    CollectionListInfo bulkListInfo = getCollectionListInfo(
+                            "Bulk Insert", collectionInfo, coinList);
+                    activity.mDbAdapter.createAndPopulateNewTable(bulkListInfo, 1, coinList);
+
+                    // Both methods must produce the same collection contents
+                    compareCoinLists(coinList, activity.mDbAdapter.getCoinList(legacyListInfo.getName(), true));
+                    compareCoinLists(coinList, activity.mDbAdapter.getCoinList(bulkListInfo.getName(), true));
+                    checkCollectedCounts(activity);
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that a burst of taps in a collection reuses the cached compiled statements,
+     * and that the statements are shared by every collection (including after a rename)
+     */
+    @Test
+    public void test_statementCacheTapBurst() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numTaps = 100;
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(25);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            "Tap Burst", new LincolnCents(), coinList);
+                    String tableName = collectionListInfo.getName();
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+                    int startHits = activity.mDbAdapter.getStatementCacheHitCount();
+                    int startMisses = activity.mDbAdapter.getStatementCacheMissCount();
+                    for (int i = 0; i < numTaps; i++) {
+                        activity.mDbAdapter.toggleInCollection(tableName, coinList.get(i % coinList.size()));
+                    }
+                    int hits = activity.mDbAdapter.getStatementCacheHitCount() - startHits;
+                    int misses = activity.mDbAdapter.getStatementCacheMissCount() - startMisses;
+
+                    // Only the first tap should need to compile the statements (one to
+                    // toggle the coin and one to read back the new value)
+                    assertEquals(2, misses);
+                    assertEquals(2 * numTaps - 2, hits);
+
+                    // Each coin was toggled an even number of times
+                    for (CoinSlot coinSlot : coinList) {
+                        assertEquals(coinSlot.isInCollectionInt().intValue(),
+                                activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot));
+                    }
+
+                    // The collection name is bound, so the renamed collection uses the same
+                    // compiled statements
+                    activity.mDbAdapter.updateCollectionName(tableName, "Tap Burst Renamed");
+                    startMisses = activity.mDbAdapter.getStatementCacheMissCount();
+                    activity.mDbAdapter.toggleInCollection("Tap Burst Renamed", coinList.get(0));
+                    assertEquals(coinList.get(0).isInCollection() ? 0 : 1,
+                            activity.mDbAdapter.fetchIsInCollection("Tap Burst Renamed", coinList.get(0)));
+                    assertEquals(startMisses, activity.mDbAdapter.getStatementCacheMissCount());
+
+                    // And a collection re-created with a previously used name
+                    activity.mDbAdapter.dropCollectionTable("Tap Burst Renamed");
+                    collectionListInfo = getCollectionListInfo("Tap Burst Renamed", new LincolnCents(), coinList);
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+                    assertEquals(coinList.get(0).isInCollectionInt().intValue(),
+                            activity.mDbAdapter.fetchIsInCollection("Tap Burst Renamed", coinList.get(0)));
+                    checkCollectedCounts(activity);
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Toggle coins one tap at a time and as a multi-select batch, and check that the
+     * returned values match what was stored
+     */
+    @Test
+    public void test_toggleReturnsStoredValues() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numTaps = 200;
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(30);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            "Toggle Stress", new LincolnCents(), coinList);
+                    String tableName = collectionListInfo.getName();
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+                    // Single taps, applying the returned value the way CollectionPage does
+                    for (int i = 0; i < numTaps; i++) {
+                        CoinSlot coinSlot = coinList.get(random.nextInt(coinList.size()));
+                        boolean oldValue = coinSlot.isInCollection();
+                        int newValue = activity.mDbAdapter.toggleInCollection(tableName, coinSlot);
+                        assertEquals(oldValue ? 0 : 1, newValue);
+                        coinSlot.setInCollection(newValue == 1);
+                    }
+
+                    // Multi-select batches
+                    for (int i = 0; i < 3; i++) {
+                        int[] newValues = activity.mDbAdapter.toggleInCollection(tableName, coinList);
+                        assertEquals(coinList.size(), newValues.length);
+                        for (int j = 0; j < coinList.size(); j++) {
+                            assertEquals(coinList.get(j).isInCollection() ? 0 : 1, newValues[j]);
+                            coinList.get(j).setInCollection(newValues[j] == 1);
+                        }
+                    }
+
+                    // The database must match the in-memory state
+                    ArrayList<CoinSlot> dbCoinList = activity.mDbAdapter.getCoinList(tableName, false);
+                    for (int i = 0; i < coinList.size(); i++) {
+                        assertEquals(coinList.get(i).isInCollection(), dbCoinList.get(i).isInCollection());
+                    }
+                    checkCollectedCounts(activity);
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that individual coin lookups search the coin slot index rather than scanning
+     * the coins table, and that they return the stored values
+     */
+    @Test
+    public void test_coinSlotIndexLookup() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(300);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            "Index Lookup", new LincolnCents(), coinList);
+                    String tableName = collectionListInfo.getName();
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+                    DatabaseHelper dbHelper = new DatabaseHelper(activity);
+                    SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+                    Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM " + TBL_COINS
+                            + " WHERE " + COLLECTION_WHERE_CLAUSE + " AND " + COIN_SLOT_WHERE_CLAUSE,
+                            new String[]{tableName, "1000", "P"});
+                    StringBuilder queryPlan = new StringBuilder();
+                    while (cursor.moveToNext()) {
+                        queryPlan.append(cursor.getString(cursor.getColumnCount() - 1));
+                    }
+                    cursor.close();
+                    dbHelper.close();
+                    assertTrue(queryPlan.toString(), queryPlan.toString().contains(DatabaseHelper.IDX_COIN_SLOT));
+
+                    for (CoinSlot coinSlot : coinList) {
+                        assertEquals(coinSlot.isInCollectionInt().intValue(),
+                                activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot));
+                    }
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that the write queue coalesces repeated taps and that a flush leaves the database
+     * matching the in-memory coins
+     */
+    @Test
+    public void test_writeQueueCoalescing() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numTaps = 200;
+                    final int numTappedCoins = 30;
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(100);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            "Write Queue", new LincolnCents(), coinList);
+                    String tableName = collectionListInfo.getName();
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+                    // Taps only touch the in-memory coins until the queue is flushed
+                    CoinSlotWriteQueue writeQueue = new CoinSlotWriteQueue(activity.mDbAdapter, tableName, true);
+                    for (int i = 0; i < numTaps; i++) {
+                        writeQueue.toggle(coinList.get(random.nextInt(numTappedCoins)));
+                    }
+                    assertTrue(writeQueue.getPendingCount() <= numTappedCoins);
+
+                    writeQueue.flush();
+                    assertEquals(0, writeQueue.getPendingCount());
+                    CoinSlotWriteQueue.waitForWrites();
+                    assertTrue(writeQueue.isWritten());
+                    assertEquals(coinList, activity.mDbAdapter.getCoinList(tableName, true));
+                    for (CoinSlot coinSlot : coinList) {
+                        assertEquals(coinSlot.isInCollectionInt().intValue(),
+                                activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot));
+                    }
+                    checkCollectedCounts(activity);
+
+                    // Without background writes, each toggle is written right away
+                    writeQueue = new CoinSlotWriteQueue(activity.mDbAdapter, tableName, false);
+                    CoinSlot coinSlot = coinList.get(0);
+                    writeQueue.toggle(coinSlot);
+                    assertEquals(0, writeQueue.getPendingCount());
+                    assertEquals(coinSlot.isInCollectionInt().intValue(),
+                            activity.mDbAdapter.fetchIsInCollection(tableName, coinSlot));
+                    checkCollectedCounts(activity);
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that each journal mode is applied and that taps and exports work with it
+     */
+    @Test
+    public void test_journalModes() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 3;
+                    final int numCoins = 100;
+                    final int numTaps = 50;
+
+                    // The journal mode can only be switched away from WAL when no other
+                    // connections are open, so close the activity's connection while testing
+                    activity.mDbAdapter.close();
+                    for (int journalMode : new int[]{DatabaseHelper.JOURNAL_MODE_ROLLBACK, DatabaseHelper.JOURNAL_MODE_WAL}) {
+
+                        // Check that the journal mode was applied
+                        DatabaseHelper dbHelper = new DatabaseHelper(activity, journalMode);
+                        Cursor cursor = dbHelper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+                        assertTrue(cursor.moveToFirst());
+                        assertEquals(journalMode == DatabaseHelper.JOURNAL_MODE_WAL,
+                                cursor.getString(0).equalsIgnoreCase("wal"));
+                        cursor.close();
+                        dbHelper.close();
+
+                        DatabaseAdapter dbAdapter = new DatabaseAdapter(activity, journalMode);
+                        dbAdapter.open();
+                        ArrayList<CoinSlot> coinList = null;
+                        ArrayList<String> tableNames = new ArrayList<>();
+                        for (int i = 0; i < numCollections; i++) {
+                            coinList = createSyntheticCoinList(numCoins);
+                            CollectionListInfo collectionListInfo = getCollectionListInfo(
+                                    "Journal " + i, new LincolnCents(), coinList);
+                            dbAdapter.createAndPopulateNewTable(collectionListInfo, i, coinList);
+                            tableNames.add(collectionListInfo.getName());
+                        }
+
+                        // Each tap is committed on its own, like taps in CollectionPage
+                        String tableName = tableNames.get(tableNames.size() - 1);
+                        for (int i = 0; i < numTaps; i++) {
+                            CoinSlot coinSlot = coinList.get(random.nextInt(coinList.size()));
+                            coinSlot.setInCollection(dbAdapter.toggleInCollection(tableName, coinSlot) == 1);
+                        }
+                        assertEquals(coinList, dbAdapter.getCoinList(tableName, true));
+
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        ExportImportHelper helper = new ExportImportHelper(activity.mRes, dbAdapter);
+                        assertEquals(activity.mRes.getString(R.string.success_export, "journal.json"),
+                                helper.exportCollectionsToJson(outputStream, "journal.json"));
+                        assertTrue(outputStream.size() > 0);
+
+                        for (String name : tableNames) {
+                            dbAdapter.dropCollectionTable(name);
+                        }
+                        dbAdapter.checkpoint(true);
+                        dbAdapter.close();
+                    }
+                    activity.mDbAdapter.open();
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that the JSON export streams the coins rather than building up per-collection lists
+     */
+    @Test
+    public void test_streamingJsonExport() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 200;
+                    final int numCoins = 500;
+                    // Generous compared to the few short strings created per coin while
+                    // streaming, to leave room for the test framework's own allocations
+                    final long maxBytesAllocatedPerCoin = 2048;
+
+                    createSyntheticCollections(activity, "Export ", numCollections, numCoins);
+
+                    // Count the output instead of keeping it, so that only the export allocates
+                    final long[] numBytesWritten = new long[1];
+                    OutputStream outputStream = new OutputStream() {
+                        @Override
+                        public void write(int b) {
+                            numBytesWritten[0]++;
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                            numBytesWritten[0] += len;
+                        }
+                    };
+
+                    com.sun.management.ThreadMXBean threadBean =
+                            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                    long threadId = Thread.currentThread().getId();
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                    String result = helper.exportCollectionsToJson(outputStream, "streaming.json");
+                    long bytesAllocated = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+                    assertEquals(activity.mRes.getString(R.string.success_export, "streaming.json"), result);
+                    assertTrue(numBytesWritten[0] > 0);
+                    assertTrue(bytesAllocated / (numCollections * numCoins) < maxBytesAllocatedPerCoin);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that a JSON backup streamed into the database brings back every collection
+     */
+    @Test
+    public void test_streamingJsonImport() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 10;
+                    final int numCoins = 100;
+
+                    ArrayList<CoinSlot> lastCoinList = createSyntheticCollections(
+                            activity, "Import ", numCollections, numCoins);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, "import.json"),
+                            helper.exportCollectionsToJson(outputStream, "import.json"));
+                    assertEquals("", helper.importCollectionsFromJson(
+                            new ByteArrayInputStream(outputStream.toByteArray())));
+
+                    // Check that the collections came back in order with their coins
+                    ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                    activity.mDbAdapter.getAllTables(collectionListEntries);
+                    assertEquals(numCollections, collectionListEntries.size());
+                    for (int i = 0; i < numCollections; i++) {
+                        assertEquals("Import " + i, collectionListEntries.get(i).getName());
+                    }
+                    compareCoinLists(lastCoinList, activity.mDbAdapter.getCoinList("Import " + (numCollections - 1), true));
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that a compact backup round trips and is much smaller than JSON
+     */
+    @Test
+    public void test_compactBackupVersusJson() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 10;
+                    final int numCoins = 100;
+
+                    ArrayList<CoinSlot> lastCoinList = createSyntheticCollections(
+                            activity, "Backup ", numCollections, numCoins);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    String lastCollectionName = "Backup " + (numCollections - 1);
+
+                    // JSON round trip
+                    ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToJson(jsonStream, "backup.json");
+                    assertEquals("", helper.importCollectionsFromJson(new ByteArrayInputStream(jsonStream.toByteArray())));
+                    compareCoinLists(lastCoinList, activity.mDbAdapter.getCoinList(lastCollectionName, true));
+
+                    // Compact backup round trip
+                    ByteArrayOutputStream compactStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToCompactBackup(compactStream, "backup.ccb");
+                    assertEquals("", helper.importCollectionsFromCompactBackup(new ByteArrayInputStream(compactStream.toByteArray())));
+                    compareCoinLists(lastCoinList, activity.mDbAdapter.getCoinList(lastCollectionName, true));
+
+                    assertTrue(compactStream.size() < jsonStream.size() / 2);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that compressed JSON round trips at each compression level
+     */
+    @Test
+    public void test_compressedJsonLevels() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 10;
+                    final int numCoins = 100;
+
+                    ArrayList<CoinSlot> lastCoinList = createSyntheticCollections(
+                            activity, "Compressed ", numCollections, numCoins);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    String lastCollectionName = "Compressed " + (numCollections - 1);
+
+                    // Uncompressed export, for reference
+                    ByteArrayOutputStream jsonStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToJson(jsonStream, "backup.json");
+
+                    for (int level = Deflater.BEST_SPEED; level <= Deflater.BEST_COMPRESSION; level++) {
+                        ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+                        helper.exportCollectionsToCompressedJson(compressedStream, "backup.json.gz", level);
+                        assertTrue(compressedStream.size() < jsonStream.size() / 2);
+                        assertEquals("", helper.importCollectionsFromJson(
+                                new ByteArrayInputStream(compressedStream.toByteArray())));
+                        compareCoinLists(lastCoinList, activity.mDbAdapter.getCoinList(lastCollectionName, true));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that the legacy CSV files, which are written in parallel, cover every collection
+     */
+    @Test
+    public void test_parallelCsvExport() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 20;
+                    final int numCoins = 100;
+
+                    assertTrue(setEnabledPermissions(activity));
+                    ArrayList<CoinSlot> lastCoinList = createSyntheticCollections(
+                            activity, "CSV/", numCollections, numCoins);
+
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    String exportFolderName = activity.getLegacyExportFolderName();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToLegacyCSV(exportFolderName));
+
+                    // Check that every collection was written, with its '/' replaced
+                    for (int i = 0; i < numCollections; i++) {
+                        assertTrue(new File(exportFolderName, "CSV_SL_" + i + ".csv").isFile());
+                    }
+                    assertTrue(new File(exportFolderName, LEGACY_EXPORT_DB_VERSION_FILE).isFile());
+
+                    // Check that the coins round trip through the file
+                    deleteAllCollections(activity);
+                    assertEquals("", helper.importCollectionsFromLegacyCSV(exportFolderName));
+                    compareCoinLists(lastCoinList, activity.mDbAdapter.getCoinList("CSV/" + (numCollections - 1), true));
+                }
+            });
+        }
+    }
+
+    /**
+     * Check that coins loaded from different collections share their identifier and
+     * mint mark strings
+     */
+    @Test
+    public void test_internedCoinSlots() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    final int numCollections = 10;
+                    final int numCoinsPerCollection = 100;
+                    createSyntheticCollections(activity, "Heap ", numCollections, numCoinsPerCollection);
+
+                    // Equal identifiers and mint marks must be the same object
+                    IdentityHashMap<String, Boolean> symbols = new IdentityHashMap<>();
+                    int numCoins = 0;
+                    for (int i = 0; i < numCollections; i++) {
+                        for (CoinSlot coinSlot : activity.mDbAdapter.getCoinList("Heap " + i, true)) {
+                            symbols.put(coinSlot.getIdentifier(), Boolean.TRUE);
+                            symbols.put(coinSlot.getMint(), Boolean.TRUE);
+                            numCoins++;
+                        }
+                    }
+                    assertEquals(numCollections * numCoinsPerCollection, numCoins);
+                    assertEquals(new HashSet<>(symbols.keySet()).size(), symbols.size());
+                    assertTrue(CoinSymbolTable.size() >= symbols.size());
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads every field of each coin in a list, like CoinSlotAdapter does when binding views
+     * @param coinList coins to read
+     * @return a value depending on the fields read
+     */
+    private static int bindCoinList(List<CoinSlot> coinList) {
+        int checksum = 0;
+        for (int i = 0; i < coinList.size(); i++) {
+            CoinSlot coinSlot = coinList.get(i);
+            checksum += coinSlot.getIdentifier().length() + coinSlot.getMint().length()
+                    + coinSlot.isInCollectionInt() + coinSlot.getAdvancedGrades()
+                    + coinSlot.getAdvancedQuantities() + coinSlot.getAdvancedNotes().length();
+        }
+        return checksum;
+    }
+
+    /**
+     * Check that a collection loaded as a CoinSlotList matches the CoinSlot objects, and
+     * that it round trips through a smaller parcel
+     */
+    @Test
+    public void test_coinSlotListMatchesCoinSlots() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    String tableName = "Compact";
+                    ArrayList<CoinSlot> coinList = createSyntheticCoinList(500);
+                    CollectionListInfo collectionListInfo = getCollectionListInfo(
+                            tableName, new LincolnCents(), coinList);
+                    activity.mDbAdapter.createAndPopulateNewTable(collectionListInfo, 0, coinList);
+
+                    // Both ways of loading the collection give the same coins
+                    ArrayList<CoinSlot> objectList = activity.mDbAdapter.getCoinList(tableName, true);
+                    CoinSlotList compactList = activity.mDbAdapter.getCoinSlotList(tableName, true);
+                    assertEquals(objectList, compactList);
+                    assertEquals(compactList, objectList);
+                    assertEquals(bindCoinList(objectList), bindCoinList(compactList));
+
+                    // Parcel sizes, as when saving the collection's state
+                    Parcel parcel = Parcel.obtain();
+                    parcel.writeTypedList(objectList);
+                    int objectParcelSize = parcel.dataSize();
+                    parcel.recycle();
+                    parcel = Parcel.obtain();
+                    compactList.writeToParcel(parcel, 0);
+                    int compactParcelSize = parcel.dataSize();
+                    parcel.setDataPosition(0);
+                    assertEquals(compactList, CoinSlotList.CREATOR.createFromParcel(parcel));
+                    parcel.recycle();
+                    assertTrue(compactParcelSize < objectParcelSize);
+
+                    deleteAllCollections(activity);
+                }
+            });
+        }
+    }
+}
@@ -42,6 +42,8 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,6 +52,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.zip.Deflater;
 
 import static com.coincollection.ExportImportHelper.JSON_CHARSET;
 import static com.coincollection.ExportImportHelper.LEGACY_EXPORT_COLLECTION_LIST_FILE_EXT;
@@ -60,6 +63,7 @@ import static com.coincollection.MainActivity.NUMBER_OF_COLLECTION_LIST_SPACERS;
 import static com.spencerpages.MainApplication.COLLECTION_TYPES;
 import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -159,9 +163,13 @@ public class ExportImportTests extends BaseTestCase {
                     // Set up collections
                     //assertTrue(waitForMainActivitySetup(activity));
                     assertTrue(setEnabledPermissions(activity));
-                    assertTrue(setupOneOfEachCollectionTypes(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity, true));
                     activity.updateCollectionListFromDatabase();
                     ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                    ArrayList<ArrayList<CoinSlot>> beforeCoinLists = new ArrayList<>();
+                    for (String collectionName : beforeCollectionNames) {
+                        beforeCoinLists.add(activity.mDbAdapter.getCoinList(collectionName, true));
+                    }
 
                     // Export and check output
                     File exportFile = getTempFile("json-export.json");
@@ -181,11 +189,319 @@ public class ExportImportTests extends BaseTestCase {
 
                     // Run import and check results
                     InputStream inputStream = openInputStream(exportFile);
-                    assertEquals("", helper.importCollectionsFromJson(inputStream));
+                    assertEquals("", helper.importCollectionsFromJson(inputStream, exportFile.getName()));
                     ArrayList<String> afterCollectionNames = getCollectionNames(activity);
                     assertEquals(afterCollectionNames.size(), COLLECTION_TYPES.length);
                     assertEquals(beforeCollectionNames, afterCollectionNames);
+                    for (int i = 0; i < beforeCollectionNames.size(); i++) {
+                        compareCoinLists(beforeCoinLists.get(i),
+                                activity.mDbAdapter.getCoinList(beforeCollectionNames.get(i), true));
+                    }
                     closeStream(inputStream);
+
+                    // The restored backup is the base for exporting changes
+                    assertNotNull(activity.mDbAdapter.fetchBaseBackupId());
+                    assertEquals(exportFile.getName(), activity.mDbAdapter.fetchBaseBackupName());
+                }
+            });
+        }
+    }
+
+    /**
+     * Test exporting one of each collection type to a compact backup, and detecting the
+     * format when importing it
+     */
+    @Test
+    public void test_compactBackupExportOneOfEachCollection() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    // Set up collections
+                    assertTrue(setEnabledPermissions(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity, true));
+                    activity.updateCollectionListFromDatabase();
+                    ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                    ArrayList<ArrayList<CoinSlot>> beforeCoinLists = new ArrayList<>();
+                    for (String collectionName : beforeCollectionNames) {
+                        beforeCoinLists.add(activity.mDbAdapter.getCoinList(collectionName, true));
+                    }
+
+                    // Export
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToCompactBackup(outputStream, LEGACY_EXPORT_FOLDER_NAME));
+
+                    // Delete all collections
+                    deleteAllCollections(activity);
+                    assertEquals(getCollectionNames(activity).size(), 0);
+
+                    // Run import and check results
+                    InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+                    assertEquals("", helper.importCollectionsFromBackup(inputStream));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                    for (int i = 0; i < beforeCollectionNames.size(); i++) {
+                        compareCoinLists(beforeCoinLists.get(i),
+                                activity.mDbAdapter.getCoinList(beforeCollectionNames.get(i), true));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that a gzip compressed JSON export is detected and imported
+     */
+    @Test
+    public void test_compressedJsonExportOneOfEachCollection() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    // Set up collections
+                    assertTrue(setEnabledPermissions(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity, true));
+                    activity.updateCollectionListFromDatabase();
+                    ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                    ArrayList<ArrayList<CoinSlot>> beforeCoinLists = new ArrayList<>();
+                    for (String collectionName : beforeCollectionNames) {
+                        beforeCoinLists.add(activity.mDbAdapter.getCoinList(collectionName, true));
+                    }
+
+                    // Export
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToCompressedJson(outputStream, LEGACY_EXPORT_FOLDER_NAME,
+                                    Deflater.BEST_COMPRESSION));
+
+                    // Delete all collections
+                    deleteAllCollections(activity);
+                    assertEquals(getCollectionNames(activity).size(), 0);
+
+                    // Run import and check results
+                    InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+                    assertEquals("", helper.importCollectionsFromBackup(inputStream));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                    for (int i = 0; i < beforeCollectionNames.size(); i++) {
+                        compareCoinLists(beforeCoinLists.get(i),
+                                activity.mDbAdapter.getCoinList(beforeCollectionNames.get(i), true));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Test exporting only the collections that changed since a full JSON backup, and restoring
+     * the collections from the full backup plus the changes
+     */
+    @Test
+    public void test_changedCollectionsExport() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    // Set up collections
+                    assertTrue(setEnabledPermissions(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity, true));
+                    activity.updateCollectionListFromDatabase();
+
+                    // Changes can't be exported until there is a full backup
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    assertEquals(activity.mRes.getString(R.string.error_no_base_backup),
+                            helper.exportChangedCollectionsToJson(new ByteArrayOutputStream(), LEGACY_EXPORT_FOLDER_NAME));
+                    ByteArrayOutputStream baseOutputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToJson(baseOutputStream, LEGACY_EXPORT_FOLDER_NAME));
+                    assertEquals(LEGACY_EXPORT_FOLDER_NAME, activity.mDbAdapter.fetchBaseBackupName());
+
+                    // Change one collection and delete another
+                    ArrayList<String> collectionNames = getCollectionNames(activity);
+                    ArrayList<CoinSlot> coinList = activity.mDbAdapter.getCoinList(collectionNames.get(0), true);
+                    coinList.get(0).setInCollection(!coinList.get(0).isInCollection());
+                    activity.mDbAdapter.updateInCollection(collectionNames.get(0), coinList.subList(0, 1));
+                    activity.mDbAdapter.dropCollectionTable(collectionNames.get(1));
+                    ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                    ArrayList<ArrayList<CoinSlot>> beforeCoinLists = new ArrayList<>();
+                    for (String collectionName : beforeCollectionNames) {
+                        beforeCoinLists.add(activity.mDbAdapter.getCoinList(collectionName, true));
+                    }
+
+                    // Export the changes, which should only have the changed collection
+                    ByteArrayOutputStream changesOutputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportChangedCollectionsToJson(changesOutputStream, LEGACY_EXPORT_FOLDER_NAME));
+                    String changes = new String(changesOutputStream.toByteArray());
+                    assertEquals(1, changes.split("\"coinList\"", -1).length - 1);
+
+                    // A full backup that fails to export doesn't replace the base backup
+                    String baseBackupId = activity.mDbAdapter.fetchBaseBackupId();
+                    assertNotEquals(activity.mRes.getString(R.string.success_export, "failed.json"),
+                            helper.exportCollectionsToJson(new OutputStream() {
+                                @Override
+                                public void write(int b) throws IOException {
+                                    throw new IOException("Disk full");
+                                }
+                            }, "failed.json"));
+                    assertEquals(baseBackupId, activity.mDbAdapter.fetchBaseBackupId());
+                    assertEquals(LEGACY_EXPORT_FOLDER_NAME, activity.mDbAdapter.fetchBaseBackupName());
+                    ByteArrayOutputStream retryOutputStream = new ByteArrayOutputStream();
+                    helper.exportChangedCollectionsToJson(retryOutputStream, LEGACY_EXPORT_FOLDER_NAME);
+                    assertEquals(changes, new String(retryOutputStream.toByteArray()));
+
+                    // Delete all collections, then restore the full backup and the changes
+                    deleteAllCollections(activity);
+                    assertEquals(getCollectionNames(activity).size(), 0);
+                    assertEquals("", helper.importCollectionsFromJsonWithChanges(
+                            new ByteArrayInputStream(baseOutputStream.toByteArray()),
+                            Arrays.asList((InputStream) new ByteArrayInputStream(changesOutputStream.toByteArray()))));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                    for (int i = 0; i < beforeCollectionNames.size(); i++) {
+                        compareCoinLists(beforeCoinLists.get(i),
+                                activity.mDbAdapter.getCoinList(beforeCollectionNames.get(i), true));
+                    }
+
+                    // Changes can't be applied on top of a different full backup
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToJson(new ByteArrayOutputStream(), LEGACY_EXPORT_FOLDER_NAME));
+                    assertEquals(activity.mRes.getString(R.string.error_wrong_base_backup, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.importCollectionsFromBackup(new ByteArrayInputStream(changesOutputStream.toByteArray())));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that damaged JSON backups are caught by the checksums, both when verifying and when
+     * importing, and that the existing collections are kept
+     */
+    @Test
+    public void test_damagedJsonBackup() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    // Set up collections
+                    assertTrue(setEnabledPermissions(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity));
+                    activity.updateCollectionListFromDatabase();
+                    ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+
+                    // Export, and check that the undamaged backups pass
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME));
+                    String export = new String(outputStream.toByteArray());
+                    assertEquals("", helper.verifyBackup(new ByteArrayInputStream(outputStream.toByteArray())));
+                    ByteArrayOutputStream compactStream = new ByteArrayOutputStream();
+                    helper.exportCollectionsToCompactBackup(compactStream, LEGACY_EXPORT_FOLDER_NAME);
+                    assertEquals("", helper.verifyBackup(new ByteArrayInputStream(compactStream.toByteArray())));
+
+                    // Change a coin, which is caught by the collection checksum
+                    String damagedCoin = export.replaceFirst("\"inCollection\":false", "\"inCollection\":true");
+                    assertNotEquals(export, damagedCoin);
+                    String verifyResult = helper.verifyBackup(new ByteArrayInputStream(damagedCoin.getBytes()));
+                    assertNotEquals("", verifyResult);
+                    assertEquals(verifyResult, helper.importCollectionsFromBackup(
+                            new ByteArrayInputStream(damagedCoin.getBytes())));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+
+                    // Change the backup ID, which is caught by the file digest
+                    String damagedId = export.replaceFirst("\"backupId\":\"", "\"backupId\":\"0");
+                    assertNotEquals(export, damagedId);
+                    assertEquals(activity.mRes.getString(R.string.error_backup_damaged),
+                            helper.verifyBackup(new ByteArrayInputStream(damagedId.getBytes())));
+                    assertEquals(activity.mRes.getString(R.string.error_backup_damaged),
+                            helper.importCollectionsFromBackup(new ByteArrayInputStream(damagedId.getBytes())));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that a JSON import that fails part way through leaves the existing collections
+     */
+    @Test
+    public void test_jsonImportTruncatedFile() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    // Set up collections
+                    assertTrue(setEnabledPermissions(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity));
+                    activity.updateCollectionListFromDatabase();
+                    ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+
+                    // Export, then cut the file off part way through the collections
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToJson(outputStream, LEGACY_EXPORT_FOLDER_NAME));
+                    byte[] exportBytes = outputStream.toByteArray();
+                    InputStream inputStream = new ByteArrayInputStream(
+                            Arrays.copyOf(exportBytes, exportBytes.length / 2));
+
+                    // Run import and check that nothing changed
+                    assertNotEquals("", helper.importCollectionsFromJson(inputStream));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
+                    for (String collectionName : beforeCollectionNames) {
+                        assertTrue(activity.mDbAdapter.getCoinList(collectionName, true).size() > 0);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that a CSV import with missing collection files reports each missing file and
+     * leaves the existing collections
+     */
+    @Test
+    public void test_csvImportMissingFiles() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    // Set up collections and export them
+                    assertTrue(setEnabledPermissions(activity));
+                    assertTrue(setupOneOfEachCollectionTypes(activity));
+                    activity.updateCollectionListFromDatabase();
+                    ArrayList<String> beforeCollectionNames = getCollectionNames(activity);
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    assertEquals(activity.mRes.getString(R.string.success_export, LEGACY_EXPORT_FOLDER_NAME),
+                            helper.exportCollectionsToLegacyCSV(activity.getLegacyExportFolderName()));
+
+                    // Remove the first and last collection files
+                    File firstFile = new File(activity.getLegacyExportFolderName(),
+                            COLLECTION_TYPES[0].getCoinType() + ".csv");
+                    File lastFile = new File(activity.getLegacyExportFolderName(),
+                            COLLECTION_TYPES[COLLECTION_TYPES.length - 1].getCoinType() + ".csv");
+                    assertTrue(firstFile.delete());
+                    assertTrue(lastFile.delete());
+
+                    // Run import and check that both files are reported and nothing changed
+                    String result = helper.importCollectionsFromLegacyCSV(activity.getLegacyExportFolderName());
+                    assertTrue(result.contains(activity.mRes.getString(R.string.cannot_find_input_file, firstFile.getAbsolutePath())));
+                    assertTrue(result.contains(activity.mRes.getString(R.string.cannot_find_input_file, lastFile.getAbsolutePath())));
+                    assertEquals(beforeCollectionNames, getCollectionNames(activity));
                 }
             });
         }
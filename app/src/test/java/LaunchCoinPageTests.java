@@ -76,6 +76,8 @@ public class LaunchCoinPageTests extends BaseTestCase {
                         // Launch the collection
                         Intent intent = activity.launchCoinPageActivity(scenario.mCollectionListInfo);
                         assertNotNull(intent);
+                        // Load the collection on the current thread
+                        intent.putExtra(CollectionPage.UNIT_TEST_USE_ASYNC_TASKS, false);
                         CollectionPage coinActivity = Robolectric.buildActivity(CollectionPage.class, intent).get();
                         assertNotNull(coinActivity);
                         coinActivity.onCreate(null);
@@ -24,25 +24,33 @@ import android.os.Build;
 import androidx.test.core.app.ActivityScenario;
 import androidx.test.core.app.ApplicationProvider;
 
+import com.coincollection.CoinSlot;
 import com.coincollection.CollectionInfo;
 import com.coincollection.CollectionListInfo;
+import com.coincollection.ExportImportHelper;
 import com.coincollection.MainActivity;
 import com.coincollection.ReorderAdapter;
 import com.coincollection.ReorderCollections;
 import com.spencerpages.MainApplication;
+import com.spencerpages.R;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import static android.os.Looper.getMainLooper;
 import static com.spencerpages.SharedTest.COLLECTION_LIST_INFO_SCENARIOS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(RobolectricTestRunner.class)
 // TODO - Must keep at 28 until Robolectric supports Java 9 (required to use 29+)
@@ -174,4 +182,131 @@ public class MainActivityTests extends BaseTestCase {
             }
         }
     }
+
+    /**
+     * Test that the task opening the database delivers its result to the activity, including
+     * when the activity is recreated while the task is running
+     */
+    @Test
+    public void test_openDatabaseTaskAcrossRecreate() throws InterruptedException {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    createNewTable(activity, COLLECTION_LIST_INFO_SCENARIOS[0], new ArrayList<CoinSlot>(), 0);
+                }
+            });
+        }
+
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class))) {
+            scenario.recreate();
+
+            // Wait for the collection list to be loaded once the database is open
+            final int[] numberOfCollections = new int[1];
+            for (int waited = 0; waited < 10000 && numberOfCollections[0] == 0; waited += 10) {
+                Thread.sleep(10);
+                shadowOf(getMainLooper()).idle();
+                scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                    @Override
+                    public void perform(MainActivity activity) {
+                        numberOfCollections[0] = activity.mNumberOfCollections;
+                    }
+                });
+            }
+            assertEquals(1, numberOfCollections[0]);
+        }
+    }
+
+    /**
+     * Test that exports report their progress as each collection is written
+     */
+    @Test
+    public void test_exportProgress() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    for (int i = 0; i < COLLECTION_LIST_INFO_SCENARIOS.length; i++) {
+                        activity.mDbAdapter.createAndPopulateNewTable(COLLECTION_LIST_INFO_SCENARIOS[i],
+                                i, new ArrayList<CoinSlot>());
+                    }
+
+                    final ArrayList<Float> progress = new ArrayList<>();
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    helper.setProgressListener(new ExportImportHelper.ProgressListener() {
+                        @Override
+                        public void onProgress(float fraction) {
+                            progress.add(fraction);
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return false;
+                        }
+                    });
+                    helper.exportCollectionsToJson(new ByteArrayOutputStream(), "test.json");
+
+                    assertEquals(COLLECTION_LIST_INFO_SCENARIOS.length, progress.size());
+                    for (int i = 1; i < progress.size(); i++) {
+                        assertTrue(progress.get(i) > progress.get(i - 1));
+                    }
+                    assertEquals(1.0f, progress.get(progress.size() - 1), 0.0f);
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that an import cancelled part way through leaves the collections unchanged
+     */
+    @Test
+    public void test_cancelledImportRollsBack() {
+        try(ActivityScenario<MainActivity> scenario = ActivityScenario.launch(
+                new Intent(ApplicationProvider.getApplicationContext(), MainActivity.class)
+                        .putExtra(MainActivity.UNIT_TEST_USE_ASYNC_TASKS, false))) {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    for (int i = 0; i < COLLECTION_LIST_INFO_SCENARIOS.length; i++) {
+                        activity.mDbAdapter.createAndPopulateNewTable(COLLECTION_LIST_INFO_SCENARIOS[i],
+                                i, new ArrayList<CoinSlot>());
+                    }
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    new ExportImportHelper(activity.mRes, activity.mDbAdapter)
+                            .exportCollectionsToJson(outputStream, "test.json");
+
+                    // Cancel once the first collection has been imported
+                    final ArrayList<Float> progress = new ArrayList<>();
+                    ExportImportHelper helper = new ExportImportHelper(activity.mRes, activity.mDbAdapter);
+                    helper.setProgressListener(new ExportImportHelper.ProgressListener() {
+                        @Override
+                        public void onProgress(float fraction) {
+                            progress.add(fraction);
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return progress.size() > 0;
+                        }
+                    });
+                    String result = helper.importCollectionsFromJson(
+                            new ByteArrayInputStream(outputStream.toByteArray()));
+
+                    assertEquals(activity.mRes.getString(R.string.error_import_canceled), result);
+                    ArrayList<CollectionListInfo> collectionListEntries = new ArrayList<>();
+                    activity.mDbAdapter.getAllTableSummaries(collectionListEntries);
+                    assertEquals(COLLECTION_LIST_INFO_SCENARIOS.length, collectionListEntries.size());
+                    for (int i = 0; i < COLLECTION_LIST_INFO_SCENARIOS.length; i++) {
+                        assertEquals(COLLECTION_LIST_INFO_SCENARIOS[i].getName(),
+                                collectionListEntries.get(i).getName());
+                    }
+                }
+            });
+        }
+    }
 }